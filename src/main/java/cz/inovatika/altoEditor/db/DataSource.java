@@ -2,6 +2,7 @@ package cz.inovatika.altoEditor.db;
 
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import java.sql.Array;
 import java.sql.Connection;
 import java.sql.Date;
 import java.sql.PreparedStatement;
@@ -9,6 +10,7 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.HashMap;
+import java.util.Properties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -29,13 +31,19 @@ public class DataSource {
      * @param user
      * @param password
      * @param poolSize
+     * @param properties - vlastnosti predane ovladaci, napr. cache prepared statementu
      */
-    public static void configure(String dsName, String url, String driver, String user, String password, int poolSize) {
+    public static void configure(String dsName, String url, String driver, String user, String password, int poolSize, Properties properties) {
         config.setJdbcUrl(url);
         config.setUsername(user);
         config.setPassword(password);
         config.setDriverClassName(driver);
         config.setMaximumPoolSize(poolSize);
+        if (properties != null) {
+            for (String name : properties.stringPropertyNames()) {
+                config.addDataSourceProperty(name, properties.getProperty(name));
+            }
+        }
         if (namedDS.get(dsName) != null) {
             namedDS.get(dsName).close();
         }
@@ -50,7 +58,11 @@ public class DataSource {
      * @param poolSize
      */
     public static void configure(String url, String driver, String user, String password, int poolSize) {
-        configure(DEFAULT_DS, url, driver, user, password, poolSize);
+        configure(DEFAULT_DS, url, driver, user, password, poolSize, null);
+    }
+
+    public static void configure(String url, String driver, String user, String password, int poolSize, Properties properties) {
+        configure(DEFAULT_DS, url, driver, user, password, poolSize, properties);
     }
 
     /**
@@ -78,49 +90,47 @@ public class DataSource {
     }
 
     /**
-     * spravne nastavi hodnoty dle typu objektu na null
+     * nastavi hodnoty parametru v poradi, v jakem jsou uvedeny v dotazu
+     *
+     * @param ps
+     * @param values
+     * @throws java.sql.SQLException
+     */
+    public static void setValues(PreparedStatement ps, Object... values) throws SQLException {
+        for (int i = 0; i < values.length; i++) {
+            setValue(ps, i + 1, values[i]);
+        }
+    }
+
+    /**
+     * nastavi hodnotu dle typu objektu, metadata parametru se nectou (kazde cteni je dalsi dotaz na server)
      *
      * @param ps
      * @param pos
      * @param val
      * @throws java.sql.SQLException
      */
-    public static void setValue(PreparedStatement ps, int pos, Object val) throws SQLException, NumberFormatException {
-//          AddressFinder.logger.info("Delam : {} , {} ",ps.getParameterMetaData().getParameterTypeName(pos) , val);
-        switch (ps.getParameterMetaData().getParameterType(pos)) {
-            case Types.DATE:
-                if (val == null) {
-                    ps.setNull(pos, Types.DATE);
-                } else {
-                    ps.setDate(pos, (Date) val);
-                }
-                break;
-            case Types.TIMESTAMP:
-                if (val == null) {
-                    ps.setNull(pos, Types.TIMESTAMP);
-                } else {
-                    ps.setTimestamp(pos, (Timestamp) val);
-                }
-                break;
-            case Types.NUMERIC:
-            case Types.INTEGER:
-                if (val != null && !val.toString().isEmpty()) {
-                    ps.setInt(pos, Integer.parseInt(val.toString()));
-                } else {
-                    ps.setNull(pos, Types.INTEGER);
-
-                }
-                break;
-            case Types.BIT:
-                if (val != null && Boolean.parseBoolean(val.toString())) {
-                    ps.setBoolean(pos, true);
-                } else {
-                    ps.setBoolean(pos, false);
-                }
-                break;
-            default:
-                ps.setString(pos, (String) val);
+    public static void setValue(PreparedStatement ps, int pos, Object val) throws SQLException {
+        if (val == null) {
+            ps.setNull(pos, Types.NULL);
+        } else if (val instanceof String) {
+            ps.setString(pos, (String) val);
+        } else if (val instanceof Integer) {
+            ps.setInt(pos, (Integer) val);
+        } else if (val instanceof Long) {
+            ps.setLong(pos, (Long) val);
+        } else if (val instanceof Boolean) {
+            ps.setBoolean(pos, (Boolean) val);
+        } else if (val instanceof Timestamp) {
+            ps.setTimestamp(pos, (Timestamp) val);
+        } else if (val instanceof Date) {
+            ps.setDate(pos, (Date) val);
+        } else if (val instanceof java.util.Date) {
+            ps.setTimestamp(pos, new Timestamp(((java.util.Date) val).getTime()));
+        } else if (val instanceof Array) {
+            ps.setArray(pos, (Array) val);
+        } else {
+            ps.setObject(pos, val);
         }
     }
 }
-
@@ -1,7 +1,10 @@
 package cz.inovatika.altoEditor.db;
 
 import cz.inovatika.altoEditor.db.dao.BatchDao;
+import cz.inovatika.altoEditor.db.dao.BatchPageDao;
+import cz.inovatika.altoEditor.db.dao.Cursor;
 import cz.inovatika.altoEditor.db.dao.DigitalObjectDao;
+import cz.inovatika.altoEditor.db.dao.Page;
 import cz.inovatika.altoEditor.db.dao.UserDao;
 import cz.inovatika.altoEditor.db.dao.VersionDao;
 import cz.inovatika.altoEditor.db.models.Batch;
@@ -13,6 +16,7 @@ import cz.inovatika.altoEditor.kramerius.K7ObjectInfo;
 import cz.inovatika.altoEditor.models.DigitalObjectView;
 import cz.inovatika.altoEditor.models.ObjectInformation;
 import cz.inovatika.altoEditor.user.UserProfile;
+import cz.inovatika.altoEditor.utils.Config;
 import cz.inovatika.altoEditor.utils.Const;
 import java.io.File;
 import java.io.IOException;
@@ -20,7 +24,9 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.sql.SQLException;
 import java.text.ParseException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -28,28 +34,107 @@ public class Manager {
 
     private static final Logger LOGGER = LogManager.getLogger(Manager.class.getName());
 
+    private static final int MAX_CACHED_USERS = 10000;
+
+    /**
+     * Users are never deleted and their id never changes, only a renamed login is removed. A rename on another node
+     * of the cluster does not reach this cache, so in the cluster mode the entries expire. The least recently used
+     * logins are dropped over {@link #MAX_CACHED_USERS}.
+     */
+    private static final Map<String, CachedUser> USERS_BY_LOGIN = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedUser> eldest) {
+            return size() > MAX_CACHED_USERS;
+        }
+    };
+
     public static Batch addNewBatch(String pid, String priority, String instanceId, Integer dObjId) throws SQLException {
         int batchId = BatchDao.createNewBatch(pid, priority, instanceId, dObjId);
         return BatchDao.getBatchById(batchId);
     }
 
+    /**
+     * Creates a batch for the object unless it already has a planned or running batch, in that case
+     * the existing batch is returned. If upgradePriority is set, a planned batch gets the requested priority when it is higher.
+     */
+    public static Batch addNewBatchIfAbsent(String pid, String priority, String instanceId, Integer dObjId, String createdBy, boolean upgradePriority) throws SQLException {
+        // the active batch may finish between both queries, then a new one is created
+        for (int attempt = 0; attempt < 3; attempt++) {
+            int batchId = BatchDao.createNewBatchIfAbsent(pid, priority, instanceId, dObjId, createdBy);
+            if (batchId > 0) {
+                return BatchDao.getBatchById(batchId);
+            }
+            Batch batch = BatchDao.findActiveBatch(pid, instanceId);
+            if (batch != null) {
+                if (upgradePriority && BatchDao.upgradePriority(batch.getId(), priority)) {
+                    LOGGER.info("Batch " + batch.getId() + ": priority raised from " + batch.getPriority() + " to " + priority + ".");
+                    batch = BatchDao.getBatchById(batch.getId());
+                }
+                return batch;
+            }
+        }
+        throw new SQLException("Unable to create a batch for " + pid + ".");
+    }
+
     public static Batch startWaitingBatch(Batch batch) throws SQLException {
         BatchDao.updateBatchState(Const.BATCH_STATE_RUNNING, batch.getId(), null);
         return BatchDao.getBatchById(batch.getId());
     }
 
+    /**
+     * @return the running batch or null if the batch has been already claimed by another worker
+     */
+    public static Batch claimBatch(Batch batch, String node, long lease) throws SQLException {
+        if (!BatchDao.claimBatch(batch.getId(), node, lease)) {
+            return null;
+        }
+        return BatchDao.getBatchById(batch.getId());
+    }
+
+    public static Batch claimNextBatch(String node, long lease, boolean highPriorityOnly, long agingInterval,
+                                       long fairInterval, Map<String, Integer> weights, Map<String, Integer> maxRunning) throws SQLException {
+        return BatchDao.claimNextBatch(node, lease, highPriorityOnly, agingInterval, fairInterval, weights, maxRunning);
+    }
+
+    public static Integer reservePreemption(String node, long lease, Map<String, Integer> maxRunning) throws SQLException {
+        return BatchDao.reservePreemption(node, lease, maxRunning);
+    }
+
+    public static int renewLeases(String node, long lease) throws SQLException {
+        return BatchDao.renewLeases(node, lease);
+    }
+
+    public static int requeueRunningBatches(int maxAttempts) throws SQLException {
+        return BatchDao.requeueRunningBatches(maxAttempts);
+    }
+
+    public static int requeueNodeBatches(String node, int maxAttempts) throws SQLException {
+        return BatchDao.requeueNodeBatches(node, maxAttempts);
+    }
+
+    public static int requeueExpiredBatches(int maxAttempts) throws SQLException {
+        return BatchDao.requeueExpiredBatches(maxAttempts);
+    }
+
     public static Batch setSubStateBatch(Batch batch, String subState) throws SQLException {
         BatchDao.updateBatchSubState(subState, batch.getId());
         return BatchDao.getBatchById(batch.getId());
     }
 
     public static Batch updateInfoBatch(Batch batch, File folder) throws SQLException {
-        int estimateItemNumber = folder.listFiles().length;
+        return updateInfoBatch(batch, folder.listFiles().length);
+    }
+
+    public static Batch updateInfoBatch(Batch batch, int estimateItemNumber) throws SQLException {
         String type = estimateItemNumber == 1 ? Const.BATCH_TYPE_SINGLE : Const.BATCH_TYPE_MULTIPLE;
         BatchDao.updateBatchInfo(estimateItemNumber, type, batch.getId());
         return BatchDao.getBatchById(batch.getId());
     }
 
+    public static void updateProgressBatch(Batch batch, String message) throws SQLException {
+        BatchDao.updateBatchLog(message, batch.getId());
+    }
+
     public static Batch finishedWithError(Batch batch, Throwable t) throws SQLException {
         BatchDao.updateBatchState(Const.BATCH_STATE_FAILED, batch.getId(), toString(t));
         return BatchDao.getBatchById(batch.getId());
@@ -57,9 +142,72 @@ public class Manager {
 
     public static Batch finishedSuccesfully(Batch batch) throws SQLException {
         BatchDao.updateBatchState(Const.BATCH_STATE_DONE, batch.getId(), null);
+        BatchPageDao.deletePages(batch.getId());
+        return BatchDao.getBatchById(batch.getId());
+    }
+
+    /**
+     * The process of a canceled batch ended, the state set by the cancel request is kept.
+     */
+    public static Batch finishedCanceled(Batch batch) throws SQLException {
+        BatchPageDao.deletePages(batch.getId());
+        return BatchDao.getBatchById(batch.getId());
+    }
+
+    /**
+     * Plans the failed batch again, the next attempt continues with the pages that were not finished.
+     */
+    public static Batch retryBatch(Batch batch, Throwable t) throws SQLException {
+        String message = "Attempt " + batch.getAttempts() + " failed (" + t.getMessage() + "), planned again.";
+        if (message.length() > 255) {
+            message = message.substring(0, 252) + "...";
+        }
+        BatchDao.replanBatch(batch.getId(), message);
+        return BatchDao.getBatchById(batch.getId());
+    }
+
+    public static Batch deferBatch(Batch batch, String message) throws SQLException {
+        BatchDao.deferBatch(batch.getId(), message);
         return BatchDao.getBatchById(batch.getId());
     }
 
+    /**
+     * @return the canceled batch or null if the batch is not planned or running
+     */
+    public static Batch cancelBatch(Integer batchId, String message) throws SQLException {
+        Batch batch = BatchDao.cancelBatch(batchId, message);
+        if (batch != null) {
+            BatchPageDao.deletePages(batchId);
+        }
+        return batch;
+    }
+
+    /**
+     * @return true if the batch has been canceled, e.g. by a request handled by another node
+     */
+    public static boolean isCanceled(Integer batchId) throws SQLException {
+        Batch batch = BatchDao.getBatchById(batchId);
+        return batch != null && Const.BATCH_STATE_CANCELED.equals(batch.getState());
+    }
+
+    public static Map<String, String> getBatchPageStates(Batch batch) throws SQLException {
+        return BatchPageDao.getPageStates(batch.getId());
+    }
+
+    public static void updateBatchPageStates(Batch batch, List<String> pids, String state) throws SQLException {
+        BatchPageDao.updatePageStates(batch.getId(), pids, state);
+    }
+
+    /**
+     * Writes the rows of the generated pages of the batch and marks the pages saved in one transaction.
+     */
+    public static void saveGeneratedPages(Batch batch, List<String> pids, String login, List<ObjectInformation> newObjects,
+                                          List<Integer> updatedObjects, String versionXml, String instanceId) throws SQLException {
+        Integer userId = newObjects.isEmpty() ? null : getOrCreateUser(login).getId();
+        BatchPageDao.saveGeneratedPages(batch.getId(), pids, Const.BATCH_PAGE_STATE_SAVED, userId, newObjects, updatedObjects,
+                versionXml, instanceId, Const.DIGITAL_OBJECT_STATE_GENERATED);
+    }
+
     private static String toString(Throwable t) {
         StringWriter sw = new StringWriter();
         t.printStackTrace(new PrintWriter(sw, true));
@@ -78,6 +226,10 @@ public class Manager {
         return BatchDao.getBatches(id, pid, createDate, updateDate, state, substate, priority, type, instanceId, estimateItemNumber, log, orderBy, orderSort, limit, offset);
     }
 
+    public static Page<Batch> getBatchesPage(String id, String pid, String createDate, String updateDate, String state, String substate, String priority, String type, String instanceId, String estimateItemNumber, String log, String orderBy, String orderSort, Integer limit, Integer offset, Cursor cursor, boolean count) throws SQLException, ParseException {
+        return BatchDao.getBatchesPage(id, pid, createDate, updateDate, state, substate, priority, type, instanceId, estimateItemNumber, log, orderBy, orderSort, limit, offset, cursor, count);
+    }
+
     public static Integer getBatchesCount(String id, String pid, String createDate, String updateDate, String state, String substate, String priority, String type, String instanceId, String estimateItemNumber, String log) throws SQLException, ParseException {
         return BatchDao.getBatchesCount(id, pid, createDate, updateDate, state, substate, priority, type, instanceId, estimateItemNumber, log);
     }
@@ -108,16 +260,7 @@ public class Manager {
 
     public static List<DigitalObjectView> getDigitalObjects(String id, String rUserId, String instance, String pid, String versionXml, String datum, String state, String label, String parentLabel, String parentPath, String login, String orderBy, String orderSort, Integer limit, Integer offset) throws SQLException, ParseException {
         if (login != null && !login.isEmpty()) {
-            User user = Manager.getUserByLogin(login);
-            if (user == null) {
-                Manager.createUser(login);
-                user = Manager.getUserByLogin(login);
-            }
-            if (user == null || user.getId() == null) {
-                throw new IllegalStateException(String.format("User with login \"%s\" does not exists.", login));
-            } else {
-                rUserId = String.valueOf(user.getId());
-            }
+            rUserId = String.valueOf(getOrCreateUser(login).getId());
         }
         if (versionXml != null && !versionXml.isEmpty()) {
             versionXml = versionXml.replace(AltoDatastreamEditor.ALTO_ID + ".", "");
@@ -125,18 +268,19 @@ public class Manager {
         return DigitalObjectDao.getDigitalObjects(id, rUserId, instance, pid, versionXml, datum, state, label, parentLabel, parentPath, orderBy, orderSort, limit, offset);
     }
 
+    public static Page<DigitalObjectView> getDigitalObjectsPage(String id, String rUserId, String instance, String pid, String versionXml, String datum, String state, String label, String parentLabel, String parentPath, String login, String orderBy, String orderSort, Integer limit, Integer offset, Cursor cursor, boolean count) throws SQLException, ParseException {
+        if (login != null && !login.isEmpty()) {
+            rUserId = String.valueOf(getOrCreateUser(login).getId());
+        }
+        if (versionXml != null && !versionXml.isEmpty()) {
+            versionXml = versionXml.replace(AltoDatastreamEditor.ALTO_ID + ".", "");
+        }
+        return DigitalObjectDao.getDigitalObjectsPage(id, rUserId, instance, pid, versionXml, datum, state, label, parentLabel, parentPath, orderBy, orderSort, limit, offset, cursor, count);
+    }
+
     public static Integer getDigitalObjectsCount(String id, String rUserId, String instance, String pid, String versionXml, String datum, String state, String label, String parentLabel, String parentPath, String login) throws SQLException, ParseException {
         if (login != null && !login.isEmpty()) {
-            User user = Manager.getUserByLogin(login);
-            if (user == null) {
-                Manager.createUser(login);
-                user = Manager.getUserByLogin(login);
-            }
-            if (user == null || user.getId() == null) {
-                throw new IllegalStateException(String.format("User with login \"%s\" does not exists.", login));
-            } else {
-                rUserId = String.valueOf(user.getId());
-            }
+            rUserId = String.valueOf(getOrCreateUser(login).getId());
         }
         if (versionXml != null && !versionXml.isEmpty()) {
             versionXml = versionXml.replace(AltoDatastreamEditor.ALTO_ID + ".", "");
@@ -146,24 +290,10 @@ public class Manager {
 
     public static List<DigitalObjectView> getDigitalObjects(String login, String pid, String orderBy, String orderSort) throws SQLException {
         if (login != null && !login.isEmpty() && pid != null && !pid.isEmpty()) {
-            User user = Manager.getUserByLogin(login);
-            if (user == null) {
-                Manager.createUser(login);
-                user = Manager.getUserByLogin(login);
-            }
-            if (user == null || user.getId() == null) {
-                throw new IllegalStateException(String.format("User with login \"%s\" does not exists.", login));
-            }
+            User user = getOrCreateUser(login);
             return getDigitalObjectsByUserIdAndPid(user.getId(), pid, orderBy, orderSort);
         } else if (login != null && !login.isEmpty()) {
-            User user = Manager.getUserByLogin(login);
-            if (user == null) {
-                Manager.createUser(login);
-                user = Manager.getUserByLogin(login);
-            }
-            if (user == null || user.getId() == null) {
-                throw new IllegalStateException(String.format("User with login \"%s\" does not exists.", login));
-            }
+            User user = getOrCreateUser(login);
             return getDigitalObjectsByUserId(user.getId(), orderBy, orderSort);
         } else if (pid != null && !pid.isEmpty()) {
             return getDigitalObjectsByPid(pid, orderBy, orderSort);
@@ -207,25 +337,49 @@ public class Manager {
 
     public static void createDigitalObject(UserProfile userProfile, String pid, String label, String parentPid, String parentLabel, String versionXml, String instanceId, String state) throws SQLException, AltoEditorException, IOException {
         if (label == null || parentPid == null || parentLabel == null) {
-            if (versionXml != null && !(AltoDatastreamEditor.ALTO_ID + ".0").equals(versionXml)) {
-                List<DigitalObjectView> objects = getDigitalObjects(Const.USER_ALTOEDITOR, pid);
-                if (!objects.isEmpty()) {
-                    DigitalObjectView object = objects.get(0);
-                    if (object.getLabel() != null) {
-                        DigitalObjectDao.createDigitalObject(userProfile.getUsername(), pid, object.getLabel(), object.getParentPath(), object.getParentLabel(), versionXml, instanceId, state);
-                        return;
-                    }
-                }
-            }
-
-            K7ObjectInfo objectInfo = new K7ObjectInfo();
-            ObjectInformation information = objectInfo.getObjectInformation(pid, instanceId, userProfile);
+            ObjectInformation information = getObjectInformation(userProfile, pid, versionXml, instanceId);
             DigitalObjectDao.createDigitalObject(userProfile.getUsername(), pid, information.getLabel(), information.getParentPath(), information.getParentLabel(), versionXml, instanceId, state);
             return;
         }
         DigitalObjectDao.createDigitalObject(userProfile.getUsername(), pid, label, parentPid, parentLabel, versionXml, instanceId, state);
     }
 
+    /**
+     * Creates all objects in one transaction, the information comes from {@link #getObjectInformation}.
+     */
+    public static void createDigitalObjects(String login, List<ObjectInformation> objects, String versionXml, String instanceId, String state) throws SQLException {
+        DigitalObjectDao.createDigitalObjects(login, objects, versionXml, instanceId, state);
+    }
+
+    public static void updateDigitalObjectsWithState(List<Integer> objectIds, String state) throws SQLException {
+        DigitalObjectDao.updateDigitalObjectsWithState(objectIds, state);
+    }
+
+    /**
+     * Label and parent of the object, taken from the default version if it exists or from Kramerius.
+     */
+    public static ObjectInformation getObjectInformation(UserProfile userProfile, String pid, String versionXml, String instanceId) throws SQLException, AltoEditorException, IOException {
+        if (versionXml != null && !(AltoDatastreamEditor.ALTO_ID + ".0").equals(versionXml)) {
+            List<DigitalObjectView> objects = getDigitalObjects(Const.USER_ALTOEDITOR, pid);
+            if (!objects.isEmpty()) {
+                DigitalObjectView object = objects.get(0);
+                if (object.getLabel() != null) {
+                    ObjectInformation information = new ObjectInformation();
+                    information.setPid(pid);
+                    information.setLabel(object.getLabel());
+                    information.setParentPath(object.getParentPath());
+                    information.setParentLabel(object.getParentLabel());
+                    return information;
+                }
+            }
+        }
+
+        K7ObjectInfo objectInfo = new K7ObjectInfo();
+        ObjectInformation information = objectInfo.getObjectInformation(pid, instanceId, userProfile);
+        information.setPid(pid);
+        return information;
+    }
+
     public static List<DigitalObjectView> getDigitalObjectsByUserIdAndPid(Integer userId, String pid, String orderBy, String orderSort) throws SQLException {
         return DigitalObjectDao.getDigitalObjectsByUserIdAndPid(userId, pid, orderBy, orderSort);
     }
@@ -243,19 +397,71 @@ public class Manager {
     }
 
     public static User getUserByLogin(String login) throws SQLException {
-        return UserDao.getUserByLogin(login);
+        if (login == null) {
+            return null;
+        }
+        User user = getCachedUser(login);
+        if (user == null) {
+            user = UserDao.getUserByLogin(login);
+            if (user != null) {
+                putCachedUser(login, user);
+            }
+        }
+        return user;
+    }
+
+    /**
+     * @return the user of the login, the user is created if it does not exist yet
+     */
+    public static User getOrCreateUser(String login) throws SQLException {
+        // the user usually exists, a select does not lock and rewrite its row
+        User user = getUserByLogin(login);
+        if (user == null) {
+            user = createUser(login);
+        }
+        if (user == null || user.getId() == null) {
+            throw new IllegalStateException(String.format("User with login \"%s\" does not exists.", login));
+        }
+        return user;
     }
 
     public static User getUserById(String userId) throws SQLException {
         return UserDao.getUserById(userId);
     }
 
-    public static void createUser(String login) throws SQLException {
-        UserDao.createUser(login);
+    public static User createUser(String login) throws SQLException {
+        User user = UserDao.createUser(login);
+        if (user != null && user.getId() != null) {
+            putCachedUser(login, user);
+        }
+        return user;
+    }
+
+    private static User getCachedUser(String login) {
+        synchronized (USERS_BY_LOGIN) {
+            CachedUser cached = USERS_BY_LOGIN.get(login);
+            if (cached == null) {
+                return null;
+            }
+            if (Config.isClusterEnabled() && cached.loadedAt + Config.getClusterUserCacheTtl() <= System.currentTimeMillis()) {
+                USERS_BY_LOGIN.remove(login);
+                return null;
+            }
+            return cached.user;
+        }
+    }
+
+    private static void putCachedUser(String login, User user) {
+        synchronized (USERS_BY_LOGIN) {
+            USERS_BY_LOGIN.put(login, new CachedUser(user));
+        }
     }
 
     public static void updateUser(String userId, String login) throws SQLException {
         UserDao.updateUser(userId, login);
+        synchronized (USERS_BY_LOGIN) {
+            USERS_BY_LOGIN.values().removeIf(cached -> String.valueOf(cached.user.getId()).equals(userId));
+        }
     }
 
     public static List<Version> getAllVersions() throws SQLException {
@@ -266,4 +472,13 @@ public class Manager {
         return VersionDao.getActualVersion();
     }
 
+    private static class CachedUser {
+
+        private final User user;
+        private final long loadedAt = System.currentTimeMillis();
+
+        private CachedUser(User user) {
+            this.user = user;
+        }
+    }
 }
@@ -5,12 +5,13 @@ import cz.inovatika.altoEditor.db.models.Batch;
 import cz.inovatika.altoEditor.utils.Const;
 import cz.inovatika.altoEditor.utils.Utils;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -28,17 +29,22 @@ public class BatchDao {
 
     protected static final Logger LOGGER = LogManager.getLogger(BatchDao.class.getName());
 
+    // parameters: node, lease in ms
+    private static final String CLAIM_SET = "state = '" + Const.BATCH_STATE_RUNNING + "', substate = null, attempts = coalesce(attempts, 0) + 1, node = ?, " +
+            "leaseUntil = NOW() + ? * interval '1 millisecond', updatedate = NOW()";
+
     public static Batch getBatchById(Integer batchId) throws SQLException {
         if (batchId == null) {
             return null;
         }
         Connection connection = null;
-        Statement statement = null;
+        PreparedStatement statement = null;
         try {
             connection = DataSource.getConnection();
-            statement = connection.createStatement();
+            statement = connection.prepareStatement("select * from batch where id = ?");
+            DataSource.setValues(statement, batchId);
 
-            final ResultSet resultSet = statement.executeQuery("select * from batch where id = '" + batchId + "'");
+            final ResultSet resultSet = statement.executeQuery();
             while (resultSet.next()) {
                 return new Batch(resultSet);
             }
@@ -52,15 +58,16 @@ public class BatchDao {
 
     public static int createNewBatch(String pid, String priority, String instanceId, Integer dObjId) throws SQLException {
         Connection connection = null;
-        Statement statement = null;
+        PreparedStatement statement = null;
 
         try {
             connection = DataSource.getConnection();
-            statement = connection.createStatement();
             int batchId = getNewId("batch_id_seq");
             if (batchId > 0) {
-                statement.executeUpdate("insert into batch(id, pid, instance, createdate, updatedate, state, priority, objectId) values " +
-                        "(" + batchId + ", '" + pid + "' , '" + instanceId + "', NOW(), NOW(), '" + Const.BATCH_STATE_PLANNED + "', '" + priority +"', '" + dObjId +"')");
+                statement = connection.prepareStatement("insert into batch(id, pid, instance, createdate, updatedate, state, priority, objectId) values " +
+                        "(?, ?, ?, NOW(), NOW(), '" + Const.BATCH_STATE_PLANNED + "', ?, ?)");
+                DataSource.setValues(statement, batchId, pid, instanceId, priority, dObjId);
+                statement.executeUpdate();
                 return batchId;
             } else {
                 throw new IllegalStateException("Wrong batch Id created.");
@@ -71,26 +78,406 @@ public class BatchDao {
         }
     }
 
+    /**
+     * Creates the batch unless the object already has a planned or running batch. Concurrent requests,
+     * also from other nodes, are serialized by a transaction level advisory lock of the object.
+     *
+     * @return id of the new batch or 0 if the object already has an active batch
+     */
+    public static int createNewBatchIfAbsent(String pid, String priority, String instanceId, Integer dObjId, String createdBy) throws SQLException {
+        Connection connection = null;
+        PreparedStatement lockStatement = null;
+        PreparedStatement selectStatement = null;
+        PreparedStatement insertStatement = null;
+        try {
+            connection = DataSource.getConnection();
+            connection.setAutoCommit(false);
+            lockStatement = connection.prepareStatement("select pg_advisory_xact_lock(hashtext(?))");
+            DataSource.setValues(lockStatement, "batch:" + pid + ":" + instanceId);
+            lockStatement.execute();
+            selectStatement = connection.prepareStatement("select id from batch where pid = ? and instance = ?" +
+                    " and state in ('" + Const.BATCH_STATE_PLANNED + "', '" + Const.BATCH_STATE_RUNNING + "') limit 1");
+            DataSource.setValues(selectStatement, pid, instanceId);
+            ResultSet resultSet = selectStatement.executeQuery();
+            if (resultSet.next()) {
+                connection.commit();
+                return 0;
+            }
+            insertStatement = connection.prepareStatement("insert into batch(id, pid, instance, createdate, updatedate, state, priority, objectId, createdBy) values " +
+                    "(NEXTVAL('batch_id_seq'), ?, ?, NOW(), NOW(), '" + Const.BATCH_STATE_PLANNED + "', ?, ?, ?) returning id");
+            DataSource.setValues(insertStatement, pid, instanceId, priority, dObjId, createdBy);
+            resultSet = insertStatement.executeQuery();
+            resultSet.next();
+            int batchId = resultSet.getInt("id");
+            connection.commit();
+            return batchId;
+        } catch (SQLException ex) {
+            if (connection != null) {
+                connection.rollback();
+            }
+            throw ex;
+        } finally {
+            Utils.closeSilently(lockStatement);
+            Utils.closeSilently(selectStatement);
+            Utils.closeSilently(insertStatement);
+            if (connection != null) {
+                connection.setAutoCommit(true);
+            }
+            Utils.closeSilently(connection);
+        }
+    }
+
+    /**
+     * @return the planned or running batch of the object or null
+     */
+    public static Batch findActiveBatch(String pid, String instanceId) throws SQLException {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        try {
+            connection = DataSource.getConnection();
+            statement = connection.prepareStatement("select * from batch where pid = ? and instance = ?" +
+                    " and state in ('" + Const.BATCH_STATE_PLANNED + "', '" + Const.BATCH_STATE_RUNNING + "') order by id limit 1");
+            DataSource.setValues(statement, pid, instanceId);
+            final ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                return new Batch(resultSet);
+            }
+            return null;
+        } finally {
+            Utils.closeSilently(statement);
+            Utils.closeSilently(connection);
+        }
+    }
+
+    /**
+     * Raises the priority of a planned batch, a lower priority is never set.
+     *
+     * @return true if the priority was raised
+     */
+    public static boolean upgradePriority(Integer batchId, String priority) throws SQLException {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        try {
+            connection = DataSource.getConnection();
+            statement = connection.prepareStatement("update batch set priority = ?, updatedate = NOW() where id = ?" +
+                    " and state = '" + Const.BATCH_STATE_PLANNED + "' and " + getPriorityRank("priority") + " < " + getPriorityRank("cast(? as varchar)"));
+            DataSource.setValues(statement, priority, batchId, priority);
+            int count = statement.executeUpdate();
+            return count == 1;
+        } finally {
+            Utils.closeSilently(statement);
+            Utils.closeSilently(connection);
+        }
+    }
+
+    private static String getPriorityRank(String priority) {
+        return "(case " + priority + " when '" + Const.BATCH_PRIORITY_HIGH + "' then 1 when '" + Const.BATCH_PRIORITY_LOW + "' then -1 else 0 end)";
+    }
+
     public static void updateBatchState(String state, Integer batchId, String message) throws SQLException {
         Connection connection = null;
-        Statement statement = null;
+        PreparedStatement statement = null;
+        try {
+            connection = DataSource.getConnection();
+            statement = connection.prepareStatement("update batch set state = ?, log = ?, updatedate = NOW(), substate = null where id = ?" +
+                    " and state <> '" + Const.BATCH_STATE_CANCELED + "'");
+            DataSource.setValues(statement, state, message, batchId);
+            statement.executeUpdate();
+        } finally {
+            Utils.closeSilently(statement);
+            Utils.closeSilently(connection);
+        }
+    }
+
+    /**
+     * Returns a failed batch back to the queue, the pages it finished are skipped by the next attempt.
+     */
+    public static void replanBatch(Integer batchId, String message) throws SQLException {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        try {
+            connection = DataSource.getConnection();
+            statement = connection.prepareStatement("update batch set state = '" + Const.BATCH_STATE_PLANNED + "', substate = null, node = null, leaseUntil = null, " +
+                    "log = ?, updatedate = NOW() where id = ? and state <> '" + Const.BATCH_STATE_CANCELED + "'");
+            DataSource.setValues(statement, message, batchId);
+            statement.executeUpdate();
+        } finally {
+            Utils.closeSilently(statement);
+            Utils.closeSilently(connection);
+        }
+    }
+
+    /**
+     * Plans the batch again without counting the attempt, the batch has not started its work.
+     */
+    public static void deferBatch(Integer batchId, String message) throws SQLException {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        try {
+            connection = DataSource.getConnection();
+            statement = connection.prepareStatement("update batch set state = '" + Const.BATCH_STATE_PLANNED + "', substate = null, node = null, leaseUntil = null, " +
+                    "attempts = greatest(coalesce(attempts, 0) - 1, 0), log = ?, updatedate = NOW() where id = ?" +
+                    " and state <> '" + Const.BATCH_STATE_CANCELED + "'");
+            DataSource.setValues(statement, message, batchId);
+            statement.executeUpdate();
+        } finally {
+            Utils.closeSilently(statement);
+            Utils.closeSilently(connection);
+        }
+    }
+
+    /**
+     * Cancels a planned or running batch. A running batch is stopped by its node, a canceled batch
+     * is never planned again and its state is not overwritten when its process ends.
+     *
+     * @return the canceled batch or null if the batch is not planned or running
+     */
+    public static Batch cancelBatch(Integer batchId, String message) throws SQLException {
+        Connection connection = null;
+        PreparedStatement statement = null;
         try {
             connection = DataSource.getConnection();
-            statement = connection.createStatement();
-            statement.executeUpdate("update batch set state = '" + state + "', log = '" + message + "', updatedate = NOW(), substate = null where id = '" + batchId + "'");
+            statement = connection.prepareStatement("update batch set state = '" + Const.BATCH_STATE_CANCELED + "', substate = null, " +
+                    "log = ?, updatedate = NOW() where id = ?" +
+                    " and state in ('" + Const.BATCH_STATE_PLANNED + "', '" + Const.BATCH_STATE_RUNNING + "') returning *");
+            DataSource.setValues(statement, message, batchId);
+            final ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                return new Batch(resultSet);
+            }
+            return null;
         } finally {
             Utils.closeSilently(statement);
             Utils.closeSilently(connection);
         }
     }
 
+    /**
+     * Atomically moves the batch from PLANNED to RUNNING and leases it to the node.
+     *
+     * @return false if the batch is no longer planned (e.g. it has been claimed by another worker)
+     */
+    public static boolean claimBatch(Integer batchId, String node, long lease) throws SQLException {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        try {
+            connection = DataSource.getConnection();
+            statement = connection.prepareStatement("update batch set " + CLAIM_SET +
+                    " where id = ? and state = '" + Const.BATCH_STATE_PLANNED + "'");
+            DataSource.setValues(statement, node, lease, batchId);
+            int count = statement.executeUpdate();
+            return count == 1;
+        } finally {
+            Utils.closeSilently(statement);
+            Utils.closeSilently(connection);
+        }
+    }
+
+    /**
+     * Claims the planned batch with the lowest score. The score is the creation date moved back by the priority
+     * (one aging interval per level) and forward by the fair interval for each older planned batch of the same
+     * user and instance, so that one user with many batches does not block the others. Instances that already
+     * run their maximal number of batches are skipped. Rows locked by other nodes are skipped.
+     *
+     * @param weights weight of the instance, its batches are spaced by fairInterval / weight
+     * @param maxRunning maximal number of running batches of the instance, instances missing in the map are not limited
+     * @return the claimed batch or null if there is nothing to do
+     */
+    public static Batch claimNextBatch(String node, long lease, boolean highPriorityOnly, long agingInterval,
+                                       long fairInterval, Map<String, Integer> weights, Map<String, Integer> maxRunning) throws SQLException {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        try {
+            List<Object> params = new ArrayList<>();
+            params.add(node);
+            params.add(lease);
+            String maxRunningCondition = getMaxRunningCondition(maxRunning, params);
+            params.add(agingInterval);
+            params.add(fairInterval);
+            String weight = getWeight("b.instance", weights, params);
+
+            connection = DataSource.getConnection();
+            statement = connection.prepareStatement("update batch set " + CLAIM_SET +
+                    " where id = (select b.id from batch b join (select id, row_number() over " +
+                    "(partition by coalesce(createdBy, ''), instance order by createDate, id) - 1 as queued from batch" +
+                    " where state = '" + Const.BATCH_STATE_PLANNED + "') q on q.id = b.id where b.state = '" + Const.BATCH_STATE_PLANNED + "'" +
+                    (highPriorityOnly ? " and b.priority = '" + Const.BATCH_PRIORITY_HIGH + "'" : "") +
+                    maxRunningCondition +
+                    " order by b.createDate - " + getPriorityRank("b.priority") + " * ? * interval '1 millisecond'" +
+                    " + q.queued * ? * interval '1 millisecond' / " + weight +
+                    ", b.id limit 1 for update of b skip locked) returning *");
+            DataSource.setValues(statement, params.toArray());
+            final ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                return new Batch(resultSet);
+            }
+            return null;
+        } finally {
+            Utils.closeSilently(statement);
+            Utils.closeSilently(connection);
+        }
+    }
+
+    /**
+     * Reserves the oldest planned HIGH batch that a worker could claim for preemption by the node. A batch reserved
+     * by another node is skipped until the reservation expires, so one HIGH batch pauses at most one LOW batch
+     * in the whole cluster. Instances that already run their maximal number of batches are skipped as in
+     * {@link #claimNextBatch}.
+     *
+     * @param maxRunning maximal number of running batches of the instance, instances missing in the map are not limited
+     * @return id of the reserved batch or null if no HIGH batch waits for a worker
+     */
+    public static Integer reservePreemption(String node, long lease, Map<String, Integer> maxRunning) throws SQLException {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        try {
+            List<Object> params = new ArrayList<>();
+            params.add(node);
+            params.add(lease);
+            String maxRunningCondition = getMaxRunningCondition(maxRunning, params);
+
+            connection = DataSource.getConnection();
+            statement = connection.prepareStatement("update batch set preemptedBy = ?, preemptUntil = NOW() + ? * interval '1 millisecond'" +
+                    " where id = (select b.id from batch b where b.state = '" + Const.BATCH_STATE_PLANNED + "'" +
+                    " and b.priority = '" + Const.BATCH_PRIORITY_HIGH + "'" +
+                    " and (b.preemptUntil is null or b.preemptUntil < NOW())" +
+                    maxRunningCondition +
+                    " order by b.createDate, b.id limit 1 for update of b skip locked) returning id");
+            DataSource.setValues(statement, params.toArray());
+            final ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                return resultSet.getInt("id");
+            }
+            return null;
+        } finally {
+            Utils.closeSilently(statement);
+            Utils.closeSilently(connection);
+        }
+    }
+
+    private static String getMaxRunningCondition(Map<String, Integer> maxRunning, List<Object> params) {
+        StringBuilder condition = new StringBuilder();
+        for (Map.Entry<String, Integer> instance : maxRunning.entrySet()) {
+            if (instance.getValue() != null && instance.getValue() > 0) {
+                condition.append(" and (b.instance <> ? or (select count(*) from batch where state = '")
+                        .append(Const.BATCH_STATE_RUNNING).append("' and instance = ?) < ?)");
+                params.add(instance.getKey());
+                params.add(instance.getKey());
+                params.add(instance.getValue());
+            }
+        }
+        return condition.toString();
+    }
+
+    private static String getWeight(String instance, Map<String, Integer> weights, List<Object> params) {
+        StringBuilder weight = new StringBuilder("(case " + instance);
+        for (Map.Entry<String, Integer> entry : weights.entrySet()) {
+            weight.append(" when ? then ?");
+            params.add(entry.getKey());
+            params.add(Math.max(1, entry.getValue()));
+        }
+        return weight.append(" else 1 end)").toString();
+    }
+
+    /**
+     * Extends leases of all batches the node is running.
+     *
+     * @return number of batches still leased by the node
+     */
+    public static int renewLeases(String node, long lease) throws SQLException {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        try {
+            connection = DataSource.getConnection();
+            statement = connection.prepareStatement("update batch set leaseUntil = NOW() + ? * interval '1 millisecond' " +
+                    "where node = ? and state = '" + Const.BATCH_STATE_RUNNING + "'");
+            DataSource.setValues(statement, lease, node);
+            return statement.executeUpdate();
+        } finally {
+            Utils.closeSilently(statement);
+            Utils.closeSilently(connection);
+        }
+    }
+
+    /**
+     * Returns all running batches back to the queue (single node after restart).
+     */
+    public static int requeueRunningBatches(int maxAttempts) throws SQLException {
+        return requeueRunningBatches(maxAttempts, "");
+    }
+
+    /**
+     * Returns running batches of the node back to the queue (the node has been restarted).
+     */
+    public static int requeueNodeBatches(String node, int maxAttempts) throws SQLException {
+        return requeueRunningBatches(maxAttempts, " and node = ?", node);
+    }
+
+    /**
+     * Returns running batches whose lease expired (their node is dead) back to the queue.
+     */
+    public static int requeueExpiredBatches(int maxAttempts) throws SQLException {
+        return requeueRunningBatches(maxAttempts, " and (leaseUntil is null or leaseUntil < NOW())");
+    }
+
+    /**
+     * Returns interrupted batches back to the queue, batches that were started too many times fail.
+     *
+     * @param conditionValues values of the parameters of the condition
+     * @return number of batches planned again
+     */
+    private static int requeueRunningBatches(int maxAttempts, String condition, Object... conditionValues) throws SQLException {
+        Connection connection = null;
+        PreparedStatement requeueStatement = null;
+        PreparedStatement failStatement = null;
+        try {
+            connection = DataSource.getConnection();
+            requeueStatement = connection.prepareStatement("update batch set state = '" + Const.BATCH_STATE_PLANNED + "', substate = null, node = null, leaseUntil = null, " +
+                    "log = 'Interrupted, planned again.', updatedate = NOW() " +
+                    "where state = '" + Const.BATCH_STATE_RUNNING + "' and coalesce(attempts, 0) < ?" + condition);
+            DataSource.setValue(requeueStatement, 1, maxAttempts);
+            for (int i = 0; i < conditionValues.length; i++) {
+                DataSource.setValue(requeueStatement, i + 2, conditionValues[i]);
+            }
+            int count = requeueStatement.executeUpdate();
+            failStatement = connection.prepareStatement("update batch set state = '" + Const.BATCH_STATE_FAILED + "', substate = null, leaseUntil = null, " +
+                    "log = ?, updatedate = NOW() " +
+                    "where state = '" + Const.BATCH_STATE_RUNNING + "'" + condition);
+            DataSource.setValue(failStatement, 1, "Interrupted " + maxAttempts + " times, giving up.");
+            for (int i = 0; i < conditionValues.length; i++) {
+                DataSource.setValue(failStatement, i + 2, conditionValues[i]);
+            }
+            failStatement.executeUpdate();
+            return count;
+        } finally {
+            Utils.closeSilently(requeueStatement);
+            Utils.closeSilently(failStatement);
+            Utils.closeSilently(connection);
+        }
+    }
+
     public static void updateBatchSubState(String subState, Integer batchId) throws SQLException {
         Connection connection = null;
-        Statement statement = null;
+        PreparedStatement statement = null;
         try {
             connection = DataSource.getConnection();
-            statement = connection.createStatement();
-            statement.executeUpdate("update batch set substate = '" + subState + "', updatedate = NOW() where id = '" + batchId + "'");
+            statement = connection.prepareStatement("update batch set substate = ?, updatedate = NOW() where id = ?");
+            DataSource.setValues(statement, subState, batchId);
+            statement.executeUpdate();
+        } finally {
+            Utils.closeSilently(statement);
+            Utils.closeSilently(connection);
+        }
+    }
+
+    public static void updateBatchLog(String message, Integer batchId) throws SQLException {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        try {
+            connection = DataSource.getConnection();
+            statement = connection.prepareStatement("update batch set log = ?, updatedate = NOW() where id = ?");
+            DataSource.setValues(statement, message, batchId);
+            statement.executeUpdate();
         } finally {
             Utils.closeSilently(statement);
             Utils.closeSilently(connection);
@@ -99,11 +486,12 @@ public class BatchDao {
 
     public static void updateBatchInfo(int estimateItemNumber, String type, Integer batchId) throws SQLException {
         Connection connection = null;
-        Statement statement = null;
+        PreparedStatement statement = null;
         try {
             connection = DataSource.getConnection();
-            statement = connection.createStatement();
-            statement.executeUpdate("update batch set estimateitemnumber = '" + estimateItemNumber + "', type = '" + type + "', updatedate = NOW() where id = '" + batchId + "'");
+            statement = connection.prepareStatement("update batch set estimateitemnumber = ?, type = ?, updatedate = NOW() where id = ?");
+            DataSource.setValues(statement, estimateItemNumber, type, batchId);
+            statement.executeUpdate();
         } finally {
             Utils.closeSilently(statement);
             Utils.closeSilently(connection);
@@ -112,13 +500,13 @@ public class BatchDao {
 
     public static List<Batch> getAllBatches(String orderBy, String orderSort) throws SQLException {
         Connection connection = null;
-        Statement statement = null;
+        PreparedStatement statement = null;
         List<Batch> batches = new ArrayList<>();
         try {
             connection = DataSource.getConnection();
-            statement = connection.createStatement();
+            statement = connection.prepareStatement("select * from batch order by " + getOrderBy(orderBy) + " " + getOrderSortInverse(orderSort) + getDefaultOrderBy(orderBy));
 
-            final ResultSet resultSet = statement.executeQuery("select * from batch order by " + getOrderBy(orderBy) + " " + getOrderSortInverse(orderSort) + getDefaultOrderBy(orderBy));
+            final ResultSet resultSet = statement.executeQuery();
             while (resultSet.next()) {
                 Batch batch = new Batch(resultSet);
                 batches.add(batch);
@@ -132,12 +520,18 @@ public class BatchDao {
 
     public static List<Batch> getBatches(String id, String pid, String createDate, String updateDate, String state, String substate, String priority, String type, String instanceId, String estimateItemNumber, String log, String orderBy, String orderSort, Integer limit, Integer offset) throws SQLException, ParseException {
         Connection connection = null;
-        Statement statement = null;
+        PreparedStatement statement = null;
         List<Batch> batches = new ArrayList<>();
         try {
+            List<Object> params = new ArrayList<>();
+            String query = getQuery(params, id, pid, createDate, updateDate, state, substate, priority, type, instanceId, estimateItemNumber, log);
+            params.add(getLimit(limit));
+            params.add(getOffset(offset));
+
             connection = DataSource.getConnection();
-            statement = connection.createStatement();
-            final ResultSet resultSet = statement.executeQuery("select * from batch " + getQuery(id, pid, createDate, updateDate, state, substate, priority, type, instanceId, estimateItemNumber, log) + " order by " + getOrderBy(orderBy) + " " + getOrderSort(orderSort) + getDefaultOrderBy(orderBy) + " limit " + getLimit(limit) + " offset " + getOffset(offset));
+            statement = connection.prepareStatement("select * from batch " + query + " order by " + getOrderBy(orderBy) + " " + getOrderSort(orderSort) + getDefaultOrderBy(orderBy) + " limit ? offset ?");
+            DataSource.setValues(statement, params.toArray());
+            final ResultSet resultSet = statement.executeQuery();
             while (resultSet.next()) {
                 Batch batch = new Batch(resultSet);
                 batches.add(batch);
@@ -149,13 +543,88 @@ public class BatchDao {
         }
     }
 
+    /**
+     * Loads the page and the total number of batches in one query, {@code count(*) over()} is evaluated
+     * before the limit.
+     *
+     * @param offset start of the page, it is ignored if the cursor is given
+     * @param cursor position of the keyset listing or null, it is moved after the last returned batch
+     * @param count false if the total is not needed, one more batch is loaded to tell if a next page exists
+     */
+    public static Page<Batch> getBatchesPage(String id, String pid, String createDate, String updateDate, String state, String substate, String priority, String type, String instanceId, String estimateItemNumber, String log, String orderBy, String orderSort, Integer limit, Integer offset, Cursor cursor, boolean count) throws SQLException, ParseException {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        List<Batch> batches = new ArrayList<>();
+        int start = cursor == null ? getOffset(offset) : cursor.getStart();
+        int pageSize = getLimit(limit);
+        int windowCount = 0;
+        Integer lastId = null;
+        String lastValue = null;
+        boolean more = false;
+        try {
+            List<Object> params = new ArrayList<>();
+            String query = getQuery(params, id, pid, createDate, updateDate, state, substate, priority, type, instanceId, estimateItemNumber, log);
+            if (cursor != null) {
+                query = Cursor.and(query, cursor.getCondition(params, orderBy, "id", !"desc".equals(getOrderSort(orderSort))));
+            }
+            params.add(count ? pageSize : pageSize + 1);
+            if (cursor == null) {
+                params.add(start);
+            }
+
+            connection = DataSource.getConnection();
+            statement = connection.prepareStatement("select *" + (cursor != null && orderBy != null ? ", " + orderBy + " as cursorValue" : "")
+                    + (count ? ", count(*) over() as totalCount" : "") + " from batch " + query
+                    + " order by " + getOrderBy(orderBy) + " " + getOrderSort(orderSort) + getDefaultOrderBy(orderBy) + " limit ?" + (cursor == null ? " offset ?" : ""));
+            DataSource.setValues(statement, params.toArray());
+            final ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                if (batches.size() == pageSize) {
+                    more = true;
+                    break;
+                }
+                Batch batch = new Batch(resultSet);
+                batches.add(batch);
+                lastId = batch.getId();
+                if (cursor != null && orderBy != null) {
+                    lastValue = resultSet.getString("cursorValue");
+                }
+                if (count) {
+                    windowCount = resultSet.getInt("totalCount");
+                }
+            }
+        } finally {
+            Utils.closeSilently(statement);
+            Utils.closeSilently(connection);
+        }
+        Integer total = null;
+        if (count) {
+            if (cursor == null && batches.isEmpty() && start > 0) {
+                // the page is after the end, there is no row carrying the count
+                total = getBatchesCount(id, pid, createDate, updateDate, state, substate, priority, type, instanceId, estimateItemNumber, log);
+            } else {
+                // with the cursor only the rows after it are counted
+                total = cursor == null ? windowCount : start + windowCount;
+            }
+            more = start + batches.size() < total;
+        }
+        if (cursor != null) {
+            cursor.moveTo(batches.size(), lastId, lastValue, more);
+        }
+        return new Page<>(batches, start, total, more);
+    }
+
     public static Integer getBatchesCount(String id, String pid, String createDate, String updateDate, String state, String substate, String priority, String type, String instanceId, String estimateItemNumber, String log) throws SQLException, ParseException {
         Connection connection = null;
-        Statement statement = null;
+        PreparedStatement statement = null;
         try {
+            List<Object> params = new ArrayList<>();
+            String query = getQuery(params, id, pid, createDate, updateDate, state, substate, priority, type, instanceId, estimateItemNumber, log);
+
             connection = DataSource.getConnection();
-            statement = connection.createStatement();
-            final ResultSet resultSet = statement.executeQuery("select count(*) as pocet from batch " + getQuery(id, pid, createDate, updateDate, state, substate, priority, type, instanceId, estimateItemNumber, log));
+            statement = connection.prepareStatement("select count(*) as pocet from batch " + query);
+            DataSource.setValues(statement, params.toArray());
+            final ResultSet resultSet = statement.executeQuery();
             while (resultSet.next()) {
                 Integer value = resultSet.getInt("pocet");
                 return value;
@@ -167,44 +636,60 @@ public class BatchDao {
         return 0;
     }
 
-    private static String getQuery(String id, String pid, String createDate, String updateDate, String state, String substate, String priority, String type, String instanceId, String estimateItemNumber, String log) throws ParseException {
+    /**
+     * @param params values of the parameters of the condition are added
+     */
+    private static String getQuery(List<Object> params, String id, String pid, String createDate, String updateDate, String state, String substate, String priority, String type, String instanceId, String estimateItemNumber, String log) throws ParseException {
         StringBuilder queryBuilder = new StringBuilder();
         if (isBlank(id) && isBlank(pid) && isBlank(createDate) && isBlank(updateDate) && isBlank(state) && isBlank(substate) && isBlank(priority) && isBlank(type) && isBlank(instanceId) && isBlank(estimateItemNumber) && isBlank(log)) {
             return "";
         }
         queryBuilder.append("where");
         if (!isBlank(id)) {
-            queryBuilder.append(" AND ").append("id = '" + id + "'");
+            queryBuilder.append(" AND ").append("id = ?");
+            params.add(id);
         }
         if (!isBlank(pid)) {
-            queryBuilder.append(" AND ").append("UPPER(pid) = '" + pid.toUpperCase().trim() + "'");
+            queryBuilder.append(" AND ").append("UPPER(pid) = ?");
+            params.add(pid.toUpperCase().trim());
         }
         if (!isBlank(createDate)) {
-            queryBuilder.append(" AND ").append("createDate >= '" + createDate + "' AND createDate < '" + getNextDate(createDate) + "'");
+            queryBuilder.append(" AND ").append("createDate >= ? AND createDate < ?");
+            params.add(createDate);
+            params.add(getNextDate(createDate));
         }
         if (!isBlank(updateDate)) {
-            queryBuilder.append(" AND ").append("updateDate >= '" + updateDate + "' AND updateDate < '" + getNextDate(updateDate) + "'");
+            queryBuilder.append(" AND ").append("updateDate >= ? AND updateDate < ?");
+            params.add(updateDate);
+            params.add(getNextDate(updateDate));
         }
         if (!isBlank(state)) {
-            queryBuilder.append(" AND ").append("UPPER(state) = '" + state.toUpperCase().trim() + "'");
+            queryBuilder.append(" AND ").append("UPPER(state) = ?");
+            params.add(state.toUpperCase().trim());
         }
         if (!isBlank(substate)) {
-            queryBuilder.append(" AND ").append("UPPER(substate) = '" + substate.toUpperCase().trim() + "'");
+            queryBuilder.append(" AND ").append("UPPER(substate) = ?");
+            params.add(substate.toUpperCase().trim());
         }
         if (!isBlank(priority)) {
-            queryBuilder.append(" AND ").append("UPPER(priority) = '" + priority.toUpperCase().trim() + "'");
+            queryBuilder.append(" AND ").append("UPPER(priority) = ?");
+            params.add(priority.toUpperCase().trim());
         }
         if (!isBlank(type)) {
-            queryBuilder.append(" AND ").append("UPPER(type) = '" + type.toUpperCase().trim() + "'");
+            queryBuilder.append(" AND ").append("UPPER(type) = ?");
+            params.add(type.toUpperCase().trim());
         }
         if (!isBlank(instanceId)) {
-            queryBuilder.append(" AND ").append("UPPER(instance) = '" + instanceId.toUpperCase().trim() + "'");
+            queryBuilder.append(" AND ").append("UPPER(instance) = ?");
+            params.add(instanceId.toUpperCase().trim());
         }
         if (!isBlank(estimateItemNumber)) {
-            queryBuilder.append(" AND ").append("estimateItemNumber = '" + estimateItemNumber.toUpperCase().trim() + "'");
+            queryBuilder.append(" AND ").append("estimateItemNumber = ?");
+            params.add(estimateItemNumber.toUpperCase().trim());
         }
         if (!isBlank(log)) {
-            queryBuilder.append(" AND ").append("log LIKE '%" + priority.trim() + "%'");
+            queryBuilder.append(" AND ").append("log LIKE ?");
+            params.add("%" + log.trim() + "%");
         }
         String query = queryBuilder.toString();
         return query.replace("where AND ", "where ");
@@ -212,13 +697,13 @@ public class BatchDao {
 
     public static List<Batch> findWaitingBatches() throws SQLException {
         Connection connection = null;
-        Statement statement = null;
+        PreparedStatement statement = null;
         List<Batch> batches = new ArrayList<>();
         try {
             connection = DataSource.getConnection();
-            statement = connection.createStatement();
+            statement = connection.prepareStatement("select * from batch where state= '" + Const.BATCH_STATE_PLANNED + "' order by id asc");
 
-            final ResultSet resultSet = statement.executeQuery("select * from batch where state= '" + Const.BATCH_STATE_PLANNED + "' order by id asc");
+            final ResultSet resultSet = statement.executeQuery();
             while (resultSet.next()) {
                 Batch batch = new Batch(resultSet);
                 batches.add(batch);
@@ -232,13 +717,13 @@ public class BatchDao {
 
     public static List<Batch> findRunningBatches() throws SQLException {
         Connection connection = null;
-        Statement statement = null;
+        PreparedStatement statement = null;
         List<Batch> batches = new ArrayList<>();
         try {
             connection = DataSource.getConnection();
-            statement = connection.createStatement();
+            statement = connection.prepareStatement("select * from batch where state= '" + Const.BATCH_STATE_RUNNING + "' order by id asc");
 
-            final ResultSet resultSet = statement.executeQuery("select * from batch where state= '" + Const.BATCH_STATE_RUNNING + "' order by id asc");
+            final ResultSet resultSet = statement.executeQuery();
             while (resultSet.next()) {
                 Batch batch = new Batch(resultSet);
                 batches.add(batch);
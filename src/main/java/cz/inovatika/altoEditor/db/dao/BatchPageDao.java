@@ -0,0 +1,121 @@
+package cz.inovatika.altoEditor.db.dao;
+
+import cz.inovatika.altoEditor.db.DataSource;
+import cz.inovatika.altoEditor.models.ObjectInformation;
+import cz.inovatika.altoEditor.utils.Utils;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Progress of the pages of a batch, a retried batch skips the pages that were already finished.
+ */
+public class BatchPageDao {
+
+    protected static final Logger LOGGER = LogManager.getLogger(BatchPageDao.class.getName());
+
+    /**
+     * @return state of each page of the batch that has been recorded
+     */
+    public static Map<String, String> getPageStates(Integer batchId) throws SQLException {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        Map<String, String> states = new HashMap<>();
+        try {
+            connection = DataSource.getConnection();
+            statement = connection.prepareStatement("select pid, state from batchpage where batchid = ?");
+            DataSource.setValues(statement, batchId);
+            final ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                states.put(resultSet.getString("pid"), resultSet.getString("state"));
+            }
+            return states;
+        } finally {
+            Utils.closeSilently(statement);
+            Utils.closeSilently(connection);
+        }
+    }
+
+    public static void updatePageStates(Integer batchId, List<String> pids, String state) throws SQLException {
+        if (batchId == null || pids == null || pids.isEmpty() || state == null) {
+            return;
+        }
+        Connection connection = null;
+        try {
+            connection = DataSource.getConnection();
+            updatePageStates(connection, batchId, pids, state);
+        } finally {
+            Utils.closeSilently(connection);
+        }
+    }
+
+    /**
+     * Writes the rows of the generated pages and marks the pages saved in one transaction, so that a retried batch
+     * neither skips a page without its row nor saves a page with its row again.
+     *
+     * @param newObjects objects of the pages without a row, they are inserted for the user
+     * @param updatedObjects ids of the existing rows of the pages
+     */
+    public static void saveGeneratedPages(Integer batchId, List<String> pids, String pageState, Integer userId,
+                                          List<ObjectInformation> newObjects, List<Integer> updatedObjects,
+                                          String versionXml, String instanceId, String objectState) throws SQLException {
+        Connection connection = null;
+        try {
+            connection = DataSource.getConnection();
+            connection.setAutoCommit(false);
+            DigitalObjectDao.createDigitalObjects(connection, userId, newObjects, versionXml, instanceId, objectState);
+            DigitalObjectDao.updateDigitalObjectsWithState(connection, updatedObjects, objectState);
+            updatePageStates(connection, batchId, pids, pageState);
+            connection.commit();
+        } catch (SQLException ex) {
+            if (connection != null) {
+                connection.rollback();
+            }
+            throw ex;
+        } finally {
+            if (connection != null) {
+                connection.setAutoCommit(true);
+            }
+            Utils.closeSilently(connection);
+        }
+    }
+
+    private static void updatePageStates(Connection connection, Integer batchId, List<String> pids, String state) throws SQLException {
+        if (batchId == null || pids == null || pids.isEmpty() || state == null) {
+            return;
+        }
+        PreparedStatement statement = null;
+        try {
+            // the driver rewrites the batch into a multi-row insert
+            statement = connection.prepareStatement("insert into batchpage (batchid, pid, state, datum) values (?, ?, ?, NOW())" +
+                    " on conflict (batchid, pid) do update set state = excluded.state, datum = excluded.datum");
+            for (String pid : pids) {
+                DataSource.setValues(statement, batchId, pid, state);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        } finally {
+            Utils.closeSilently(statement);
+        }
+    }
+
+    public static void deletePages(Integer batchId) throws SQLException {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        try {
+            connection = DataSource.getConnection();
+            statement = connection.prepareStatement("delete from batchpage where batchid = ?");
+            DataSource.setValues(statement, batchId);
+            statement.executeUpdate();
+        } finally {
+            Utils.closeSilently(statement);
+            Utils.closeSilently(connection);
+        }
+    }
+}
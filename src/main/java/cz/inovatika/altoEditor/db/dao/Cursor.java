@@ -0,0 +1,147 @@
+package cz.inovatika.altoEditor.db.dao;
+
+import cz.inovatika.altoEditor.exception.RequestException;
+import cz.inovatika.altoEditor.utils.Const;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Position in a listing for keyset pagination.
+ *
+ * The next page continues after the sort value and the id of the last row of the previous page instead of skipping
+ * {@code offset} rows, so deep pages are as fast as the first one. The position travels to the client as an opaque
+ * token, {@link #FIRST} starts the listing. Rows with the same sort value are ordered by id, as in offset paging.
+ */
+public class Cursor {
+
+    public static final String FIRST = "*";
+
+    private static final String SEPARATOR = "\n";
+
+    private final String orderBy;
+    private final String orderSort;
+    private int start;
+    private Integer lastId;
+    private String lastValue;
+    private boolean next = false;
+
+    private Cursor(String orderBy, String orderSort, int start, Integer lastId, String lastValue) {
+        this.orderBy = orderBy;
+        this.orderSort = orderSort;
+        this.start = start;
+        this.lastId = lastId;
+        this.lastValue = lastValue;
+    }
+
+    /**
+     * @param token {@link #FIRST} or the token of the previous page
+     * @param orderBy sort column of the request, it must be the same as the one the token was issued for
+     */
+    public static Cursor decode(String token, String orderBy, String orderSort) throws RequestException {
+        if (FIRST.equals(token)) {
+            return new Cursor(orderBy, orderSort, 0, null, null);
+        }
+        String[] parts;
+        try {
+            parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(SEPARATOR, 5);
+        } catch (IllegalArgumentException ex) {
+            parts = new String[0];
+        }
+        if (parts.length < 4) {
+            throw new RequestException(Const.PARAM_CURSOR, String.format("Unsupported param \"%s\".", token));
+        }
+        String tokenOrderBy = parts[0].isEmpty() ? null : parts[0];
+        String tokenOrderSort = parts[1].isEmpty() ? null : parts[1];
+        if (!Objects.equals(tokenOrderBy, orderBy) || !Objects.equals(tokenOrderSort, orderSort)) {
+            throw new RequestException(Const.PARAM_CURSOR, "The cursor was issued for a different order, start again with \"" + FIRST + "\".");
+        }
+        try {
+            return new Cursor(orderBy, orderSort, Integer.parseInt(parts[2]), Integer.valueOf(parts[3]), parts.length > 4 ? parts[4] : null);
+        } catch (NumberFormatException ex) {
+            throw new RequestException(Const.PARAM_CURSOR, String.format("Unsupported param \"%s\".", token));
+        }
+    }
+
+    /**
+     * @return the token of the next page or null after the last page
+     */
+    public String encode() {
+        if (!next) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder();
+        builder.append(orderBy == null ? "" : orderBy).append(SEPARATOR);
+        builder.append(orderSort == null ? "" : orderSort).append(SEPARATOR);
+        builder.append(start).append(SEPARATOR);
+        builder.append(lastId);
+        if (lastValue != null) {
+            builder.append(SEPARATOR).append(lastValue);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(builder.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return index of the first row of the page in the whole listing
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * Condition selecting the rows after the cursor, PostgreSQL sorts nulls last ascending and first descending.
+     *
+     * @param params values of the parameters of the condition are added
+     * @param column sort column, null if the listing is sorted by id only
+     * @param idColumn id column of the listed table
+     * @param asc sort direction of the column
+     * @return the condition or null on the first page
+     */
+    String getCondition(List<Object> params, String column, String idColumn, boolean asc) {
+        if (lastId == null) {
+            return null;
+        }
+        if (column == null || column.equals(idColumn)) {
+            params.add(lastId);
+            return idColumn + (asc ? " > ?" : " < ?");
+        }
+        if (lastValue == null) {
+            params.add(lastId);
+            return asc
+                    ? "(" + column + " is null and " + idColumn + " > ?)"
+                    : "(" + column + " is not null or " + idColumn + " > ?)";
+        }
+        params.add(lastValue);
+        params.add(lastValue);
+        params.add(lastId);
+        // the range on the column alone can use its index, the rest filters the rows with the same value
+        String condition = column + (asc ? " >= ?" : " <= ?") + " and (" + column + (asc ? " > ?" : " < ?") + " or " + idColumn + " > ?)";
+        return asc ? "((" + condition + ") or " + column + " is null)" : "(" + condition + ")";
+    }
+
+    /**
+     * Moves the cursor after the last row of the fetched page.
+     *
+     * @param rows number of fetched rows
+     * @param hasNext true if more rows follow the page
+     */
+    void moveTo(int rows, Integer lastId, String lastValue, boolean hasNext) {
+        this.start += rows;
+        this.next = hasNext && lastId != null;
+        if (lastId != null) {
+            this.lastId = lastId;
+            this.lastValue = lastValue;
+        }
+    }
+
+    /**
+     * Appends the condition to the where clause of the query.
+     */
+    static String and(String query, String condition) {
+        if (condition == null) {
+            return query;
+        }
+        return query.isEmpty() ? "where " + condition : query + " and " + condition;
+    }
+}
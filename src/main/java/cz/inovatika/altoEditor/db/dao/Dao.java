@@ -9,6 +9,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -50,12 +51,13 @@ public class Dao {
 
     protected static int getNewId(String sequence) throws SQLException {
         Connection connection = null;
-        Statement statement = null;
+        PreparedStatement statement = null;
         try {
             connection = DataSource.getConnection();
-            statement = connection.createStatement();
+            statement = connection.prepareStatement("select (NEXTVAL(?)) as newId");
+            DataSource.setValues(statement, sequence);
 
-            final ResultSet resultSet = statement.executeQuery("select (NEXTVAL('" + sequence + "')) as newId");
+            final ResultSet resultSet = statement.executeQuery();
             while (resultSet.next()) {
                 return resultSet.getInt(resultSet.findColumn("newId"));
             }
@@ -74,12 +76,12 @@ public class Dao {
         return orderBy != null ? orderBy : "version";
     }
 
-    protected static String getLimit(Integer limit) {
-        return (limit == null || limit < 0) ? String.valueOf(Const.DEFAULT_SQL_LIMIT_SIZE) : String.valueOf(limit);
+    protected static int getLimit(Integer limit) {
+        return (limit == null || limit < 0) ? Const.DEFAULT_SQL_LIMIT_SIZE : limit;
     }
 
-    protected static String getOffset(Integer offset) {
-        return (offset == null || offset < 0) ? "0" : String.valueOf(offset);
+    protected static int getOffset(Integer offset) {
+        return (offset == null || offset < 0) ? 0 : offset;
     }
 
     protected static String getDefaultOrderBy(String orderBy) {
@@ -2,15 +2,15 @@ package cz.inovatika.altoEditor.db.dao;
 
 import cz.inovatika.altoEditor.db.DataSource;
 import cz.inovatika.altoEditor.db.Manager;
-import cz.inovatika.altoEditor.db.models.DigitalObject;
 import cz.inovatika.altoEditor.db.models.User;
 import cz.inovatika.altoEditor.models.DigitalObjectView;
+import cz.inovatika.altoEditor.models.ObjectInformation;
 import cz.inovatika.altoEditor.utils.Const;
 import cz.inovatika.altoEditor.utils.Utils;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.List;
@@ -31,18 +31,28 @@ public class DigitalObjectDao {
 
     protected static final Logger LOGGER = LogManager.getLogger(DigitalObjectDao.class.getName());
 
+    private static final String INSERT_DIGITAL_OBJECT = "insert into digitalobject (id, ruserid, pid, label, parentPath, parentLabel, version, datum, state, instance) values " +
+            "(NEXTVAL('digitalobject_id_seq'), ?, ?, ?, ?, ?, ?, now(), ?, ?)";
+
+    /**
+     * Objects are listed together with the login of their user, the columns of {@code users} other than
+     * the login are not selected, they would clash with the columns of {@code digitalobject}.
+     */
+    private static final String VIEW_COLUMNS = "select d.*, u.login as userLogin";
+    private static final String VIEW_FROM = " from digitalobject d join users u on u.id = d.rUserId";
+    private static final String SELECT_VIEW = VIEW_COLUMNS + VIEW_FROM;
+
     public static List<DigitalObjectView> getAllDigitalObjects(String orderBy, String orderSort) throws SQLException {
         Connection connection = null;
-        Statement statement = null;
+        PreparedStatement statement = null;
         List<DigitalObjectView> digitalObjects = new ArrayList();
         try {
             connection = DataSource.getConnection();
-            statement = connection.createStatement();
+            statement = connection.prepareStatement(SELECT_VIEW + " where not d.state in ('" + Const.DIGITAL_OBJECT_STATE_GENERATED + "') order by " + getOrderBy(orderBy) + " " + getOrderSortInverse(orderSort) + getDefaultOrderBy(orderBy));
 
-            final ResultSet resultSet = statement.executeQuery("select * from digitalobject where not state in ('" + Const.DIGITAL_OBJECT_STATE_GENERATED + "') order by " + getOrderBy(orderBy) + " " + getOrderSortInverse(orderSort) + getDefaultOrderBy(orderBy));
+            final ResultSet resultSet = statement.executeQuery();
             while (resultSet.next()) {
-                DigitalObject digitalObject = new DigitalObject(resultSet);
-                digitalObjects.add(new DigitalObjectView(digitalObject, Manager.getUserById(String.valueOf(digitalObject.getrUserId()))));
+                digitalObjects.add(new DigitalObjectView(resultSet));
             }
             return digitalObjects;
         } finally {
@@ -56,18 +66,18 @@ public class DigitalObjectDao {
             return null;
         }
         Connection connection = null;
-        Statement statement = null;
+        PreparedStatement statement = null;
         List<DigitalObjectView> digitalObjects = new ArrayList();
         try {
             connection = DataSource.getConnection();
-            statement = connection.createStatement();
+            statement = connection.prepareStatement(SELECT_VIEW + " where d.pid = ? and d.version = (\n" +
+                    "select max(version) from digitalobject where pid = ?)");
+            DataSource.setValues(statement, pid, pid);
 
-            final ResultSet resultSet = statement.executeQuery("select * from digitalobject where pid = '" + pid + "' and version = (\n" +
-                    "select max(version) from digitalobject where pid = '" + pid + "')");
+            final ResultSet resultSet = statement.executeQuery();
 
             while (resultSet.next()) {
-                DigitalObject digitalObject = new DigitalObject(resultSet);
-                digitalObjects.add(new DigitalObjectView(digitalObject, Manager.getUserById(String.valueOf(digitalObject.getrUserId()))));
+                digitalObjects.add(new DigitalObjectView(resultSet));
             }
             return digitalObjects;
         } finally {
@@ -81,17 +91,17 @@ public class DigitalObjectDao {
             return null;
         }
         Connection connection = null;
-        Statement statement = null;
+        PreparedStatement statement = null;
         List<DigitalObjectView> digitalObjects = new ArrayList();
         try {
             connection = DataSource.getConnection();
-            statement = connection.createStatement();
+            statement = connection.prepareStatement(SELECT_VIEW + " where d.pid = ? order by " + getOrderByVersion(orderBy) + " " + getOrderSortInverse(orderSort));
+            DataSource.setValues(statement, pid);
 
-            final ResultSet resultSet = statement.executeQuery("select * from digitalobject where pid = '" + pid + "' order by " + getOrderByVersion(orderBy) + " " + getOrderSortInverse(orderSort));
+            final ResultSet resultSet = statement.executeQuery();
 
             while (resultSet.next()) {
-                DigitalObject digitalObject = new DigitalObject(resultSet);
-                digitalObjects.add(new DigitalObjectView(digitalObject, Manager.getUserById(String.valueOf(digitalObject.getrUserId()))));
+                digitalObjects.add(new DigitalObjectView(resultSet));
             }
             return digitalObjects;
         } finally {
@@ -106,11 +116,12 @@ public class DigitalObjectDao {
         }
         String versionId = versionXml.substring(versionXml.indexOf(".") + 1);
         Connection connection = null;
-        Statement statement = null;
+        PreparedStatement statement = null;
         try {
             connection = DataSource.getConnection();
-            statement = connection.createStatement();
-            statement.executeUpdate("update digitalobject set version = '" + versionId + "', datum = NOW(), state = '" + Const.DIGITAL_OBJECT_STATE_EDITED + "' where id = '" + objectId + "'");
+            statement = connection.prepareStatement("update digitalobject set version = ?, datum = NOW(), state = '" + Const.DIGITAL_OBJECT_STATE_EDITED + "' where id = ?");
+            DataSource.setValues(statement, versionId, objectId);
+            statement.executeUpdate();
 
         } finally {
             Utils.closeSilently(statement);
@@ -123,11 +134,12 @@ public class DigitalObjectDao {
             return;
         }
         Connection connection = null;
-        Statement statement = null;
+        PreparedStatement statement = null;
         try {
             connection = DataSource.getConnection();
-            statement = connection.createStatement();
-            statement.executeUpdate("update digitalobject set datum = NOW(), state = '" + state + "' where id = '" + objectId + "'");
+            statement = connection.prepareStatement("update digitalobject set datum = NOW(), state = ? where id = ?");
+            DataSource.setValues(statement, state, objectId);
+            statement.executeUpdate();
 
         } finally {
             Utils.closeSilently(statement);
@@ -135,16 +147,48 @@ public class DigitalObjectDao {
         }
     }
 
+    public static void updateDigitalObjectsWithState(List<Integer> objectIds, String state) throws SQLException {
+        if (objectIds == null || objectIds.isEmpty() || state == null) {
+            return;
+        }
+        Connection connection = null;
+        try {
+            connection = DataSource.getConnection();
+            updateDigitalObjectsWithState(connection, objectIds, state);
+        } finally {
+            Utils.closeSilently(connection);
+        }
+    }
+
+    /**
+     * Updates the objects within the transaction of the connection.
+     */
+    static void updateDigitalObjectsWithState(Connection connection, List<Integer> objectIds, String state) throws SQLException {
+        if (objectIds == null || objectIds.isEmpty() || state == null) {
+            return;
+        }
+        PreparedStatement statement = null;
+        try {
+            // one statement for any number of objects
+            statement = connection.prepareStatement("update digitalobject set datum = NOW(), state = ? where id = any(?)");
+            DataSource.setValues(statement, state, connection.createArrayOf("integer", objectIds.toArray()));
+            statement.executeUpdate();
+        } finally {
+            Utils.closeSilently(statement);
+        }
+    }
+
     public static void lockDigitalObject(String pid) throws SQLException {
         if (pid == null) {
             return;
         }
         Connection connection = null;
-        Statement statement = null;
+        PreparedStatement statement = null;
         try {
             connection = DataSource.getConnection();
-            statement = connection.createStatement();
-            statement.executeUpdate("update digitalobject set datum = NOW(), lock = 'true' where pid = '" + pid + "'");
+            statement = connection.prepareStatement("update digitalobject set datum = NOW(), lock = 'true' where pid = ?");
+            DataSource.setValues(statement, pid);
+            statement.executeUpdate();
 
         } finally {
             Utils.closeSilently(statement);
@@ -157,11 +201,12 @@ public class DigitalObjectDao {
             return;
         }
         Connection connection = null;
-        Statement statement = null;
+        PreparedStatement statement = null;
         try {
             connection = DataSource.getConnection();
-            statement = connection.createStatement();
-            statement.executeUpdate("update digitalobject set datum = NOW(), lock = 'false' where pid = '" + pid + "'");
+            statement = connection.prepareStatement("update digitalobject set datum = NOW(), lock = 'false' where pid = ?");
+            DataSource.setValues(statement, pid);
+            statement.executeUpdate();
 
         } finally {
             Utils.closeSilently(statement);
@@ -174,40 +219,84 @@ public class DigitalObjectDao {
             return;
         }
         String versionId = versionXml.substring(versionXml.indexOf(".") + 1);
-        User user = Manager.getUserByLogin(login);
-        if (user == null) {
-            Manager.createUser(login);
-            user = Manager.getUserByLogin(login);
-        }
+        User user = Manager.getOrCreateUser(login);
         Connection connection = null;
-        Statement statement = null;
+        PreparedStatement statement = null;
         try {
             connection = DataSource.getConnection();
-            statement = connection.createStatement();
-            statement.executeUpdate("insert into digitalobject (id, ruserid, pid, label, parentPath, parentLabel, version, datum, state, instance) values " +
-                    "(NEXTVAL('digitalobject_id_seq'), '" + user.getId() + "', '" + pid +"', '"+ label +"', '"+ parentPath +"', '"+ parentLabel +"', '" + versionId + "', now(), '" + state + "', '" + instanceId + "')");
+            statement = connection.prepareStatement(INSERT_DIGITAL_OBJECT);
+            DataSource.setValues(statement, user.getId(), pid, label, parentPath, parentLabel, versionId, state, instanceId);
+            statement.executeUpdate();
         } finally {
             Utils.closeSilently(statement);
             Utils.closeSilently(connection);
         }
     }
 
+    /**
+     * Inserts all objects in one transaction.
+     */
+    public static void createDigitalObjects(String login, List<ObjectInformation> objects, String versionXml, String instanceId, String state) throws SQLException {
+        if (login == null || objects == null || objects.isEmpty() || versionXml == null) {
+            return;
+        }
+        User user = Manager.getOrCreateUser(login);
+        Connection connection = null;
+        try {
+            connection = DataSource.getConnection();
+            connection.setAutoCommit(false);
+            createDigitalObjects(connection, user.getId(), objects, versionXml, instanceId, state);
+            connection.commit();
+        } catch (SQLException ex) {
+            if (connection != null) {
+                connection.rollback();
+            }
+            throw ex;
+        } finally {
+            if (connection != null) {
+                connection.setAutoCommit(true);
+            }
+            Utils.closeSilently(connection);
+        }
+    }
+
+    /**
+     * Inserts the objects within the transaction of the connection.
+     */
+    static void createDigitalObjects(Connection connection, Integer userId, List<ObjectInformation> objects, String versionXml, String instanceId, String state) throws SQLException {
+        if (userId == null || objects == null || objects.isEmpty() || versionXml == null) {
+            return;
+        }
+        String versionId = versionXml.substring(versionXml.indexOf(".") + 1);
+        PreparedStatement statement = null;
+        try {
+            statement = connection.prepareStatement(INSERT_DIGITAL_OBJECT);
+            for (ObjectInformation object : objects) {
+                DataSource.setValues(statement, userId, object.getPid(), object.getLabel(), object.getParentPath(), object.getParentLabel(), versionId, state, instanceId);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        } finally {
+            Utils.closeSilently(statement);
+        }
+    }
+
     public static List<DigitalObjectView> getDigitalObjectsByUserIdAndPid(Integer userId, String pid, String orderBy, String orderSort) throws SQLException {
         if (userId == null || pid == null) {
             return null;
         }
         Connection connection = null;
-        Statement statement = null;
+        PreparedStatement statement = null;
         List<DigitalObjectView> digitalObjects = new ArrayList();
         try {
             connection = DataSource.getConnection();
-            statement = connection.createStatement();
+            statement = connection.prepareStatement(SELECT_VIEW + " where d.ruserid = ? and d.pid = ? order by " + getOrderBy(orderBy) + " " + getOrderSort(orderSort) + getDefaultOrderBy(orderBy));
+            DataSource.setValues(statement, userId, pid);
 
-            final ResultSet resultSet = statement.executeQuery("select * from digitalobject where ruserid = '" + userId + "' and pid = '" + pid + "' order by " + getOrderBy(orderBy) + " " + getOrderSort(orderSort) + getDefaultOrderBy(orderBy));
+            final ResultSet resultSet = statement.executeQuery();
 
             while (resultSet.next()) {
-                DigitalObject digitalObject = new DigitalObject(resultSet);
-                digitalObjects.add(new DigitalObjectView(digitalObject, Manager.getUserById(String.valueOf(digitalObject.getrUserId()))));
+                digitalObjects.add(new DigitalObjectView(resultSet));
             }
             return digitalObjects;
         } finally {
@@ -221,16 +310,16 @@ public class DigitalObjectDao {
             return null;
         }
         Connection connection = null;
-        Statement statement = null;
+        PreparedStatement statement = null;
         try {
             connection = DataSource.getConnection();
-            statement = connection.createStatement();
+            statement = connection.prepareStatement(SELECT_VIEW + " where d.id = ?");
+            DataSource.setValues(statement, objectId);
 
-            final ResultSet resultSet = statement.executeQuery("select * from digitalobject where id = '" + objectId + "'");
+            final ResultSet resultSet = statement.executeQuery();
 
             while (resultSet.next()) {
-                DigitalObject digitalObject = new DigitalObject(resultSet);
-                return new DigitalObjectView(digitalObject, Manager.getUserById(String.valueOf(digitalObject.getrUserId())));
+                return new DigitalObjectView(resultSet);
             }
             return null;
         } finally {
@@ -244,17 +333,17 @@ public class DigitalObjectDao {
             return null;
         }
         Connection connection = null;
-        Statement statement = null;
+        PreparedStatement statement = null;
         List<DigitalObjectView> digitalObjects = new ArrayList();
         try {
             connection = DataSource.getConnection();
-            statement = connection.createStatement();
+            statement = connection.prepareStatement(SELECT_VIEW + " where d.ruserid = ? order by " + getOrderBy(orderBy) + " " + getOrderSort(orderSort) + getDefaultOrderBy(orderBy));
+            DataSource.setValues(statement, userId);
 
-            final ResultSet resultSet = statement.executeQuery("select * from digitalobject where ruserid = '" + userId + "' order by " + getOrderBy(orderBy) + " " + getOrderSort(orderSort) + getDefaultOrderBy(orderBy));
+            final ResultSet resultSet = statement.executeQuery();
 
             while (resultSet.next()) {
-                DigitalObject digitalObject = new DigitalObject(resultSet);
-                digitalObjects.add(new DigitalObjectView(digitalObject, Manager.getUserById(String.valueOf(digitalObject.getrUserId()))));
+                digitalObjects.add(new DigitalObjectView(resultSet));
             }
             return digitalObjects;
         } finally {
@@ -265,15 +354,20 @@ public class DigitalObjectDao {
 
     public static List<DigitalObjectView> getDigitalObjects(String id, String rUserId, String instance, String pid, String version, String datum, String state, String label, String parentLabel, String parentPath, String orderBy, String orderSort, Integer limit, Integer offset) throws SQLException, ParseException {
         Connection connection = null;
-        Statement statement = null;
+        PreparedStatement statement = null;
         List<DigitalObjectView> digitalObjects = new ArrayList<>();
         try {
+            List<Object> params = new ArrayList<>();
+            String query = getQuery(params, id, rUserId, instance, pid, version, datum, state, label, parentLabel, parentPath);
+            params.add(getLimit(limit));
+            params.add(getOffset(offset));
+
             connection = DataSource.getConnection();
-            statement = connection.createStatement();
-            final ResultSet resultSet = statement.executeQuery("select * from digitalobject " + getQuery(id, rUserId, instance, pid, version, datum, state, label, parentLabel, parentPath) + " order by " + getOrderBy(orderBy) + " " + getOrderSort(orderSort) + getDefaultOrderBy(orderBy) + " limit " + getLimit(limit) + " offset " + getOffset(offset));
+            statement = connection.prepareStatement(SELECT_VIEW + " " + query + " order by " + getOrderBy(getSortColumn(orderBy)) + " " + getOrderSort(orderSort) + getDefaultOrderBy(orderBy) + " limit ? offset ?");
+            DataSource.setValues(statement, params.toArray());
+            final ResultSet resultSet = statement.executeQuery();
             while (resultSet.next()) {
-                DigitalObject digitalObject = new DigitalObject(resultSet);
-                digitalObjects.add(new DigitalObjectView(digitalObject, Manager.getUserById(String.valueOf(digitalObject.getrUserId()))));
+                digitalObjects.add(new DigitalObjectView(resultSet));
             }
             return digitalObjects;
         } finally {
@@ -282,13 +376,89 @@ public class DigitalObjectDao {
         }
     }
 
+    /**
+     * Loads the page and the total number of objects in one query, {@code count(*) over()} is evaluated
+     * before the limit.
+     *
+     * @param offset start of the page, it is ignored if the cursor is given
+     * @param cursor position of the keyset listing or null, it is moved after the last returned object
+     * @param count false if the total is not needed, one more object is loaded to tell if a next page exists
+     */
+    public static Page<DigitalObjectView> getDigitalObjectsPage(String id, String rUserId, String instance, String pid, String version, String datum, String state, String label, String parentLabel, String parentPath, String orderBy, String orderSort, Integer limit, Integer offset, Cursor cursor, boolean count) throws SQLException, ParseException {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        List<DigitalObjectView> digitalObjects = new ArrayList<>();
+        String column = getSortColumn(orderBy);
+        int start = cursor == null ? getOffset(offset) : cursor.getStart();
+        int pageSize = getLimit(limit);
+        int windowCount = 0;
+        Integer lastId = null;
+        String lastValue = null;
+        boolean more = false;
+        try {
+            List<Object> params = new ArrayList<>();
+            String query = getQuery(params, id, rUserId, instance, pid, version, datum, state, label, parentLabel, parentPath);
+            if (cursor != null) {
+                query = Cursor.and(query, cursor.getCondition(params, column, "d.id", !"desc".equals(getOrderSort(orderSort))));
+            }
+            params.add(count ? pageSize : pageSize + 1);
+            if (cursor == null) {
+                params.add(start);
+            }
+
+            connection = DataSource.getConnection();
+            statement = connection.prepareStatement(VIEW_COLUMNS + (cursor != null && column != null ? ", " + column + " as cursorValue" : "")
+                    + (count ? ", count(*) over() as totalCount" : "") + VIEW_FROM + " " + query
+                    + " order by " + getOrderBy(column) + " " + getOrderSort(orderSort) + getDefaultOrderBy(orderBy) + " limit ?" + (cursor == null ? " offset ?" : ""));
+            DataSource.setValues(statement, params.toArray());
+            final ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                if (digitalObjects.size() == pageSize) {
+                    more = true;
+                    break;
+                }
+                DigitalObjectView digitalObject = new DigitalObjectView(resultSet);
+                digitalObjects.add(digitalObject);
+                lastId = digitalObject.getId();
+                if (cursor != null && column != null) {
+                    lastValue = resultSet.getString("cursorValue");
+                }
+                if (count) {
+                    windowCount = resultSet.getInt("totalCount");
+                }
+            }
+        } finally {
+            Utils.closeSilently(statement);
+            Utils.closeSilently(connection);
+        }
+        Integer total = null;
+        if (count) {
+            if (cursor == null && digitalObjects.isEmpty() && start > 0) {
+                // the page is after the end, there is no row carrying the count
+                total = getDigitalObjectsCount(id, rUserId, instance, pid, version, datum, state, label, parentLabel, parentPath);
+            } else {
+                // with the cursor only the rows after it are counted
+                total = cursor == null ? windowCount : start + windowCount;
+            }
+            more = start + digitalObjects.size() < total;
+        }
+        if (cursor != null) {
+            cursor.moveTo(digitalObjects.size(), lastId, lastValue, more);
+        }
+        return new Page<>(digitalObjects, start, total, more);
+    }
+
     public static Integer getDigitalObjectsCount(String id, String rUserId, String instance, String pid, String version, String datum, String state, String label, String parentLabel, String parentPath) throws SQLException, ParseException {
         Connection connection = null;
-        Statement statement = null;
+        PreparedStatement statement = null;
         try {
+            List<Object> params = new ArrayList<>();
+            String query = getQuery(params, id, rUserId, instance, pid, version, datum, state, label, parentLabel, parentPath);
+
             connection = DataSource.getConnection();
-            statement = connection.createStatement();
-            final ResultSet resultSet = statement.executeQuery("select count(*) as pocet from digitalobject " + getQuery(id, rUserId, instance, pid, version, datum, state, label, parentLabel, parentPath));
+            statement = connection.prepareStatement("select count(*) as pocet from digitalobject d " + query);
+            DataSource.setValues(statement, params.toArray());
+            final ResultSet resultSet = statement.executeQuery();
             while (resultSet.next()) {
                 Integer value = resultSet.getInt("pocet");
                 return value;
@@ -300,41 +470,70 @@ public class DigitalObjectDao {
         return 0;
     }
 
-    private static String getQuery(String id, String rUserId, String instance, String pid, String version, String datum, String state, String label, String parentLabel, String parentPath) throws ParseException {
+    /**
+     * @return column of the sort param, null for the default order by id
+     */
+    private static String getSortColumn(String orderBy) {
+        if (orderBy == null) {
+            return null;
+        } else if (Const.PARAM_DIGITAL_OBJECT_USER_LOGIN.equals(orderBy)) {
+            return "u.login";
+        } else if (Const.PARAM_DIGITAL_OBJECT_VERSION_XML.equals(orderBy)) {
+            return "d.version";
+        } else {
+            return "d." + orderBy;
+        }
+    }
+
+    /**
+     * @param params values of the parameters of the condition are added
+     */
+    private static String getQuery(List<Object> params, String id, String rUserId, String instance, String pid, String version, String datum, String state, String label, String parentLabel, String parentPath) throws ParseException {
         StringBuilder queryBuilder = new StringBuilder();
         if (isBlank(id) && isBlank(rUserId) && isBlank(instance) && isBlank(pid) && isBlank(version) && isBlank(datum) && isBlank(state) && isBlank(label) && isBlank(parentLabel) && isBlank(parentPath)) {
             return "";
         }
         queryBuilder.append("where");
         if (!isBlank(id)) {
-            queryBuilder.append(" AND ").append("id = '" + id + "'");
+            queryBuilder.append(" AND ").append("d.id = ?");
+            params.add(id);
         }
         if (!isBlank(rUserId)) {
-            queryBuilder.append(" AND ").append("rUserId = '" + rUserId.trim() + "'");
+            queryBuilder.append(" AND ").append("d.rUserId = ?");
+            params.add(rUserId.trim());
         }
         if (!isBlank(pid)) {
-            queryBuilder.append(" AND ").append("UPPER(pid) = '" + pid.toUpperCase().trim() + "'");
+            queryBuilder.append(" AND ").append("UPPER(d.pid) = ?");
+            params.add(pid.toUpperCase().trim());
         }
         if (!isBlank(datum)) {
-            queryBuilder.append(" AND ").append("datum >= '" + datum.trim() + "' AND datum < '" + getNextDate(datum) + "'");
+            queryBuilder.append(" AND ").append("d.datum >= ? AND d.datum < ?");
+            params.add(datum.trim());
+            params.add(getNextDate(datum));
         }
         if (!isBlank(state)) {
-            queryBuilder.append(" AND ").append("UPPER(state) = '" + state.toUpperCase().trim() + "'");
+            queryBuilder.append(" AND ").append("UPPER(d.state) = ?");
+            params.add(state.toUpperCase().trim());
         }
         if (!isBlank(instance)) {
-            queryBuilder.append(" AND ").append("UPPER(instance) = '" + instance.toUpperCase().trim() + "'");
+            queryBuilder.append(" AND ").append("UPPER(d.instance) = ?");
+            params.add(instance.toUpperCase().trim());
         }
         if (!isBlank(version)) {
-            queryBuilder.append(" AND ").append("version = '" + version.trim() + "'");
+            queryBuilder.append(" AND ").append("d.version = ?");
+            params.add(version.trim());
         }
         if (!isBlank(label)) {
-            queryBuilder.append(" AND ").append("UPPER(label) = '" + label.toUpperCase().trim() + "'");
+            queryBuilder.append(" AND ").append("UPPER(d.label) = ?");
+            params.add(label.toUpperCase().trim());
         }
         if (!isBlank(parentLabel)) {
-            queryBuilder.append(" AND ").append("UPPER(parentLabel) = '" + parentLabel.toUpperCase().trim() + "'");
+            queryBuilder.append(" AND ").append("UPPER(d.parentLabel) = ?");
+            params.add(parentLabel.toUpperCase().trim());
         }
         if (!isBlank(parentPath)) {
-            queryBuilder.append(" AND ").append("UPPER(parentPath) = '" + parentPath.toUpperCase().trim() + "'");
+            queryBuilder.append(" AND ").append("UPPER(d.parentPath) = ?");
+            params.add(parentPath.toUpperCase().trim());
         }
         String query = queryBuilder.toString();
         return query.replace("where AND ", "where ");
@@ -0,0 +1,43 @@
+package cz.inovatika.altoEditor.db.dao;
+
+import java.util.List;
+
+/**
+ * Page of a listing loaded together with the total number of rows in one query.
+ */
+public class Page<T> {
+
+    private final List<T> items;
+    private final int start;
+    private final Integer total;
+    private final boolean hasNext;
+
+    Page(List<T> items, int start, Integer total, boolean hasNext) {
+        this.items = items;
+        this.start = start;
+        this.total = total;
+        this.hasNext = hasNext;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * @return index of the first row of the page in the whole listing
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * @return number of all rows of the listing, null if it was not counted
+     */
+    public Integer getTotal() {
+        return total;
+    }
+
+    public boolean hasNext() {
+        return hasNext;
+    }
+}
@@ -4,9 +4,9 @@ import cz.inovatika.altoEditor.db.DataSource;
 import cz.inovatika.altoEditor.db.models.User;
 import cz.inovatika.altoEditor.utils.Utils;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
 import org.apache.logging.log4j.LogManager;
@@ -18,13 +18,13 @@ public class UserDao {
 
     public static List<User> getAllUsers() throws SQLException {
         Connection connection = null;
-        Statement statement = null;
+        PreparedStatement statement = null;
         List<User> users = new ArrayList();
         try {
             connection = DataSource.getConnection();
-            statement = connection.createStatement();
+            statement = connection.prepareStatement("select * from users order by login asc");
 
-            final ResultSet resultSet = statement.executeQuery("select * from users order by login asc");
+            final ResultSet resultSet = statement.executeQuery();
             while (resultSet.next()) {
                 User user = new User(resultSet);
                 users.add(user);
@@ -41,12 +41,13 @@ public class UserDao {
             return null;
         }
         Connection connection = null;
-        Statement statement = null;
+        PreparedStatement statement = null;
         try {
             connection = DataSource.getConnection();
-            statement = connection.createStatement();
+            statement = connection.prepareStatement("select * from users where login = ?");
+            DataSource.setValues(statement, login);
 
-            final ResultSet resultSet = statement.executeQuery("select * from users where login = '" + login + "'");
+            final ResultSet resultSet = statement.executeQuery();
             while (resultSet.next()) {
                 return new User(resultSet);
             }
@@ -62,12 +63,13 @@ public class UserDao {
             return null;
         }
         Connection connection = null;
-        Statement statement = null;
+        PreparedStatement statement = null;
         try {
             connection = DataSource.getConnection();
-            statement = connection.createStatement();
+            statement = connection.prepareStatement("select * from users where id = ?");
+            DataSource.setValues(statement, userId);
 
-            final ResultSet resultSet = statement.executeQuery("select * from users where id = '" + userId + "'");
+            final ResultSet resultSet = statement.executeQuery();
             while (resultSet.next()) {
                 return new User(resultSet);
             }
@@ -78,20 +80,35 @@ public class UserDao {
         }
     }
 
-    public static void createUser(String login) throws SQLException {
+    /**
+     * Creates the user if the login does not exist yet. Concurrent requests of the same new login
+     * do not fail on the unique index, all of them get the same row. An existing row is only selected,
+     * it is not locked or written.
+     *
+     * @return the new or the existing user
+     */
+    public static User createUser(String login) throws SQLException {
         if (login == null) {
-            return;
+            return null;
         }
         Connection connection = null;
-        Statement statement = null;
+        PreparedStatement statement = null;
         try {
             connection = DataSource.getConnection();
-            statement = connection.createStatement();
-            statement.executeUpdate("insert into users (id, login) values (NEXTVAL('users_id_seq'), '" + login + "')");
+            statement = connection.prepareStatement("insert into users (id, login) values (NEXTVAL('users_id_seq'), ?) " +
+                    "on conflict (login) do nothing returning *");
+            DataSource.setValues(statement, login);
+
+            final ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                return new User(resultSet);
+            }
         } finally {
             Utils.closeSilently(statement);
             Utils.closeSilently(connection);
         }
+        // the login exists, do nothing does not return the row
+        return getUserByLogin(login);
     }
 
     public static void updateUser(String userId, String login) throws SQLException {
@@ -99,11 +116,12 @@ public class UserDao {
             return;
         }
         Connection connection = null;
-        Statement statement = null;
+        PreparedStatement statement = null;
         try {
             connection = DataSource.getConnection();
-            statement = connection.createStatement();
-            statement.executeUpdate("update users set login = '" + login + "' where id = '" + userId + "'");
+            statement = connection.prepareStatement("update users set login = ? where id = ?");
+            DataSource.setValues(statement, login, userId);
+            statement.executeUpdate();
 
         } finally {
             Utils.closeSilently(statement);
@@ -4,9 +4,9 @@ import cz.inovatika.altoEditor.db.DataSource;
 import cz.inovatika.altoEditor.db.models.Version;
 import cz.inovatika.altoEditor.utils.Utils;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
 import org.apache.logging.log4j.LogManager;
@@ -18,13 +18,13 @@ public class VersionDao {
 
     public static List<Version> getAllVersions() throws SQLException {
         Connection connection = null;
-        Statement statement = null;
+        PreparedStatement statement = null;
         List<Version> versions = new ArrayList<>();
         try {
             connection = DataSource.getConnection();
-            statement = connection.createStatement();
+            statement = connection.prepareStatement("select * from version order by datum, id desc");
 
-            final ResultSet resultSet = statement.executeQuery("select * from version order by datum, id desc");
+            final ResultSet resultSet = statement.executeQuery();
             while (resultSet.next()) {
                 Version version = new Version(resultSet);
                 versions.add(version);
@@ -38,11 +38,11 @@ public class VersionDao {
 
     public static Version getActualVersion() throws SQLException {
         Connection connection = null;
-        Statement statement = null;
+        PreparedStatement statement = null;
         try {
             connection = DataSource.getConnection();
-            statement = connection.createStatement();
-            final ResultSet resultSet = statement.executeQuery("select * from version order by id desc limit 1");
+            statement = connection.prepareStatement("select * from version order by id desc limit 1");
+            final ResultSet resultSet = statement.executeQuery();
             while (resultSet.next()) {
                 return new Version(resultSet);
             }
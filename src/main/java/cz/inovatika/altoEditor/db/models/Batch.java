@@ -25,6 +25,10 @@ public class Batch {
     public Integer objectId = null;
     public Integer estimateItemNumber = null;
     public String log = null;
+    public Integer attempts = null;
+    public String node = null;
+    public Timestamp leaseUntil = null;
+    public String createdBy = null;
 
 
     public Integer getId() {
@@ -75,6 +79,22 @@ public class Batch {
         return objectId;
     }
 
+    public Integer getAttempts() {
+        return attempts;
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    public Timestamp getLeaseUntil() {
+        return leaseUntil;
+    }
+
+    public String getCreatedBy() {
+        return createdBy;
+    }
+
     public Batch(ResultSet rs) {
         try {
             if (rs != null) {
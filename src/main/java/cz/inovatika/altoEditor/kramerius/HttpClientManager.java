@@ -0,0 +1,115 @@
+package cz.inovatika.altoEditor.kramerius;
+
+import cz.inovatika.altoEditor.models.HttpPoolInfo;
+import cz.inovatika.altoEditor.utils.Config;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Holds one pooled HTTP client per configured Kramerius instance, one for Keycloak and one for PERO.
+ *
+ * Clients are created lazily, shared by all callers and closed by {@link #shutdown()}.
+ * Responses must always be consumed or closed so that the connection returns to the pool.
+ */
+public final class HttpClientManager {
+
+    private static final Logger LOGGER = LogManager.getLogger(HttpClientManager.class.getName());
+
+    public static final String KEYCLOAK = "keycloak";
+    public static final String PERO = "pero";
+
+    private static final Map<String, ManagedClient> CLIENTS = new ConcurrentHashMap<>();
+
+    private HttpClientManager() {
+    }
+
+    public static CloseableHttpClient getClient(KrameriusOptions.KrameriusInstance instance) {
+        return getClient(instance.getId());
+    }
+
+    public static CloseableHttpClient getClient(String instanceId) {
+        return CLIENTS.computeIfAbsent(instanceId, HttpClientManager::create).client;
+    }
+
+    public static CloseableHttpClient getKeycloakClient() {
+        return getClient(KEYCLOAK);
+    }
+
+    public static CloseableHttpClient getPeroClient() {
+        return getClient(PERO);
+    }
+
+    public static List<HttpPoolInfo> getPoolStats() {
+        List<HttpPoolInfo> stats = new ArrayList<>();
+        for (Map.Entry<String, ManagedClient> entry : CLIENTS.entrySet()) {
+            PoolStats poolStats = entry.getValue().connectionManager.getTotalStats();
+            stats.add(new HttpPoolInfo(entry.getKey(), poolStats.getLeased(), poolStats.getPending(), poolStats.getAvailable(), poolStats.getMax()));
+        }
+        return stats;
+    }
+
+    public static void shutdown() {
+        for (String instanceId : new ArrayList<>(CLIENTS.keySet())) {
+            ManagedClient managedClient = CLIENTS.remove(instanceId);
+            if (managedClient != null) {
+                try {
+                    managedClient.client.close();
+                } catch (IOException ex) {
+                    LOGGER.warn("Unable to close http client for " + instanceId + ": " + ex.getMessage());
+                }
+            }
+        }
+        LOGGER.info("Http clients closed.");
+    }
+
+    private static ManagedClient create(String instanceId) {
+        String configId = KEYCLOAK.equals(instanceId) || PERO.equals(instanceId) ? null : instanceId;
+        int connectTimeout = Config.getHttpConnectTimeout(configId);
+        int readTimeout = Config.getHttpReadTimeout(configId);
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(Config.getHttpMaxTotal(configId));
+        connectionManager.setDefaultMaxPerRoute(Config.getHttpMaxPerRoute(configId));
+        connectionManager.setValidateAfterInactivity(2000);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setConnectionRequestTimeout(connectTimeout)
+                .setSocketTimeout(readTimeout)
+                .build();
+
+        // content compression (gzip, deflate) is enabled by default in HttpClientBuilder
+        CloseableHttpClient client = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .evictExpiredConnections()
+                .evictIdleConnections(Config.getHttpIdleTimeout(configId), TimeUnit.MILLISECONDS)
+                .build();
+
+        LOGGER.info("Created http client for " + instanceId + " (maxTotal=" + connectionManager.getMaxTotal()
+                + ", maxPerRoute=" + connectionManager.getDefaultMaxPerRoute() + ").");
+        return new ManagedClient(client, connectionManager);
+    }
+
+    private static final class ManagedClient {
+
+        private final CloseableHttpClient client;
+        private final PoolingHttpClientConnectionManager connectionManager;
+
+        private ManagedClient(CloseableHttpClient client, PoolingHttpClientConnectionManager connectionManager) {
+            this.client = client;
+            this.connectionManager = connectionManager;
+        }
+    }
+}
@@ -10,7 +10,6 @@ import org.apache.http.NameValuePair;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.util.EntityUtils;
@@ -37,7 +36,7 @@ public class K7Authenticator {
 
         LOGGER.info("Trying to authenticate " + loginUrl);
 
-        HttpClient httpClient = HttpClients.createDefault();
+        HttpClient httpClient = HttpClientManager.getClient(instance);
         HttpPost httpPost = new HttpPost(loginUrl);
 
         List<NameValuePair> params = new ArrayList<>();
@@ -54,23 +53,13 @@ public class K7Authenticator {
         httpPost.setEntity(new UrlEncodedFormEntity(params, "UTF-8"));
 
         HttpResponse response = httpClient.execute(httpPost);
-        if (HTTP_OK == response.getStatusLine().getStatusCode()) {
-            HttpEntity entity = response.getEntity();
-            if (entity != null) {
-                String result = EntityUtils.toString(response.getEntity());
-                if (result.startsWith("{")) {
-                    JSONObject jsonObject = new JSONObject(result);
-                    String token = jsonObject.optString("access_token");
-                    if (token != null || !token.isEmpty()) {
-                        LOGGER.debug("Connected to Kramerius and get token " + token);
-                        return token;
-                    } else {
-                        LOGGER.error("Connected to Kramerius but access_token is null");
-                    }
-                } else if (result.startsWith("[")){
-                    JSONArray jsonArray = new JSONArray(result);
-                    for (int i = 0; i < jsonArray.length(); i++) {
-                        JSONObject jsonObject = jsonArray.getJSONObject(0);
+        try {
+            if (HTTP_OK == response.getStatusLine().getStatusCode()) {
+                HttpEntity entity = response.getEntity();
+                if (entity != null) {
+                    String result = EntityUtils.toString(response.getEntity());
+                    if (result.startsWith("{")) {
+                        JSONObject jsonObject = new JSONObject(result);
                         String token = jsonObject.optString("access_token");
                         if (token != null || !token.isEmpty()) {
                             LOGGER.debug("Connected to Kramerius and get token " + token);
@@ -78,20 +67,34 @@ public class K7Authenticator {
                         } else {
                             LOGGER.error("Connected to Kramerius but access_token is null");
                         }
+                    } else if (result.startsWith("[")){
+                        JSONArray jsonArray = new JSONArray(result);
+                        for (int i = 0; i < jsonArray.length(); i++) {
+                            JSONObject jsonObject = jsonArray.getJSONObject(0);
+                            String token = jsonObject.optString("access_token");
+                            if (token != null || !token.isEmpty()) {
+                                LOGGER.debug("Connected to Kramerius and get token " + token);
+                                return token;
+                            } else {
+                                LOGGER.error("Connected to Kramerius but access_token is null");
+                            }
+                        }
+                    } else {
+                        LOGGER.error("Connected to Kramerius but can not found access_token");
+                        throw new IOException("Connected to Kramerius but can not found access_token");
                     }
                 } else {
-                    LOGGER.error("Connected to Kramerius but can not found access_token");
-                    throw new IOException("Connected to Kramerius but can not found access_token");
+                    LOGGER.error("Connected to Kramerius but entity is null");
+                    throw new IOException("Connected to Kramerius but entity is null");
                 }
+                LOGGER.error("Connected to Kramerius but access_token is null");
+                throw new IOException("Connected to Kramerius but access_token is null");
             } else {
-                LOGGER.error("Connected to Kramerius but entity is null");
-                throw new IOException("Connected to Kramerius but entity is null");
+                LOGGER.error("Connecing to Kramerius ended with code " + response.getStatusLine().getStatusCode());
+                throw new IOException("Connecing to Kramerius ended with code " + response.getStatusLine().getStatusCode());
             }
-            LOGGER.error("Connected to Kramerius but access_token is null");
-            throw new IOException("Connected to Kramerius but access_token is null");
-        } else {
-            LOGGER.error("Connecing to Kramerius ended with code " + response.getStatusLine().getStatusCode());
-            throw new IOException("Connecing to Kramerius ended with code " + response.getStatusLine().getStatusCode());
+        } finally {
+            EntityUtils.consumeQuietly(response.getEntity());
         }
     }
 }
@@ -12,13 +12,29 @@ import cz.inovatika.altoEditor.utils.Config;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.util.EntityUtils;
 import org.apache.logging.log4j.LogManager;
@@ -39,6 +55,8 @@ public class K7Downloader {
 
     private static final Logger LOGGER = LogManager.getLogger(K7Downloader.class.getName());
 
+    private static final Map<String, ExecutorService> EXECUTORS = new ConcurrentHashMap<>();
+
     public void downloadFoxml(String pid, String instanceId, UserProfile userProfile) throws AltoEditorException, IOException {
         AkubraStorage storage = AkubraStorage.getInstance();
         if (storage.exist(pid)) {
@@ -51,12 +69,10 @@ public class K7Downloader {
             throw new DigitalObjectNotFoundException(instanceId, String.format("This instance \"%s\" is not configured.", instanceId));
         }
 
-        String foxml = download(instance, pid, userProfile.getToken());
-        saveToTmp(foxml, pid);
+        download(instance, pid, userProfile.getToken(), getFile(pid));
 
         if (!containsAlto(pid)) {
-            String alto = downloadAlto(instance, pid, userProfile.getToken());
-            saveAltoToTmp(alto, pid);
+            downloadAlto(instance, pid, userProfile.getToken(), getFile(pid, AltoDatastreamEditor.ALTO_ID));
             updateFoxml(pid);
         }
 
@@ -123,69 +139,28 @@ public class K7Downloader {
         akubraStorage.ingest(lObj, login, "Ingested by AltoEditor from Kramerius");
     }
 
-    private String download(KrameriusOptions.KrameriusInstance instance, String pid, String token) throws IOException {
+    private void download(KrameriusOptions.KrameriusInstance instance, String pid, String token, File foxmlFile) throws IOException {
         String foxmlUrl = Config.getKrameriusInstanceUrl(instance.getId()) +
                 Config.getKrameriusInstanceUrlDownloadFoxml(instance.getId()) +
                 pid + "/foxml";
         LOGGER.info("Trying to download FOXML from " + foxmlUrl);
-
-        HttpClient httpClient = HttpClients.createDefault();
-        HttpGet httpGet = new HttpGet(foxmlUrl);
-
-        httpGet.setHeader(new BasicHeader("Keep-Alive", "timeout=600, max=1000"));
-        if (token != null && !token.isEmpty()) {
-            httpGet.setHeader(new BasicHeader("Authorization", "Bearer " + token));
-        }
-        httpGet.setHeader(new BasicHeader("Connection", "Keep-Alive, Upgrade"));
-        httpGet.setHeader(new BasicHeader("Accept-Language", "cs,en;q=0.9,de;q=0.8,cs-CZ;q=0.7,sk;q=0.6"));
-
-        HttpResponse response = httpClient.execute(httpGet);
-        if (HTTP_OK == response.getStatusLine().getStatusCode()) {
-            LOGGER.debug("Http response Download FOXML success");
-            HttpEntity entity = response.getEntity();
-            if (entity != null) {
-                String result = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
-                if (result != null && !result.isEmpty()) {
-                    return result;
-                } else {
-                    LOGGER.warn("Downloaded FOXML but result is null or empty");
-                    throw new IOException("Downloaded FOXML but result is null or empty");
-                }
-            } else {
-                LOGGER.warn("Downloaded FOXML but entity is null");
-                throw new IOException("Downloaded FOXML but entity is null");
-            }
-        } else if (HTTP_INTERNAL_ERROR == response.getStatusLine().getStatusCode()) {
-            LOGGER.warn("Downloading FOXML ended with code " + response.getStatusLine().getStatusCode());
-            HttpEntity entity = response.getEntity();
-            if (entity != null) {
-                String result = EntityUtils.toString(response.getEntity());
-                if (result != null && !result.isEmpty()) {
-                    JSONObject object = new JSONObject(result);
-                    LOGGER.warn("Downloaded FOXML ended with code " + response.getStatusLine().getStatusCode() + " and reason is " + object.get("message"));
-                    throw new IOException("Downloaded FOXML ended with code " + response.getStatusLine().getStatusCode() + " and reason is " + object.get("message"));
-                } else {
-                    LOGGER.warn("Downloaded FOXML ended with code " + response.getStatusLine().getStatusCode() + " and the result is null");
-                    throw new IOException("Downloaded FOXML ended with code " + response.getStatusLine().getStatusCode() + " and the result is null");
-                }
-            } else {
-                LOGGER.warn("Downloaded FOXML ended with code " + response.getStatusLine().getStatusCode() + " and the entity is null");
-                throw new IOException("Downloaded FOXML ended with code " + response.getStatusLine().getStatusCode() + " and the entity is null");
-            }
-        } else {
-            LOGGER.warn("Downloading FOXML ended with code " + response.getStatusLine().getStatusCode());
-            throw new IOException("Downloading FOXML ended with code " + response.getStatusLine().getStatusCode());
-        }
+        downloadToFile(instance, foxmlUrl, token, foxmlFile, pid, "FOXML");
     }
 
-    private String downloadAlto(KrameriusOptions.KrameriusInstance instance, String pid, String token) throws IOException {
-        String foxmlUrl = Config.getKrameriusInstanceUrl(instance.getId()) +
+    private void downloadAlto(KrameriusOptions.KrameriusInstance instance, String pid, String token, File altoFile) throws IOException {
+        String altoUrl = Config.getKrameriusInstanceUrl(instance.getId()) +
                 Config.getKrameriusInstanceUrlDownloadFoxml(instance.getId()) +
                 pid + "/ocr/alto";
-        LOGGER.info("Trying to download Alto from " + foxmlUrl);
+        LOGGER.info("Trying to download Alto from " + altoUrl);
+        downloadToFile(instance, altoUrl, token, altoFile, pid, "Alto");
+    }
 
-        HttpClient httpClient = HttpClients.createDefault();
-        HttpGet httpGet = new HttpGet(foxmlUrl);
+    /**
+     * Streams the response body straight into the file, the content is never held in memory as a whole.
+     */
+    private void downloadToFile(KrameriusOptions.KrameriusInstance instance, String url, String token, File file, String pid, String type) throws IOException {
+        HttpClient httpClient = HttpClientManager.getClient(instance);
+        HttpGet httpGet = new HttpGet(url);
 
         httpGet.setHeader(new BasicHeader("Keep-Alive", "timeout=600, max=1000"));
         if (token != null && !token.isEmpty()) {
@@ -195,92 +170,265 @@ public class K7Downloader {
         httpGet.setHeader(new BasicHeader("Accept-Language", "cs,en;q=0.9,de;q=0.8,cs-CZ;q=0.7,sk;q=0.6"));
 
         HttpResponse response = httpClient.execute(httpGet);
-        if (HTTP_OK == response.getStatusLine().getStatusCode()) {
-            LOGGER.debug("Http response Download FOXML success");
-            HttpEntity entity = response.getEntity();
-            if (entity != null) {
-                String result = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
-                if (result != null && !result.isEmpty()) {
-                    return result;
+        try {
+            if (HTTP_OK == response.getStatusLine().getStatusCode()) {
+                LOGGER.debug("Http response Download " + type + " success");
+                HttpEntity entity = response.getEntity();
+                if (entity != null) {
+                    InputStream content = null;
+                    try {
+                        content = entity.getContent();
+                        writeToFile(content, file, pid);
+                    } finally {
+                        closeQuietly(content, pid);
+                    }
+                    if (file.length() == 0) {
+                        LOGGER.warn("Downloaded " + type + " but result is null or empty");
+                        file.delete();
+                        throw new IOException("Downloaded " + type + " but result is null or empty");
+                    }
                 } else {
-                    LOGGER.warn("Downloaded FOXML but result is null or empty");
-                    throw new IOException("Downloaded FOXML but result is null or empty");
+                    LOGGER.warn("Downloaded " + type + " but entity is null");
+                    throw new IOException("Downloaded " + type + " but entity is null");
                 }
-            } else {
-                LOGGER.warn("Downloaded FOXML but entity is null");
-                throw new IOException("Downloaded FOXML but entity is null");
-            }
-        } else if (HTTP_INTERNAL_ERROR == response.getStatusLine().getStatusCode()) {
-            LOGGER.warn("Downloading FOXML ended with code " + response.getStatusLine().getStatusCode());
-            HttpEntity entity = response.getEntity();
-            if (entity != null) {
-                String result = EntityUtils.toString(response.getEntity());
-                if (result != null && !result.isEmpty()) {
-                    JSONObject object = new JSONObject(result);
-                    LOGGER.warn("Downloaded FOXML ended with code " + response.getStatusLine().getStatusCode() + " and reason is " + object.get("message"));
-                    throw new IOException("Downloaded FOXML ended with code " + response.getStatusLine().getStatusCode() + " and reason is " + object.get("message"));
+            } else if (HTTP_INTERNAL_ERROR == response.getStatusLine().getStatusCode()) {
+                LOGGER.warn("Downloading " + type + " ended with code " + response.getStatusLine().getStatusCode());
+                HttpEntity entity = response.getEntity();
+                if (entity != null) {
+                    String result = EntityUtils.toString(response.getEntity());
+                    if (result != null && !result.isEmpty()) {
+                        JSONObject object = new JSONObject(result);
+                        LOGGER.warn("Downloaded " + type + " ended with code " + response.getStatusLine().getStatusCode() + " and reason is " + object.get("message"));
+                        throw new IOException("Downloaded " + type + " ended with code " + response.getStatusLine().getStatusCode() + " and reason is " + object.get("message"));
+                    } else {
+                        LOGGER.warn("Downloaded " + type + " ended with code " + response.getStatusLine().getStatusCode() + " and the result is null");
+                        throw new IOException("Downloaded " + type + " ended with code " + response.getStatusLine().getStatusCode() + " and the result is null");
+                    }
                 } else {
-                    LOGGER.warn("Downloaded FOXML ended with code " + response.getStatusLine().getStatusCode() + " and the result is null");
-                    throw new IOException("Downloaded FOXML ended with code " + response.getStatusLine().getStatusCode() + " and the result is null");
+                    LOGGER.warn("Downloaded " + type + " ended with code " + response.getStatusLine().getStatusCode() + " and the entity is null");
+                    throw new IOException("Downloaded " + type + " ended with code " + response.getStatusLine().getStatusCode() + " and the entity is null");
                 }
             } else {
-                LOGGER.warn("Downloaded FOXML ended with code " + response.getStatusLine().getStatusCode() + " and the entity is null");
-                throw new IOException("Downloaded FOXML ended with code " + response.getStatusLine().getStatusCode() + " and the entity is null");
+                LOGGER.warn("Downloading " + type + " ended with code " + response.getStatusLine().getStatusCode());
+                throw new IOException("Downloading " + type + " ended with code " + response.getStatusLine().getStatusCode());
             }
-        } else {
-            LOGGER.warn("Downloading FOXML ended with code " + response.getStatusLine().getStatusCode());
-            throw new IOException("Downloading FOXML ended with code " + response.getStatusLine().getStatusCode());
+        } finally {
+            EntityUtils.consumeQuietly(response.getEntity());
         }
     }
 
-    private void saveToTmp(String foxmlContent, String pid) throws AltoEditorException, IOException {
-        File foxmlFile = getFile(pid);
-        writeToFile(foxmlContent, foxmlFile, pid);
-    }
-
-    private void saveAltoToTmp(String altoContent, String pid) throws AltoEditorException, IOException {
-        File altoFile = getFile(pid, AltoDatastreamEditor.ALTO_ID);
-        writeToFile(altoContent, altoFile, pid);
-    }
-
     public File saveImage(String pid, String instanceId, UserProfile userProfile) throws AltoEditorException, IOException {
-        return saveImage(pid, pid, instanceId, userProfile);
+        return saveImage(pid, pid, instanceId, userProfile, null);
     }
 
     public File saveImage(String parentPid, String pid, String instanceId, UserProfile userProfile) throws AltoEditorException, IOException {
-        File peroPath = createFolder(new File(Config.getPeroPath()), false);
-        File parentFile = createFolder(new File(peroPath, getPidAsFile(parentPid)), true);
-
+        return saveImage(parentPid, pid, instanceId, userProfile, null);
+    }
 
+    /**
+     * Downloads the image of the page or images of all pages of the object into the PERO folder.
+     */
+    public File saveImage(String parentPid, String pid, String instanceId, UserProfile userProfile, ProgressListener listener) throws AltoEditorException, IOException {
+        List<String> pagePids = getPagePids(pid, instanceId, userProfile);
+        File parentFile = prepareFolder(parentPid, pagePids);
+        saveImages(parentFile, pagePids, instanceId, userProfile, listener);
+        return parentFile;
+    }
 
+    /**
+     * @return the pid itself for a page, pids of its children otherwise
+     */
+    public List<String> getPagePids(String pid, String instanceId, UserProfile userProfile) throws AltoEditorException, IOException {
         K7ObjectInfo k7ObjectInfo = new K7ObjectInfo();
         String model = k7ObjectInfo.getModel(pid, instanceId, userProfile);
         if (model == null) {
             throw new IOException("Unknown model for pid = " + pid);
         }
         if ("page".equals(model)) {
-            File imageFile = getFile(parentFile, pid, "IMAGE");
-            InputStream imageContent = null;
+            return Collections.singletonList(pid);
+        } else {
+            return k7ObjectInfo.getChildrenPids(pid, instanceId, userProfile);
+        }
+    }
+
+    /**
+     * Creates the PERO folder of the object. Images and generated ALTO and OCR of the given pages
+     * that were completely written by a previous attempt are kept, everything else is removed.
+     */
+    public File prepareFolder(String parentPid, List<String> pagePids) throws AltoEditorException {
+        return prepareFolder(new File(Config.getPeroPath()), parentPid, pagePids);
+    }
+
+    public File prepareFolder(File root, String parentPid, List<String> pagePids) throws AltoEditorException {
+        File peroPath = createFolder(root, false);
+        File parentFile = createFolder(new File(peroPath, getPidAsFile(parentPid)), false);
+        cleanFolder(parentFile, pagePids);
+        return parentFile;
+    }
+
+    private void cleanFolder(File folder, List<String> pagePids) throws AltoEditorException {
+        Set<String> names = new HashSet<>();
+        for (String pagePid : pagePids) {
+            String imageName = getFile(folder, pagePid, "IMAGE").getName();
+            String baseName = imageName.substring(0, imageName.lastIndexOf("."));
+            names.add(imageName);
+            names.add(baseName + ".xml");
+            names.add(baseName + ".txt");
+        }
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!names.contains(file.getName()) || file.length() == 0) {
+                    deleteFolder(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Downloads images of the pages into the folder, images downloaded by a previous attempt are not downloaded again.
+     * Pages are fetched in parallel, at most {@link Config#getDownloadParallel(String)} at once for one instance.
+     *
+     * The download pool is shared by all batches of the instance, so its workers only download. The listener is called
+     * from the calling thread and a next page of the batch is submitted only after the listener took the previous one.
+     * A listener that blocks holds back its own batch, not the workers downloading the pages of other batches.
+     */
+    public void saveImages(File folder, List<String> pagePids, String instanceId, UserProfile userProfile, ProgressListener listener) throws AltoEditorException, IOException {
+        DownloadProgress progress = new DownloadProgress(pagePids.size(), listener);
+        int parallel = Config.getDownloadParallel(instanceId);
+        if (pagePids.size() == 1 || parallel <= 1) {
+            for (String pagePid : pagePids) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Downloading of images was interrupted.");
+                }
+                downloadPage(folder, pagePid, instanceId, userProfile, progress);
+            }
+        } else {
+            CompletionService<File> completion = new ExecutorCompletionService<>(getExecutor(instanceId));
+            Map<Future<File>, String> running = new HashMap<>();
+            Iterator<String> pending = pagePids.iterator();
             try {
-                imageContent = downloadImage(pid, instanceId, userProfile);
-                writeToFile(imageContent, imageFile, pid);
-            } finally {
-                closeQuietly(imageContent, pid);
+                while (running.size() < parallel && pending.hasNext()) {
+                    submitPage(completion, running, folder, pending.next(), instanceId, userProfile);
+                }
+                while (!running.isEmpty()) {
+                    Future<File> future = completion.take();
+                    String pagePid = running.remove(future);
+                    try {
+                        progress.pageDone(pagePid, future.get());
+                    } catch (ExecutionException ex) {
+                        Throwable cause = ex.getCause();
+                        LOGGER.warn("Downloading image for " + pagePid + " failed: " + cause.getMessage());
+                        progress.pageFailed(pagePid, null, cause instanceof Exception ? (Exception) cause : ex);
+                    }
+                    if (pending.hasNext()) {
+                        submitPage(completion, running, folder, pending.next(), instanceId, userProfile);
+                    }
+                }
+            } catch (InterruptedException ex) {
+                for (Future<File> future : running.keySet()) {
+                    future.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Downloading of images was interrupted.");
             }
+        }
+        if (progress.getFailed() > 0) {
+            throw new IOException("Downloading of " + progress.getFailed() + " of " + progress.getTotal() + " images failed (" + progress.getFirstError() + "), "
+                    + progress.getDone() + " images are kept for the next attempt.");
+        }
+    }
+
+    private void submitPage(CompletionService<File> completion, Map<Future<File>, String> running, File folder, String pid, String instanceId, UserProfile userProfile) {
+        running.put(completion.submit(() -> fetchPage(folder, pid, instanceId, userProfile)), pid);
+    }
+
+    private void downloadPage(File folder, String pid, String instanceId, UserProfile userProfile, DownloadProgress progress) {
+        File imageFile;
+        try {
+            imageFile = fetchPage(folder, pid, instanceId, userProfile);
+        } catch (Exception ex) {
+            LOGGER.warn("Downloading image for " + pid + " failed: " + ex.getMessage());
+            progress.pageFailed(pid, null, ex);
+            return;
+        }
+        progress.pageDone(pid, imageFile);
+    }
+
+    /**
+     * @return the downloaded image
+     */
+    private File fetchPage(File folder, String pid, String instanceId, UserProfile userProfile) throws AltoEditorException, IOException {
+        File imageFile = getFile(folder, pid, "IMAGE");
+        if (!imageFile.exists() || imageFile.length() == 0) {
+            downloadPage(imageFile, pid, instanceId, userProfile);
         } else {
-            List<String> childrenPids = k7ObjectInfo.getChildrenPids(pid, instanceId, userProfile);
-            for (String childrenPid : childrenPids) {
-                File imageFile = getFile(parentFile, childrenPid, "IMAGE");
+            LOGGER.debug("Image for " + pid + " already downloaded.");
+        }
+        return imageFile;
+    }
+
+    private void downloadPage(File imageFile, String pid, String instanceId, UserProfile userProfile) throws AltoEditorException, IOException {
+        File partFile = new File(imageFile.getParentFile(), imageFile.getName() + ".part");
+        int retries = Config.getDownloadRetries();
+        for (int attempt = 0; ; attempt++) {
+            try {
                 InputStream imageContent = null;
                 try {
-                    imageContent = downloadImage(childrenPid, instanceId, userProfile);
-                    writeToFile(imageContent, imageFile, childrenPid);
+                    imageContent = downloadImage(pid, instanceId, userProfile);
+                    writeToFile(imageContent, partFile, pid);
                 } finally {
-                    closeQuietly(imageContent, childrenPid);
+                    closeQuietly(imageContent, pid);
+                }
+                Files.move(partFile.toPath(), imageFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                return;
+            } catch (IOException ex) {
+                partFile.delete();
+                if (attempt >= retries || !isTransient(ex)) {
+                    throw ex;
+                }
+                long delay = Config.getDownloadRetryDelay() * (1L << attempt);
+                LOGGER.warn("Downloading image for " + pid + " failed (" + ex.getMessage() + "), attempt " + (attempt + 1) + " of " + (retries + 1) + ", next attempt in " + delay + " ms.");
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Downloading image for " + pid + " was interrupted.");
                 }
             }
         }
-        return parentFile;
+    }
+
+    /**
+     * Network errors, server errors and throttling are worth another attempt, other client errors are not.
+     */
+    private static boolean isTransient(IOException ex) {
+        if (ex instanceof InterruptedIOException && !(ex instanceof SocketTimeoutException)) {
+            return false;
+        }
+        if (ex instanceof ImageDownloadException) {
+            int status = ((ImageDownloadException) ex).getStatus();
+            return status >= HTTP_INTERNAL_ERROR || status == 429;
+        }
+        return true;
+    }
+
+    private static ExecutorService getExecutor(String instanceId) {
+        return EXECUTORS.computeIfAbsent(instanceId, id -> {
+            AtomicInteger counter = new AtomicInteger();
+            return Executors.newFixedThreadPool(Config.getDownloadParallel(id), runnable -> {
+                Thread thread = new Thread(runnable, "ImageDownload-" + id + "-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        });
+    }
+
+    public static void shutdown() {
+        for (ExecutorService executor : EXECUTORS.values()) {
+            executor.shutdownNow();
+        }
+        EXECUTORS.clear();
     }
 
     private InputStream downloadImage(String pid, String instanceId, UserProfile userProfile) throws IOException, AltoEditorException {
@@ -311,19 +459,105 @@ public class K7Downloader {
                 if (result != null && !result.isEmpty()) {
                     JSONObject object = new JSONObject(result);
                     LOGGER.warn("Downloaded Image ended with code " + response.getStatusLine().getStatusCode() + " and reason is " + object.get("message"));
-                    throw new IOException("Downloaded Image ended with code " + response.getStatusLine().getStatusCode() + " and reason is " + object.get("message"));
+                    throw new ImageDownloadException(response.getStatusLine().getStatusCode(), "Downloaded Image ended with code " + response.getStatusLine().getStatusCode() + " and reason is " + object.get("message"));
                 } else {
                     LOGGER.warn("Downloaded Image ended with code " + response.getStatusLine().getStatusCode() + " and the result is null");
-                    throw new IOException("Downloaded Image ended with code " + response.getStatusLine().getStatusCode() + " and the result is null");
+                    throw new ImageDownloadException(response.getStatusLine().getStatusCode(), "Downloaded Image ended with code " + response.getStatusLine().getStatusCode() + " and the result is null");
                 }
             } else {
                 LOGGER.warn("Downloaded Image ended with code " + response.getStatusLine().getStatusCode() + " and the entity is null");
-                throw new IOException("Downloaded Image ended with code " + response.getStatusLine().getStatusCode() + " and the entity is null");
+                throw new ImageDownloadException(response.getStatusLine().getStatusCode(), "Downloaded Image ended with code " + response.getStatusLine().getStatusCode() + " and the entity is null");
             }
         } else {
             LOGGER.warn("Downloading Image ended with code " + response.getStatusLine().getStatusCode());
-            throw new IOException("Downloading Image ended with code " + response.getStatusLine().getStatusCode());
+            EntityUtils.consumeQuietly(response.getEntity());
+            throw new ImageDownloadException(response.getStatusLine().getStatusCode(), "Downloading Image ended with code " + response.getStatusLine().getStatusCode());
         }
 
     }
+
+    /**
+     * Receives the result of every page in the thread that called {@link #saveImages}.
+     * A listener that blocks slows the download of its batch down.
+     */
+    public interface ProgressListener {
+        void pageFinished(String pid, File image, boolean success, int done, int failed, int total);
+    }
+
+    private static final class DownloadProgress {
+
+        private final int total;
+        private final ProgressListener listener;
+        private int done = 0;
+        private int failed = 0;
+        private String firstError = null;
+
+        private DownloadProgress(int total, ProgressListener listener) {
+            this.total = total;
+            this.listener = listener;
+        }
+
+        private void pageDone(String pid, File image) {
+            int doneNow;
+            int failedNow;
+            synchronized (this) {
+                doneNow = ++done;
+                failedNow = failed;
+            }
+            notifyListener(pid, image, true, doneNow, failedNow);
+        }
+
+        private void pageFailed(String pid, File image, Exception ex) {
+            int doneNow;
+            int failedNow;
+            synchronized (this) {
+                doneNow = done;
+                failedNow = ++failed;
+                if (firstError == null) {
+                    firstError = pid + ": " + ex.getMessage();
+                }
+            }
+            notifyListener(pid, image, false, doneNow, failedNow);
+        }
+
+        private void notifyListener(String pid, File image, boolean success, int doneNow, int failedNow) {
+            if (listener != null) {
+                try {
+                    listener.pageFinished(pid, image, success, doneNow, failedNow, total);
+                } catch (Exception ex) {
+                    LOGGER.warn("Progress listener failed: " + ex.getMessage());
+                }
+            }
+        }
+
+        private int getTotal() {
+            return total;
+        }
+
+        private synchronized int getDone() {
+            return done;
+        }
+
+        private synchronized int getFailed() {
+            return failed;
+        }
+
+        private synchronized String getFirstError() {
+            return firstError;
+        }
+    }
+
+    private static final class ImageDownloadException extends IOException {
+
+        private final int status;
+
+        private ImageDownloadException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+
+        private int getStatus() {
+            return status;
+        }
+    }
 }
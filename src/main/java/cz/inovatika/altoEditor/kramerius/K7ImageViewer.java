@@ -6,7 +6,6 @@ import java.io.IOException;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.message.BasicHeader;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -22,7 +21,7 @@ public class K7ImageViewer {
                 pid + "/image";
         LOGGER.info("Trying to download image from " + imageUrl);
 
-        HttpClient httpClient = HttpClients.createDefault();
+        HttpClient httpClient = HttpClientManager.getClient(instanceId);
         HttpGet httpGet = new HttpGet(imageUrl);
         httpGet.setHeader(new BasicHeader("Keep-Alive", "timeout=600, max=1000"));
         httpGet.setHeader(new BasicHeader("Authorization", "Bearer " + userProfile.getToken()));
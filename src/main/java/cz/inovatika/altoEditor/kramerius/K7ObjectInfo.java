@@ -14,7 +14,6 @@ import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.util.EntityUtils;
 import org.apache.logging.log4j.LogManager;
@@ -46,7 +45,7 @@ public class K7ObjectInfo {
                 URLEncoder.encode("\"" + pid + "\"", StandardCharsets.UTF_8.name()) + "&wt=xml";
         LOGGER.info("Trying to get Object info " + objectInformationUrl);
 
-        HttpClient httpClient = HttpClients.createDefault();
+        HttpClient httpClient = HttpClientManager.getClient(instance);
         HttpGet httpGet = new HttpGet(objectInformationUrl);
 
         httpGet.setHeader(new BasicHeader("Keep-Alive", "timeout=600, max=1000"));
@@ -55,42 +54,46 @@ public class K7ObjectInfo {
         httpGet.setHeader(new BasicHeader("Accept-Language", "cs,en;q=0.9,de;q=0.8,cs-CZ;q=0.7,sk;q=0.6"));
 
         HttpResponse response = httpClient.execute(httpGet);
+        try {
 
-        if (HTTP_OK == response.getStatusLine().getStatusCode()) {
-            LOGGER.debug("Http response Object information success");
-            HttpEntity entity = response.getEntity();
-            if (entity != null) {
-                String result = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
-                if (result != null && !result.isEmpty()) {
-                    return getObjectInformationFromResponse(pid, result);
+            if (HTTP_OK == response.getStatusLine().getStatusCode()) {
+                LOGGER.debug("Http response Object information success");
+                HttpEntity entity = response.getEntity();
+                if (entity != null) {
+                    String result = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+                    if (result != null && !result.isEmpty()) {
+                        return getObjectInformationFromResponse(pid, result);
+                    } else {
+                        LOGGER.warn("GET Object information but result is null or empty");
+                        throw new IOException("GET Object information but result is null or empty");
+                    }
                 } else {
-                    LOGGER.warn("GET Object information but result is null or empty");
-                    throw new IOException("GET Object information but result is null or empty");
+                    LOGGER.warn("GET Object information but entity is null");
+                    throw new IOException("GET Object information but entity is null");
                 }
-            } else {
-                LOGGER.warn("GET Object information but entity is null");
-                throw new IOException("GET Object information but entity is null");
-            }
-        } else if (HTTP_INTERNAL_ERROR == response.getStatusLine().getStatusCode()) {
-            LOGGER.warn("GETTING Object information ended with code " + response.getStatusLine().getStatusCode());
-            HttpEntity entity = response.getEntity();
-            if (entity != null) {
-                String result = EntityUtils.toString(response.getEntity());
-                if (result != null && !result.isEmpty()) {
-                    JSONObject object = new JSONObject(result);
-                    LOGGER.warn("GET Object information ended with code " + response.getStatusLine().getStatusCode() + " and reason is " + object.get("message"));
-                    throw new IOException("GET Object information ended with code " + response.getStatusLine().getStatusCode() + " and reason is " + object.get("message"));
+            } else if (HTTP_INTERNAL_ERROR == response.getStatusLine().getStatusCode()) {
+                LOGGER.warn("GETTING Object information ended with code " + response.getStatusLine().getStatusCode());
+                HttpEntity entity = response.getEntity();
+                if (entity != null) {
+                    String result = EntityUtils.toString(response.getEntity());
+                    if (result != null && !result.isEmpty()) {
+                        JSONObject object = new JSONObject(result);
+                        LOGGER.warn("GET Object information ended with code " + response.getStatusLine().getStatusCode() + " and reason is " + object.get("message"));
+                        throw new IOException("GET Object information ended with code " + response.getStatusLine().getStatusCode() + " and reason is " + object.get("message"));
+                    } else {
+                        LOGGER.warn("GET Object information ended with code " + response.getStatusLine().getStatusCode() + " and the result is null");
+                        throw new IOException("GET Object information ended with code " + response.getStatusLine().getStatusCode() + " and the result is null");
+                    }
                 } else {
-                    LOGGER.warn("GET Object information ended with code " + response.getStatusLine().getStatusCode() + " and the result is null");
-                    throw new IOException("GET Object information ended with code " + response.getStatusLine().getStatusCode() + " and the result is null");
+                    LOGGER.warn("GET Object information ended with code " + response.getStatusLine().getStatusCode() + " and the entity is null");
+                    throw new IOException("GET Object information ended with code " + response.getStatusLine().getStatusCode() + " and the entity is null");
                 }
             } else {
-                LOGGER.warn("GET Object information ended with code " + response.getStatusLine().getStatusCode() + " and the entity is null");
-                throw new IOException("GET Object information ended with code " + response.getStatusLine().getStatusCode() + " and the entity is null");
+                LOGGER.warn("GETTING Object information ended with code " + response.getStatusLine().getStatusCode());
+                throw new IOException("GETTING Object information ended with code " + response.getStatusLine().getStatusCode());
             }
-        } else {
-            LOGGER.warn("GETTING Object information ended with code " + response.getStatusLine().getStatusCode());
-            throw new IOException("GETTING Object information ended with code " + response.getStatusLine().getStatusCode());
+        } finally {
+            EntityUtils.consumeQuietly(response.getEntity());
         }
     }
 
@@ -139,7 +142,7 @@ public class K7ObjectInfo {
                 URLEncoder.encode("\"" + pid + "\"", StandardCharsets.UTF_8.name()) + "&fl=model";
         LOGGER.info("Trying to get Model info " + modelInfoUrl);
 
-        HttpClient httpClient = HttpClients.createDefault();
+        HttpClient httpClient = HttpClientManager.getClient(instance);
         HttpGet httpGet = new HttpGet(modelInfoUrl);
 
         httpGet.setHeader(new BasicHeader("Keep-Alive", "timeout=600, max=1000"));
@@ -148,41 +151,45 @@ public class K7ObjectInfo {
         httpGet.setHeader(new BasicHeader("Accept-Language", "cs,en;q=0.9,de;q=0.8,cs-CZ;q=0.7,sk;q=0.6"));
 
         HttpResponse response = httpClient.execute(httpGet);
-        if (HTTP_OK == response.getStatusLine().getStatusCode()) {
-            LOGGER.debug("Http response Model info success");
-            HttpEntity entity = response.getEntity();
-            if (entity != null) {
-                String result = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
-                if (result != null && !result.isEmpty()) {
-                    return getModelInfo(result);
+        try {
+            if (HTTP_OK == response.getStatusLine().getStatusCode()) {
+                LOGGER.debug("Http response Model info success");
+                HttpEntity entity = response.getEntity();
+                if (entity != null) {
+                    String result = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+                    if (result != null && !result.isEmpty()) {
+                        return getModelInfo(result);
+                    } else {
+                        LOGGER.warn("GET Model info but result is null or empty");
+                        throw new IOException("GET Model info but result is null or empty");
+                    }
                 } else {
-                    LOGGER.warn("GET Model info but result is null or empty");
-                    throw new IOException("GET Model info but result is null or empty");
+                    LOGGER.warn("GET Model info but entity is null");
+                    throw new IOException("GET Model info but entity is null");
                 }
-            } else {
-                LOGGER.warn("GET Model info but entity is null");
-                throw new IOException("GET Model info but entity is null");
-            }
-        } else if (HTTP_INTERNAL_ERROR == response.getStatusLine().getStatusCode()) {
-            LOGGER.warn("GETTING Model info ended with code " + response.getStatusLine().getStatusCode());
-            HttpEntity entity = response.getEntity();
-            if (entity != null) {
-                String result = EntityUtils.toString(response.getEntity());
-                if (result != null && !result.isEmpty()) {
-                    JSONObject object = new JSONObject(result);
-                    LOGGER.warn("GET Model info ended with code " + response.getStatusLine().getStatusCode() + " and reason is " + object.get("message"));
-                    throw new IOException("GET Model info ended with code " + response.getStatusLine().getStatusCode() + " and reason is " + object.get("message"));
+            } else if (HTTP_INTERNAL_ERROR == response.getStatusLine().getStatusCode()) {
+                LOGGER.warn("GETTING Model info ended with code " + response.getStatusLine().getStatusCode());
+                HttpEntity entity = response.getEntity();
+                if (entity != null) {
+                    String result = EntityUtils.toString(response.getEntity());
+                    if (result != null && !result.isEmpty()) {
+                        JSONObject object = new JSONObject(result);
+                        LOGGER.warn("GET Model info ended with code " + response.getStatusLine().getStatusCode() + " and reason is " + object.get("message"));
+                        throw new IOException("GET Model info ended with code " + response.getStatusLine().getStatusCode() + " and reason is " + object.get("message"));
+                    } else {
+                        LOGGER.warn("GET Model info ended with code " + response.getStatusLine().getStatusCode() + " and the result is null");
+                        throw new IOException("GET Model info ended with code " + response.getStatusLine().getStatusCode() + " and the result is null");
+                    }
                 } else {
-                    LOGGER.warn("GET Model info ended with code " + response.getStatusLine().getStatusCode() + " and the result is null");
-                    throw new IOException("GET Model info ended with code " + response.getStatusLine().getStatusCode() + " and the result is null");
+                    LOGGER.warn("GET Model info ended with code " + response.getStatusLine().getStatusCode() + " and the entity is null");
+                    throw new IOException("GET Model info ended with code " + response.getStatusLine().getStatusCode() + " and the entity is null");
                 }
             } else {
-                LOGGER.warn("GET Model info ended with code " + response.getStatusLine().getStatusCode() + " and the entity is null");
-                throw new IOException("GET Model info ended with code " + response.getStatusLine().getStatusCode() + " and the entity is null");
+                LOGGER.warn("GETTING Model info ended with code " + response.getStatusLine().getStatusCode());
+                throw new IOException("GETTING Model info ended with code " + response.getStatusLine().getStatusCode());
             }
-        } else {
-            LOGGER.warn("GETTING Model info ended with code " + response.getStatusLine().getStatusCode());
-            throw new IOException("GETTING Model info ended with code " + response.getStatusLine().getStatusCode());
+        } finally {
+            EntityUtils.consumeQuietly(response.getEntity());
         }
     }
 
@@ -197,7 +204,7 @@ public class K7ObjectInfo {
                 URLEncoder.encode("\"" + pid + "\"", StandardCharsets.UTF_8.name()) + "&fl=pid";
         LOGGER.info("Trying to get children info " + childrenInfoUrl);
 
-        HttpClient httpClient = HttpClients.createDefault();
+        HttpClient httpClient = HttpClientManager.getClient(instance);
         HttpGet httpGet = new HttpGet(childrenInfoUrl);
 
         httpGet.setHeader(new BasicHeader("Keep-Alive", "timeout=600, max=1000"));
@@ -206,41 +213,45 @@ public class K7ObjectInfo {
         httpGet.setHeader(new BasicHeader("Accept-Language", "cs,en;q=0.9,de;q=0.8,cs-CZ;q=0.7,sk;q=0.6"));
 
         HttpResponse response = httpClient.execute(httpGet);
-        if (HTTP_OK == response.getStatusLine().getStatusCode()) {
-            LOGGER.debug("Http response Model info success");
-            HttpEntity entity = response.getEntity();
-            if (entity != null) {
-                String result = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
-                if (result != null && !result.isEmpty()) {
-                    return getChildrenPids(result);
+        try {
+            if (HTTP_OK == response.getStatusLine().getStatusCode()) {
+                LOGGER.debug("Http response Model info success");
+                HttpEntity entity = response.getEntity();
+                if (entity != null) {
+                    String result = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+                    if (result != null && !result.isEmpty()) {
+                        return getChildrenPids(result);
+                    } else {
+                        LOGGER.warn("GET Model info but result is null or empty");
+                        throw new IOException("GET Model info but result is null or empty");
+                    }
                 } else {
-                    LOGGER.warn("GET Model info but result is null or empty");
-                    throw new IOException("GET Model info but result is null or empty");
+                    LOGGER.warn("GET Children info but entity is null");
+                    throw new IOException("GET Children info but entity is null");
                 }
-            } else {
-                LOGGER.warn("GET Children info but entity is null");
-                throw new IOException("GET Children info but entity is null");
-            }
-        } else if (HTTP_INTERNAL_ERROR == response.getStatusLine().getStatusCode()) {
-            LOGGER.warn("GETTING Children info ended with code " + response.getStatusLine().getStatusCode());
-            HttpEntity entity = response.getEntity();
-            if (entity != null) {
-                String result = EntityUtils.toString(response.getEntity());
-                if (result != null && !result.isEmpty()) {
-                    JSONObject object = new JSONObject(result);
-                    LOGGER.warn("GET Children info ended with code " + response.getStatusLine().getStatusCode() + " and reason is " + object.get("message"));
-                    throw new IOException("GET Children info ended with code " + response.getStatusLine().getStatusCode() + " and reason is " + object.get("message"));
+            } else if (HTTP_INTERNAL_ERROR == response.getStatusLine().getStatusCode()) {
+                LOGGER.warn("GETTING Children info ended with code " + response.getStatusLine().getStatusCode());
+                HttpEntity entity = response.getEntity();
+                if (entity != null) {
+                    String result = EntityUtils.toString(response.getEntity());
+                    if (result != null && !result.isEmpty()) {
+                        JSONObject object = new JSONObject(result);
+                        LOGGER.warn("GET Children info ended with code " + response.getStatusLine().getStatusCode() + " and reason is " + object.get("message"));
+                        throw new IOException("GET Children info ended with code " + response.getStatusLine().getStatusCode() + " and reason is " + object.get("message"));
+                    } else {
+                        LOGGER.warn("GET Children info ended with code " + response.getStatusLine().getStatusCode() + " and the result is null");
+                        throw new IOException("GET Children info ended with code " + response.getStatusLine().getStatusCode() + " and the result is null");
+                    }
                 } else {
-                    LOGGER.warn("GET Children info ended with code " + response.getStatusLine().getStatusCode() + " and the result is null");
-                    throw new IOException("GET Children info ended with code " + response.getStatusLine().getStatusCode() + " and the result is null");
+                    LOGGER.warn("GET Children info ended with code " + response.getStatusLine().getStatusCode() + " and the entity is null");
+                    throw new IOException("GET Children info ended with code " + response.getStatusLine().getStatusCode() + " and the entity is null");
                 }
             } else {
-                LOGGER.warn("GET Children info ended with code " + response.getStatusLine().getStatusCode() + " and the entity is null");
-                throw new IOException("GET Children info ended with code " + response.getStatusLine().getStatusCode() + " and the entity is null");
+                LOGGER.warn("GETTING Children info ended with code " + response.getStatusLine().getStatusCode());
+                throw new IOException("GETTING Children info ended with code " + response.getStatusLine().getStatusCode());
             }
-        } else {
-            LOGGER.warn("GETTING Children info ended with code " + response.getStatusLine().getStatusCode());
-            throw new IOException("GETTING Children info ended with code " + response.getStatusLine().getStatusCode());
+        } finally {
+            EntityUtils.consumeQuietly(response.getEntity());
         }
     }
 
@@ -14,7 +14,6 @@ import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.util.EntityUtils;
 import org.apache.logging.log4j.LogManager;
@@ -53,7 +52,7 @@ public class K7Uploader {
         String urlUploadStream = getUrlUploadStream(instance, pid, stream);
         LOGGER.info(String.format("Trying to upload %s to %s.", stream, urlUploadStream));
 
-        HttpClient httpClient = HttpClients.createDefault();
+        HttpClient httpClient = HttpClientManager.getClient(instance);
         HttpPut httpPut = new HttpPut(urlUploadStream);
 
         httpPut.setHeader(new BasicHeader("Keep-Alive", "timeout=600, max=1000"));
@@ -70,7 +69,11 @@ public class K7Uploader {
         httpPut.setEntity(body);
 
         HttpResponse response = httpClient.execute(httpPut);
-        operateResponse(response, stream);
+        try {
+            operateResponse(response, stream);
+        } finally {
+            EntityUtils.consumeQuietly(response.getEntity());
+        }
     }
 
     private String getUrlUploadStream(KrameriusOptions.KrameriusInstance instance, String pid, String stream) {
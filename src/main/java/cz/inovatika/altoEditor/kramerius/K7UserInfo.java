@@ -9,7 +9,6 @@ import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.util.EntityUtils;
 import org.apache.logging.log4j.LogManager;
@@ -34,7 +33,7 @@ public class K7UserInfo {
 
         LOGGER.debug("Trying to get user info " + userInfoUrl);
 
-        HttpClient httpClient = HttpClients.createDefault();
+        HttpClient httpClient = HttpClientManager.getKeycloakClient();
         HttpGet httpGet = new HttpGet(userInfoUrl);
         httpGet.setHeader(new BasicHeader("Keep-Alive", "timeout=600, max=1000"));
         if (token != null && !token.isEmpty()) {
@@ -42,39 +41,43 @@ public class K7UserInfo {
         }
         httpGet.setHeader(new BasicHeader("Connection", "Keep-Alive, Upgrade"));
         HttpResponse response = httpClient.execute(httpGet);
+        try {
 
-        if (HTTP_OK == response.getStatusLine().getStatusCode()) {
-            HttpEntity entity = response.getEntity();
-            if (entity != null) {
-                String result = EntityUtils.toString(response.getEntity());
-                if (result.startsWith("{")) {
-                    JSONObject jsonObject = new JSONObject(result);
-                    String username = jsonObject.optString("uid");
-                    JSONArray roleJSONArray = jsonObject.getJSONArray("roles");
-                    List<String> roles = new ArrayList<>();
-                    for (int i = 0; i < roleJSONArray.length(); i++) {
-                        roles.add(roleJSONArray.getString(i));
-                    }
-                    if (username != null && !username.isEmpty()) {
-                        LOGGER.debug("Connected to Kramerius and get user info " + username);
-                        UserProfile userProfile = new UserProfile(username, token, roles);
-                        return userProfile;
+            if (HTTP_OK == response.getStatusLine().getStatusCode()) {
+                HttpEntity entity = response.getEntity();
+                if (entity != null) {
+                    String result = EntityUtils.toString(response.getEntity());
+                    if (result.startsWith("{")) {
+                        JSONObject jsonObject = new JSONObject(result);
+                        String username = jsonObject.optString("uid");
+                        JSONArray roleJSONArray = jsonObject.getJSONArray("roles");
+                        List<String> roles = new ArrayList<>();
+                        for (int i = 0; i < roleJSONArray.length(); i++) {
+                            roles.add(roleJSONArray.getString(i));
+                        }
+                        if (username != null && !username.isEmpty()) {
+                            LOGGER.debug("Connected to Kramerius and get user info " + username);
+                            UserProfile userProfile = new UserProfile(username, token, roles);
+                            return userProfile;
+                        } else {
+                            LOGGER.error("Connected to Kramerius but user info dont get");
+                        }
                     } else {
-                        LOGGER.error("Connected to Kramerius but user info dont get");
+                        LOGGER.error("Connected to Kramerius but can not found access_token");
+                        throw new IOException("Connected to Kramerius but can not found access_token");
                     }
                 } else {
-                    LOGGER.error("Connected to Kramerius but can not found access_token");
-                    throw new IOException("Connected to Kramerius but can not found access_token");
+                    LOGGER.error("Connected to Kramerius but entity is null");
+                    throw new IOException("Connected to Kramerius but entity is null");
                 }
+                LOGGER.error("Connected to Kramerius but access_token is null");
+                throw new IOException("Connected to Kramerius but access_token is null");
             } else {
-                LOGGER.error("Connected to Kramerius but entity is null");
-                throw new IOException("Connected to Kramerius but entity is null");
+                LOGGER.error("Connecing to Kramerius ended with code " + response.getStatusLine().getStatusCode());
+                throw new IOException("Connecing to Kramerius ended with code " + response.getStatusLine().getStatusCode());
             }
-            LOGGER.error("Connected to Kramerius but access_token is null");
-            throw new IOException("Connected to Kramerius but access_token is null");
-        } else {
-            LOGGER.error("Connecing to Kramerius ended with code " + response.getStatusLine().getStatusCode());
-            throw new IOException("Connecing to Kramerius ended with code " + response.getStatusLine().getStatusCode());
+        } finally {
+            EntityUtils.consumeQuietly(response.getEntity());
         }
     }
 }
@@ -1,8 +1,9 @@
 package cz.inovatika.altoEditor.models;
 
 import cz.inovatika.altoEditor.db.models.DigitalObject;
-import cz.inovatika.altoEditor.db.models.User;
 import cz.inovatika.altoEditor.editor.AltoDatastreamEditor;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Timestamp;
 
 public class DigitalObjectView {
@@ -20,7 +21,14 @@ public class DigitalObjectView {
     private Boolean lock = null;
 
 
-    public DigitalObjectView(DigitalObject digitalObject, User user) {
+    /**
+     * @param rs row of {@code digitalobject} joined with the login of its user in the column {@code userLogin}
+     */
+    public DigitalObjectView(ResultSet rs) throws SQLException {
+        this(new DigitalObject(rs), rs.getString("userLogin"));
+    }
+
+    public DigitalObjectView(DigitalObject digitalObject, String userLogin) {
         this.id = digitalObject.getId();
         this.instance = digitalObject.getInstance();
         this.pid = digitalObject.getPid();
@@ -32,7 +40,7 @@ public class DigitalObjectView {
         this.parentLabel = digitalObject.getParentLabel();
         this.lock = digitalObject.getLock();
 
-        this.userLogin = user.getLogin();
+        this.userLogin = userLogin;
     }
 
     public Integer getId() {
@@ -0,0 +1,38 @@
+package cz.inovatika.altoEditor.models;
+
+public class HttpPoolInfo {
+
+    private String instance;
+    private int leased;
+    private int pending;
+    private int available;
+    private int max;
+
+    public HttpPoolInfo(String instance, int leased, int pending, int available, int max) {
+        this.instance = instance;
+        this.leased = leased;
+        this.pending = pending;
+        this.available = available;
+        this.max = max;
+    }
+
+    public String getInstance() {
+        return instance;
+    }
+
+    public int getLeased() {
+        return leased;
+    }
+
+    public int getPending() {
+        return pending;
+    }
+
+    public int getAvailable() {
+        return available;
+    }
+
+    public int getMax() {
+        return max;
+    }
+}
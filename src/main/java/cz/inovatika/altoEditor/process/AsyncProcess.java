@@ -1,56 +1,79 @@
 package cz.inovatika.altoEditor.process;
 
 import java.util.List;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.io.IOUtils;
-import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
- * Runs an external process in own thread to handle possible process freeze.
+ * Runs an external process with a timeout to handle possible process freeze.
+ *
+ * The process is awaited in the calling thread, its output is read by a pooled thread
+ * so that no thread is created for each process.
  */
-public class AsyncProcess extends Thread {
+public class AsyncProcess {
 
     private static final Logger LOGGER = LogManager.getLogger(AsyncProcess.class.getName());
+
+    // threads are reused by the following processes, at most one thread per running process
+    private static final AtomicInteger READER_COUNTER = new AtomicInteger();
+    private static final ExecutorService OUTPUT_READERS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "ProcessOutput-" + READER_COUNTER.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private final List<String> cmdLine;
-    private AtomicReference<Process> refProcess = new AtomicReference<Process>();
-    private AtomicBoolean done = new AtomicBoolean();
-    private int exitCode;
+    private final int outputLimit;
+    private int exitCode = -1;
     private OutputConsumer outputConsumer;
 
-    public AsyncProcess(List<String> cmdLine) {
+    public AsyncProcess(List<String> cmdLine, int outputLimit) {
         this.cmdLine = cmdLine;
+        this.outputLimit = outputLimit;
     }
 
-    @Override
-    public void run() {
-        done.set(false);
-        outputConsumer = null;
+    /**
+     * Runs the process, it is killed when it does not finish in the timeout or when the thread is interrupted.
+     */
+    public void run(long timeout) throws InterruptedException {
         exitCode = -1;
+        outputConsumer = null;
         ProcessBuilder pb = new ProcessBuilder(cmdLine);
         // for now redirect outputs into a single stream to eliminate
         // the need to run multiple threads to read each output
         pb.redirectErrorStream(true);
+        Process process = null;
+        Future<?> reader = null;
         try {
-            Process process = pb.start();
-            refProcess.set(process);
-            outputConsumer = new OutputConsumer(process.getInputStream());
-            outputConsumer.start();
-            exitCode = process.waitFor();
-            LOGGER.debug("Done " + cmdLine);
+            process = pb.start();
+            outputConsumer = new OutputConsumer(process.getInputStream(), outputLimit);
+            reader = OUTPUT_READERS.submit(outputConsumer);
+            if (process.waitFor(timeout, TimeUnit.MILLISECONDS)) {
+                exitCode = process.exitValue();
+                LOGGER.debug("Done " + cmdLine);
+            } else {
+                LOGGER.warn("Kill after " + timeout + " ms, " + cmdLine);
+            }
+        } catch (InterruptedException ex) {
+            LOGGER.warn("Kill interrupted " + cmdLine);
+            throw ex;
         } catch (Exception ex) {
             LOGGER.error(cmdLine.toString(), ex);
         } finally {
-            done.set(true);
+            if (process != null) {
+                kill(process, reader);
+            }
         }
     }
 
-    public boolean isDone() {
-        return done.get();
-    }
-
     public int getExitCode() {
         return exitCode;
     }
@@ -59,21 +82,23 @@ public class AsyncProcess extends Thread {
         return outputConsumer != null ? outputConsumer.getOutput() : "";
     }
 
-    public void kill() {
-        Level level = isDone() ? Level.DEBUG : Level.WARN;
-        LOGGER.log(level, "Kill isDone: " + isDone() + ", " + cmdLine);
-        Process process = refProcess.getAndSet(null);
-        if (process != null) {
-            process.destroy();
-            IOUtils.closeQuietly(process.getInputStream());
-            IOUtils.closeQuietly(process.getErrorStream());
-            IOUtils.closeQuietly(process.getOutputStream());
-            done.set(true);
+    private void kill(Process process, Future<?> reader) {
+        if (process.isAlive()) {
+            process.destroyForcibly();
+        }
+        IOUtils.closeQuietly(process.getOutputStream());
+        if (reader != null) {
             try {
-                outputConsumer.join();
+                // the output of a finished process is read to the end, a killed process closes it
+                reader.get(5, TimeUnit.SECONDS);
+            } catch (TimeoutException | ExecutionException ex) {
+                LOGGER.warn("Reading output failed, " + cmdLine + ": " + ex);
+                reader.cancel(true);
             } catch (InterruptedException ex) {
-                LOGGER.error(ex);
+                Thread.currentThread().interrupt();
+                reader.cancel(true);
             }
         }
+        IOUtils.closeQuietly(process.getInputStream());
     }
 }
@@ -14,28 +14,40 @@ public class ExternalProcess implements Runnable {
     private static final Logger LOGGER = LogManager.getLogger(ExternalProcess.class.getName());
     public static final long DEFAULT_TIMEOUT = 2 * 60 * 1000;
     public static final int DEFAULT_RETRY_ATTEMPTS = 0;
+    public static final long DEFAULT_RETRY_DELAY = 5 * 1000;
+    public static final int DEFAULT_OUTPUT_LIMIT = 64 * 1024;
 
     private AsyncProcess asyncProcess;
 
     protected ExternalProcess() {
     }
 
+    /**
+     * Runs the command until it succeeds, a failed run is repeated {@link #getRetryAttempts()} times
+     * and the delay between attempts doubles after each failure.
+     */
     @Override
     public void run() {
         List<String> cmdLine = buildCmdLine();
         try {
-            int numberOfAttemps = 1;
+            int numberOfAttemps = 1 + Math.max(0, getRetryAttempts());
+            long delay = getRetryDelay();
             for (int i = 0; i < numberOfAttemps; i++) {
+                if (i > 0) {
+                    Thread.sleep(delay);
+                    delay *= 2;
+                    prepareRetry();
+                }
                 runCmdLine(cmdLine);
                 if (isOk()) {
                     return ;
                 }
-                LOGGER.warn("{0}. failure, \n{1}, \nCmd: {2}",
-                        new Object[]{i + 1, getFullOutput(), cmdLine});
+                LOGGER.warn((i + 1) + ". failure, \n" + getFullOutput() + ", \nCmd: " + cmdLine);
             }
         } catch (IOException ex) {
             throw new IllegalStateException(ex);
         } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
             throw new IllegalStateException(ex);
         }
     }
@@ -51,15 +63,18 @@ public class ExternalProcess implements Runnable {
             debug.append(arg).append(" ");
         }
         LOGGER.debug("run: " + debug);
-        asyncProcess = new AsyncProcess(cmdLine);
-        asyncProcess.start();
-        long timeout = getTimeout();
-        asyncProcess.join(timeout);
-        asyncProcess.kill();
+        asyncProcess = new AsyncProcess(cmdLine, getOutputLimit());
+        asyncProcess.run(getTimeout());
         LOGGER.debug(getFullOutput());
         return asyncProcess.getExitCode();
     }
 
+    /**
+     * Called before the command is run again, removes what the failed attempt left behind.
+     */
+    protected void prepareRetry() throws IOException {
+    }
+
     public String getOut() {
         return asyncProcess == null ? null: asyncProcess.getOut();
     }
@@ -84,4 +99,19 @@ public class ExternalProcess implements Runnable {
         return DEFAULT_TIMEOUT;
     }
 
+    public int getRetryAttempts() {
+        return DEFAULT_RETRY_ATTEMPTS;
+    }
+
+    public long getRetryDelay() {
+        return DEFAULT_RETRY_DELAY;
+    }
+
+    /**
+     * @return number of the last characters of the output that are kept
+     */
+    public int getOutputLimit() {
+        return DEFAULT_OUTPUT_LIMIT;
+    }
+
 }
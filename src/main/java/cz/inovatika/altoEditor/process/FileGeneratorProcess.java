@@ -3,16 +3,26 @@ package cz.inovatika.altoEditor.process;
 import cz.inovatika.altoEditor.db.Manager;
 import cz.inovatika.altoEditor.db.models.Batch;
 import cz.inovatika.altoEditor.editor.AltoDatastreamEditor;
+import cz.inovatika.altoEditor.kramerius.K7Authenticator;
 import cz.inovatika.altoEditor.kramerius.K7Downloader;
+import cz.inovatika.altoEditor.kramerius.KrameriusOptions;
 import cz.inovatika.altoEditor.storage.akubra.AkubraStorage;
 import cz.inovatika.altoEditor.user.UserProfile;
+import cz.inovatika.altoEditor.utils.Config;
 import cz.inovatika.altoEditor.utils.Const;
 import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import static cz.inovatika.altoEditor.kramerius.KrameriusOptions.findKrameriusInstance;
 import static cz.inovatika.altoEditor.utils.FileUtils.deleteFolder;
 
 public class FileGeneratorProcess implements Runnable {
@@ -21,6 +31,14 @@ public class FileGeneratorProcess implements Runnable {
 
     private Batch batch = null;
     private UserProfile userProfile = null;
+    private boolean claimed = false;
+    private boolean deferred = false;
+    private volatile boolean canceled = false;
+    private volatile boolean paused = false;
+    private volatile boolean stopping = false;
+    // guarded by this
+    private Thread runner = null;
+    private PagePipeline pipeline = null;
 
     public FileGeneratorProcess(Batch batch, UserProfile userProfile) {
         this.batch = batch;
@@ -31,6 +49,62 @@ public class FileGeneratorProcess implements Runnable {
         return batch;
     }
 
+    /**
+     * @return true if the batch was planned again because there was not enough scratch space
+     */
+    public boolean isDeferred() {
+        return deferred;
+    }
+
+    /**
+     * Stops the batch as soon as possible: downloads are interrupted, running OCR processes are killed
+     * and the scratch folder of the batch is removed. The state of the batch is set by the caller.
+     */
+    public void cancel() {
+        canceled = true;
+        synchronized (this) {
+            if (runner != null) {
+                runner.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Stops the batch at a page boundary and plans it again, the next run continues with the pages
+     * that were not saved. Pages that are being generated or saved are finished first.
+     */
+    public void pause() {
+        paused = true;
+        synchronized (this) {
+            if (pipeline != null) {
+                pipeline.stop();
+            }
+        }
+    }
+
+    /**
+     * Marks the batch as stopped by the shutdown of the dispatcher. The interrupt that follows is not
+     * a failure of the batch, the batch is planned again and the next run continues with the pages that were not saved.
+     */
+    public void stopping() {
+        stopping = true;
+    }
+
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * @return true while the batch is processed by a worker
+     */
+    public synchronized boolean isRunning() {
+        return runner != null;
+    }
+
     public static void stopRunningBatches() throws SQLException {
         Manager manager = new Manager();
         List<Batch> runningBatches = manager.findRunningBatches();
@@ -51,21 +125,54 @@ public class FileGeneratorProcess implements Runnable {
         }
     }
 
-//    public static void resumeAll(ProcessDispatcher dispatcher) throws SQLException {
-//        Manager manager = new Manager();
-//        List<Batch> batches2schedule = manager.findWaitingBatches();
-//        for (Batch batch : batches2schedule) {
-//            try {
-//                FileGeneratorProcess resume = FileGeneratorProcess.resume(batch);
-//                dispatcher.addPeroProcess(resume);
-//            } catch (Exception ex) {
-//
-//            }
-//        }
-//    }
+    /**
+     * Plans again batches that were running when the application stopped.
+     * In the cluster only batches of this node are touched, the others are recovered when their lease expires.
+     */
+    public static void requeueRunningBatches() throws SQLException {
+        int count;
+        if (Config.isClusterEnabled()) {
+            count = Manager.requeueNodeBatches(Config.getClusterNode(), Config.getProcessorMaxAttempts());
+        } else {
+            count = Manager.requeueRunningBatches(Config.getProcessorMaxAttempts());
+        }
+        if (count > 0) {
+            LOGGER.info(count + " interrupted batches planned again.");
+        }
+    }
+
+    /**
+     * Plans again batches of nodes that stopped renewing their leases.
+     */
+    public static void requeueExpiredBatches() throws SQLException {
+        int count = Manager.requeueExpiredBatches(Config.getProcessorMaxAttempts());
+        if (count > 0) {
+            LOGGER.info(count + " batches with expired lease planned again.");
+        }
+    }
+
+    /**
+     * Schedules all planned batches from the database that the dispatcher does not know yet.
+     */
+    public static void resumeAll(ProcessDispatcher dispatcher) throws SQLException {
+        List<Batch> batches2schedule = Manager.findWaitingBatches();
+        for (Batch batch : batches2schedule) {
+            try {
+                if (!dispatcher.isScheduled(batch)) {
+                    FileGeneratorProcess resume = FileGeneratorProcess.resume(batch);
+                    dispatcher.addPeroProcess(resume);
+                }
+            } catch (Exception ex) {
+                LOGGER.error("Batch " + batch.getId() + ": impossible to resume: " + ex.getMessage());
+            }
+        }
+    }
 
-    private static FileGeneratorProcess resume(Batch batch, UserProfile userProfile) throws SQLException {
-        FileGeneratorProcess process = FileGeneratorProcess.prepare(batch, userProfile);
+    /**
+     * Resumed batch has no user, Kramerius is accessed with the account of the instance.
+     */
+    private static FileGeneratorProcess resume(Batch batch) {
+        FileGeneratorProcess process = FileGeneratorProcess.prepare(batch, null);
         return process;
     }
 
@@ -74,12 +181,33 @@ public class FileGeneratorProcess implements Runnable {
         return process;
     }
 
+    /**
+     * Process of a batch that has been already claimed by this node.
+     */
+    public static FileGeneratorProcess prepareClaimed(Batch batch) {
+        FileGeneratorProcess process = new FileGeneratorProcess(batch, null);
+        process.claimed = true;
+        return process;
+    }
+
     @Override
     public void run() {
+        synchronized (this) {
+            runner = Thread.currentThread();
+        }
         try {
             start();
         } catch (SQLException ex) {
             LOGGER.error("Batch " + this.getBatch().getId() + ": " + ex.getMessage());
+        } finally {
+            synchronized (this) {
+                runner = null;
+                pipeline = null;
+            }
+            if (canceled) {
+                // the interrupt was meant for this batch, not for the worker
+                Thread.interrupted();
+            }
         }
     }
 
@@ -87,58 +215,272 @@ public class FileGeneratorProcess implements Runnable {
         if (batch == null) {
             throw new IllegalStateException("Batch is null");
         }
-        if (userProfile == null) {
-            throw new IllegalStateException("UserProfile is null");
+        if (canceled) {
+            return batch;
+        }
+        if (!claimed) {
+            Batch claimedBatch = Manager.claimBatch(batch, Config.getClusterNode(), Config.getClusterLease());
+            if (claimedBatch == null) {
+                LOGGER.info("Batch " + batch.getId() + " is not planned anymore, skipped.");
+                return batch;
+            }
+            batch = claimedBatch;
+            claimed = true;
         }
+        ScratchSpace.Reservation reservation = null;
+        File folder = null;
         try {
-            batch = Manager.startWaitingBatch(batch);
+            if (userProfile == null) {
+                userProfile = getInstanceUser(batch.getInstance());
+            }
 
             K7Downloader downloader = new K7Downloader();
             batch = Manager.setSubStateBatch(batch, Const.BATCH_SUBSTATE_DOWNLOADING);
-            File folder = downloader.saveImage(batch.getPid(), batch.getInstance(), userProfile);
-            batch = Manager.updateInfoBatch(batch, folder);
+            List<String> pagePids = downloader.getPagePids(batch.getPid(), batch.getInstance(), userProfile);
+            batch = Manager.updateInfoBatch(batch, pagePids.size());
+
+            // pages finished by a previous attempt
+            Map<String, String> pageStates = new ConcurrentHashMap<>(Manager.getBatchPageStates(batch));
+            List<String> pendingPids = new ArrayList<>();
+            for (String pagePid : pagePids) {
+                if (!Const.BATCH_PAGE_STATE_SAVED.equals(pageStates.get(pagePid))) {
+                    pendingPids.add(pagePid);
+                }
+            }
+            if (pendingPids.size() < pagePids.size()) {
+                LOGGER.info("Batch " + batch.getId() + ": " + (pagePids.size() - pendingPids.size()) + " of " + pagePids.size() + " pages saved by a previous attempt, skipped.");
+            }
+
             PeroOperator operator = new PeroOperator();
-            batch = Manager.setSubStateBatch(batch, Const.BATCH_SUBSTATE_GENERATING);
-            PeroOperator.Result result = operator.generate(folder);
-            if (result.getException() != null) {
-                batch = Manager.finishedWithError(batch, result.getException());
-                throw result.getException();
-            }
-            if (Const.BATCH_TYPE_SINGLE.equals(batch.getType())) {
-                File altoFile = getAltoFile(folder);
-                if (altoFile != null) {
-                    batch = Manager.setSubStateBatch(batch, Const.BATCH_SUBSTATE_SAVING);
-                    AkubraStorage storage = AkubraStorage.getInstance();
-                    AkubraStorage.AkubraObject akubraObject = storage.find(batch.getPid());
-                    AltoDatastreamEditor.importAlto(akubraObject, altoFile.toURI(), "ALTO updated by PERO.", AltoDatastreamEditor.ALTO_ID + ".1");
-                    akubraObject.flush();
-                    deleteFolder(folder);
-                    if (batch.getObjectId() == null || batch.getObjectId() == 0) {
-                        UserProfile tmpUser = new UserProfile(Const.USER_PERO, userProfile.getToken());
-                        Manager.createDigitalObject(tmpUser, batch.getPid(), AltoDatastreamEditor.ALTO_ID + ".1", batch.getInstance(), Const.DIGITAL_OBJECT_STATE_GENERATED);
-                    } else {
-                        Manager.updateDigitalObjectWithState(batch.getObjectId(), Const.DIGITAL_OBJECT_STATE_GENERATED);
-                    }
-                    batch = Manager.finishedSuccesfully(batch);
+            boolean single = Const.BATCH_TYPE_SINGLE.equals(batch.getType());
+            int ocrBatchSize = operator.isApiMode() ? Config.getProcessorPeroBatchSize() : Config.getProcessorPeroParallel();
+
+            reservation = ScratchSpace.getInstance().reserve(batch, getScratchPages(pendingPids.size(), ocrBatchSize));
+            if (reservation == null) {
+                LOGGER.info("Batch " + batch.getId() + ": not enough scratch space, deferred.");
+                deferred = true;
+                batch = Manager.deferBatch(batch, "Waiting for scratch space.");
+                return batch;
+            }
+            folder = downloader.prepareFolder(reservation.getRoot(), batch.getPid(), pagePids);
+            File batchFolder = folder;
+            String name = "Batch-" + batch.getId();
+            String instanceId = batch.getInstance();
+            PagePipeline.PageSource source = listener -> downloader.saveImages(batchFolder, pendingPids, instanceId, userProfile,
+                    (pid, image, success, done, failed, total) -> {
+                        if (success && pageStates.putIfAbsent(pid, Const.BATCH_PAGE_STATE_DOWNLOADED) == null) {
+                            updatePageStates(Collections.singletonList(pid), Const.BATCH_PAGE_STATE_DOWNLOADED);
+                        }
+                        listener.pageFinished(pid, image, success, done, failed, total);
+                    });
+            if (single) {
+                if (!pendingPids.isEmpty()) {
+                    PagePipeline pipeline = new PagePipeline(name, pendingPids.size(), Config.getPipelineQueueSize(), ocrBatchSize,
+                            pages -> generatePages(operator, pages, pageStates),
+                            page -> {
+                                savePage(page);
+                                updatePageStates(Collections.singletonList(page.getPid()), Const.BATCH_PAGE_STATE_SAVED);
+                            },
+                            new PipelineProgressListener(batch));
+                    setPipeline(pipeline);
+                    pipeline.run(source);
+                }
+
+                deleteFolder(folder);
+                if (batch.getObjectId() == null || batch.getObjectId() == 0) {
+                    UserProfile tmpUser = new UserProfile(Const.USER_PERO, userProfile.getToken());
+                    Manager.createDigitalObject(tmpUser, batch.getPid(), AltoDatastreamEditor.ALTO_ID + ".1", batch.getInstance(), Const.DIGITAL_OBJECT_STATE_GENERATED);
                 } else {
-                    batch = Manager.finishedWithError(batch, new Exception("Alto file is missing!"));
+                    Manager.updateDigitalObjectWithState(batch.getObjectId(), Const.DIGITAL_OBJECT_STATE_GENERATED);
+                }
+            } else if (!pendingPids.isEmpty()) {
+                try (PageSaver saver = new PageSaver(name, batch, instanceId, userProfile, Config.getProcessorSaveThreads(), Config.getProcessorSaveCommitSize())) {
+                    PagePipeline pipeline = new PagePipeline(name, pendingPids.size(), Config.getPipelineQueueSize(), ocrBatchSize,
+                            pages -> generatePages(operator, pages, pageStates),
+                            Config.getProcessorSaveThreads(), saver,
+                            new PipelineProgressListener(batch));
+                    setPipeline(pipeline);
+                    try {
+                        pipeline.run(source);
+                    } catch (Exception ex) {
+                        // rows of the pages that were saved are written even if other pages failed
+                        try {
+                            saver.commit();
+                        } catch (SQLException commitEx) {
+                            LOGGER.error(name + ": unable to write saved pages: " + commitEx.getMessage());
+                        }
+                        throw ex;
+                    }
+                    saver.commit();
                 }
+                deleteFolder(folder);
             } else {
-                Manager.finishedSuccesfully(batch);
+                deleteFolder(folder);
             }
+            batch = Manager.finishedSuccesfully(batch);
             return batch;
         } catch (Throwable t) {
+            if (canceled || paused || stopping) {
+                // the interrupt has stopped the work, the state of the batch must be still written
+                Thread.interrupted();
+            }
+            if (canceled) {
+                LOGGER.info("Batch " + batch.getId() + ": canceled.");
+                if (folder != null) {
+                    deleteFolder(folder);
+                }
+                return Manager.finishedCanceled(batch);
+            }
+            if (paused) {
+                // downloaded and generated pages stay in the folder for the next run
+                LOGGER.info("Batch " + batch.getId() + ": paused for a batch with higher priority.");
+                return Manager.deferBatch(batch, "Paused for a batch with higher priority: " + t.getMessage());
+            }
+            if (stopping) {
+                // downloaded and generated pages stay in the folder for the next run
+                LOGGER.info("Batch " + batch.getId() + ": stopped with the application, planned again.");
+                try {
+                    return Manager.deferBatch(batch, "Application has been stopped.");
+                } finally {
+                    // the worker is being shut down
+                    Thread.currentThread().interrupt();
+                }
+            }
             t.printStackTrace();
+            Integer attempts = batch.getAttempts();
+            if (attempts != null && attempts < Config.getProcessorMaxAttempts() && !(t instanceof InterruptedException || t instanceof InterruptedIOException)) {
+                LOGGER.warn("Batch " + batch.getId() + ": attempt " + attempts + " failed, planned again: " + t.getMessage());
+                return Manager.retryBatch(batch, t);
+            }
             return Manager.finishedWithError(batch, t);
+        } finally {
+            if (reservation != null) {
+                ScratchSpace.getInstance().release(reservation);
+            }
+        }
+    }
+
+    /**
+     * A pause requested before the pipeline started stops the pipeline at once.
+     */
+    private synchronized void setPipeline(PagePipeline pipeline) {
+        this.pipeline = pipeline;
+        if (paused) {
+            pipeline.stop();
+        }
+    }
+
+    /**
+     * Pages of a batch are deleted once they are saved, so the batch holds at most the pages
+     * that fill the queues and workers of the pipeline.
+     */
+    private int getScratchPages(int pages, int ocrBatchSize) {
+        int pipelinePages = 2 * Config.getPipelineQueueSize() + ocrBatchSize + Config.getProcessorSaveThreads()
+                + Config.getDownloadParallel(batch.getInstance());
+        return Math.min(pages, pipelinePages);
+    }
+
+    private static UserProfile getInstanceUser(String instanceId) throws IOException {
+        KrameriusOptions.KrameriusInstance instance = findKrameriusInstance(KrameriusOptions.get().getKrameriusInstances(), instanceId);
+        if (instance == null) {
+            throw new IOException(String.format("This instance \"%s\" is not configured.", instanceId));
+        }
+        K7Authenticator authenticator = new K7Authenticator(instance);
+        return new UserProfile(Const.USER_PERO, authenticator.authenticate());
+    }
+
+    /**
+     * Pages generated by a previous attempt are not sent to PERO again.
+     */
+    private void generatePages(PeroOperator operator, List<PagePipeline.Page> pages, Map<String, String> pageStates) {
+        List<File> images = new ArrayList<>();
+        List<String> generatedPids = new ArrayList<>();
+        for (PagePipeline.Page page : pages) {
+            File alto = getOutputFile(page.getImage(), ".xml");
+            if (Const.BATCH_PAGE_STATE_GENERATED.equals(pageStates.get(page.getPid())) && alto.exists() && alto.length() > 0) {
+                page.setAlto(alto);
+            } else {
+                // output of an unfinished attempt
+                alto.delete();
+                getOutputFile(page.getImage(), ".txt").delete();
+                images.add(page.getImage());
+            }
+        }
+        if (!images.isEmpty()) {
+            Map<File, PeroOperator.Result> results = operator.generatePages(images);
+            for (PagePipeline.Page page : pages) {
+                PeroOperator.Result result = results.get(page.getImage());
+                if (result == null) {
+                    continue;
+                }
+                if (result.getException() != null) {
+                    page.setError(result.getException());
+                } else {
+                    page.setAlto(result.getFile());
+                    generatedPids.add(page.getPid());
+                    pageStates.put(page.getPid(), Const.BATCH_PAGE_STATE_GENERATED);
+                }
+            }
+        }
+        updatePageStates(generatedPids, Const.BATCH_PAGE_STATE_GENERATED);
+    }
+
+    private void updatePageStates(List<String> pids, String state) {
+        try {
+            Manager.updateBatchPageStates(batch, pids, state);
+        } catch (SQLException ex) {
+            LOGGER.warn("Batch " + batch.getId() + ": unable to record state of pages: " + ex.getMessage());
         }
     }
 
-    private File getAltoFile(File folder) {
-        for (File file : folder.listFiles()) {
-            if (file.getName().endsWith(".xml")) {
-                return file;
+    private static File getOutputFile(File image, String suffix) {
+        String path = image.getAbsolutePath();
+        return new File(path.substring(0, path.lastIndexOf(".")) + suffix);
+    }
+
+    private void savePage(PagePipeline.Page page) throws Exception {
+        if (page.getAlto() == null || !page.getAlto().exists()) {
+            throw new IOException("Alto file is missing!");
+        }
+        AkubraStorage storage = AkubraStorage.getInstance();
+        AkubraStorage.AkubraObject akubraObject = storage.find(batch.getPid());
+        AltoDatastreamEditor.importAlto(akubraObject, page.getAlto().toURI(), "ALTO updated by PERO.", AltoDatastreamEditor.ALTO_ID + ".1");
+        akubraObject.flush();
+    }
+
+    /**
+     * Writes the substate and progress of the pipeline into the batch, the progress at most once per {@link #INTERVAL} ms.
+     */
+    private static final class PipelineProgressListener implements PagePipeline.ProgressListener {
+
+        private static final long INTERVAL = 2000;
+
+        private final Batch batch;
+        private String substate = Const.BATCH_SUBSTATE_DOWNLOADING;
+        private long lastUpdate = 0;
+
+        private PipelineProgressListener(Batch batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public synchronized void progressChanged(PagePipeline pipeline) {
+            String newSubstate = pipeline.getSubstate();
+            long now = System.currentTimeMillis();
+            boolean substateChanged = !newSubstate.equals(substate);
+            if (!substateChanged && now - lastUpdate < INTERVAL) {
+                return;
+            }
+            substate = newSubstate;
+            lastUpdate = now;
+            try {
+                if (substateChanged) {
+                    Manager.setSubStateBatch(batch, newSubstate);
+                }
+                Manager.updateProgressBatch(batch, pipeline.getProgressMessage());
+            } catch (SQLException ex) {
+                LOGGER.warn("Batch " + batch.getId() + ": unable to update progress: " + ex.getMessage());
             }
         }
-        return null;
     }
 }
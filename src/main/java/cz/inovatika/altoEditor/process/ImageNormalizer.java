@@ -0,0 +1,322 @@
+package cz.inovatika.altoEditor.process;
+
+import cz.inovatika.altoEditor.utils.Config;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Prepares downloaded images for PERO.
+ *
+ * Images that are not JPEG (e.g. TIFF) are converted to JPEG and images with the long edge over
+ * {@link Config#getProcessorImageMaxLongEdge()} are downscaled (off by default). Images that already fit are sent as they are.
+ * The normalized image is written next to the downloaded one as {@code <name>.norm.jpg} by a shared pool, the downloaded
+ * image is never rewritten, so a retried batch computes the same ratio again. The ALTO of a downscaled image is converted
+ * back to the coordinates of the original by {@link #rescaleAlto(File, double[])}.
+ */
+public class ImageNormalizer {
+
+    private static final Logger LOGGER = LogManager.getLogger(ImageNormalizer.class.getName());
+
+    private static final String JPEG = "jpeg";
+
+    public static final String SUFFIX = ".norm.jpg";
+
+    private static final Pattern NUMBER = Pattern.compile("-?\\d+(\\.\\d+)?");
+
+    private static class LazyHolder {
+        private static final ImageNormalizer INSTANCE = new ImageNormalizer(Config.getProcessorImageMaxLongEdge(),
+                Config.getProcessorImageQuality(), Config.getProcessorImageThreads());
+    }
+
+    public static ImageNormalizer getInstance() {
+        return LazyHolder.INSTANCE;
+    }
+
+    private final int maxLongEdge;
+    private final float quality;
+    private final ExecutorService executor;
+
+    public ImageNormalizer(int maxLongEdge, float quality, int threads) {
+        this.maxLongEdge = maxLongEdge;
+        this.quality = quality;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "ImageNormalizer-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Normalizes the images in parallel. An image that can not be normalized is kept as it is,
+     * PERO gets the original.
+     *
+     * @return normalized images of the downloaded images that had to be converted or downscaled
+     */
+    public Map<File, NormalizedImage> normalize(List<File> images) throws InterruptedException {
+        Map<File, Future<NormalizedImage>> futures = new LinkedHashMap<>();
+        for (File image : images) {
+            futures.put(image, executor.submit(() -> normalize(image)));
+        }
+        Map<File, NormalizedImage> normalized = new HashMap<>();
+        try {
+            for (Map.Entry<File, Future<NormalizedImage>> future : futures.entrySet()) {
+                try {
+                    NormalizedImage image = future.getValue().get();
+                    if (image != null) {
+                        normalized.put(future.getKey(), image);
+                    }
+                } catch (ExecutionException ex) {
+                    LOGGER.warn("Normalizing " + future.getKey().getName() + " failed, the original is used: " + ex.getCause());
+                }
+            }
+        } catch (InterruptedException ex) {
+            for (Future<NormalizedImage> future : futures.values()) {
+                future.cancel(true);
+            }
+            throw ex;
+        }
+        LOGGER.debug("Normalized " + normalized.size() + " of " + images.size() + " images.");
+        return normalized;
+    }
+
+    /**
+     * @return null if the image is sent as it is, otherwise the normalized copy of the image
+     */
+    public NormalizedImage normalize(File image) throws IOException {
+        BufferedImage result;
+        int width;
+        int height;
+        try (ImageInputStream input = ImageIO.createImageInputStream(image)) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Unsupported image format.");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                boolean jpeg = JPEG.equalsIgnoreCase(reader.getFormatName()) || "jpg".equalsIgnoreCase(reader.getFormatName());
+                width = reader.getWidth(0);
+                height = reader.getHeight(0);
+                int longEdge = Math.max(width, height);
+                boolean downscale = maxLongEdge > 0 && longEdge > maxLongEdge;
+                if (jpeg && !downscale) {
+                    return null;
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (downscale) {
+                    // every n-th pixel is read, it saves memory of big images, the rest is done by scaling
+                    int subsampling = longEdge / maxLongEdge;
+                    if (subsampling > 1) {
+                        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                    }
+                }
+                result = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+        result = toJpegCompatible(scale(result));
+        File target = getNormalizedFile(image);
+        write(result, target);
+        double[] ratio = width == result.getWidth() && height == result.getHeight()
+                ? null
+                : new double[]{(double) width / result.getWidth(), (double) height / result.getHeight()};
+        return new NormalizedImage(target, ratio);
+    }
+
+    public static File getNormalizedFile(File image) {
+        String name = image.getName();
+        return new File(image.getParentFile(), name.substring(0, name.lastIndexOf(".")) + SUFFIX);
+    }
+
+    /**
+     * Converts the coordinates of the ALTO generated from a downscaled image back to the original image.
+     *
+     * @param ratio ratios original / downscaled size (x, y)
+     */
+    public static void rescaleAlto(File altoFile, double[] ratio) throws IOException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            Document document = factory.newDocumentBuilder().parse(altoFile);
+            NodeList elements = document.getElementsByTagNameNS("*", "*");
+            for (int i = 0; i < elements.getLength(); i++) {
+                Element element = (Element) elements.item(i);
+                rescaleAttribute(element, "HPOS", ratio[0]);
+                rescaleAttribute(element, "WIDTH", ratio[0]);
+                rescaleAttribute(element, "VPOS", ratio[1]);
+                rescaleAttribute(element, "HEIGHT", ratio[1]);
+                if (element.hasAttribute("POINTS")) {
+                    element.setAttribute("POINTS", rescalePoints(element.getAttribute("POINTS"), ratio));
+                }
+            }
+            File partFile = new File(altoFile.getParentFile(), altoFile.getName() + ".scale");
+            try {
+                Transformer transformer = TransformerFactory.newInstance().newTransformer();
+                transformer.transform(new DOMSource(document), new StreamResult(partFile));
+                Files.move(partFile.toPath(), altoFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(partFile.toPath());
+            }
+        } catch (ParserConfigurationException | SAXException | TransformerException ex) {
+            throw new IOException("Rescaling ALTO " + altoFile.getName() + " failed: " + ex.getMessage(), ex);
+        }
+    }
+
+    private static void rescaleAttribute(Element element, String name, double ratio) {
+        if (element.hasAttribute(name)) {
+            element.setAttribute(name, rescaleValue(element.getAttribute(name), ratio));
+        }
+    }
+
+    private static String rescaleValue(String value, double ratio) {
+        try {
+            double scaled = Double.parseDouble(value.trim()) * ratio;
+            // the format of the value is kept, PERO writes integers
+            return value.contains(".") ? String.valueOf(scaled) : String.valueOf(Math.round(scaled));
+        } catch (NumberFormatException ex) {
+            return value;
+        }
+    }
+
+    /**
+     * Polygon points are "x,y x,y ..." or "x y x y ...".
+     */
+    private static String rescalePoints(String points, double[] ratio) {
+        StringBuilder builder = new StringBuilder();
+        Matcher matcher = NUMBER.matcher(points);
+        int end = 0;
+        int index = 0;
+        while (matcher.find()) {
+            builder.append(points, end, matcher.start());
+            builder.append(rescaleValue(matcher.group(), ratio[index++ % 2]));
+            end = matcher.end();
+        }
+        builder.append(points.substring(end));
+        return builder.toString();
+    }
+
+    private BufferedImage scale(BufferedImage image) {
+        int longEdge = Math.max(image.getWidth(), image.getHeight());
+        if (maxLongEdge <= 0 || longEdge <= maxLongEdge) {
+            return image;
+        }
+        double ratio = (double) maxLongEdge / longEdge;
+        int width = Math.max(1, (int) Math.round(image.getWidth() * ratio));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * ratio));
+        BufferedImage scaled = new BufferedImage(width, height, getTargetType(image));
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    /**
+     * JPEG does not support alpha and indexed colors, such images are converted to RGB or grayscale.
+     */
+    private static BufferedImage toJpegCompatible(BufferedImage image) {
+        int type = image.getType();
+        if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_BYTE_GRAY) {
+            return image;
+        }
+        BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(), getTargetType(image));
+        Graphics2D graphics = converted.createGraphics();
+        try {
+            graphics.drawImage(image, 0, 0, null);
+        } finally {
+            graphics.dispose();
+        }
+        return converted;
+    }
+
+    private static int getTargetType(BufferedImage image) {
+        return image.getColorModel().getNumColorComponents() == 1 ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB;
+    }
+
+    private void write(BufferedImage image, File target) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(JPEG).next();
+        File partFile = new File(target.getParentFile(), target.getName() + ".norm");
+        try {
+            try (ImageOutputStream output = ImageIO.createImageOutputStream(partFile)) {
+                ImageWriteParam param = writer.getDefaultWriteParam();
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(quality);
+                writer.setOutput(output);
+                writer.write(null, new IIOImage(image, null, null), param);
+            }
+            Files.move(partFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            writer.dispose();
+            Files.deleteIfExists(partFile.toPath());
+        }
+    }
+
+    /**
+     * Copy of a downloaded image sent to PERO instead of it.
+     */
+    public static class NormalizedImage {
+
+        private final File file;
+        private final double[] ratio;
+
+        private NormalizedImage(File file, double[] ratio) {
+            this.file = file;
+            this.ratio = ratio;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * @return ratios original / downscaled size (x, y), null if the image was only converted to JPEG
+         */
+        public double[] getRatio() {
+            return ratio;
+        }
+    }
+}
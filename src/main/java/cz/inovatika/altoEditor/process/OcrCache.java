@@ -0,0 +1,201 @@
+package cz.inovatika.altoEditor.process;
+
+import cz.inovatika.altoEditor.utils.Config;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Disk cache of generated ALTO and OCR keyed by the SHA-256 of the image and the version of the PERO engine.
+ *
+ * Entries are stored as {@code <key>.xml} and {@code <key>.txt} in subfolders named by the first two characters
+ * of the key. The modification time of an entry is updated on every hit and the least recently used entries
+ * are removed when the cache grows over its maximal size.
+ */
+public class OcrCache {
+
+    private static final Logger LOGGER = LogManager.getLogger(OcrCache.class.getName());
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String ALTO_SUFFIX = ".xml";
+    private static final String OCR_SUFFIX = ".txt";
+
+    private static class LazyHolder {
+        private static final OcrCache INSTANCE = new OcrCache(new File(Config.getProcessorPeroCachePath()), Config.getProcessorPeroCacheMaxSize());
+    }
+
+    public static OcrCache getInstance() {
+        return LazyHolder.INSTANCE;
+    }
+
+    private final File folder;
+    private final long maxSize;
+    // -1 until the size of the existing entries is counted
+    private final AtomicLong size = new AtomicLong(-1);
+
+    public OcrCache(File folder, long maxSize) {
+        this.folder = folder;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param version identifies the engine and its configuration, results of other versions are not used
+     * @return key of the image
+     */
+    public String getKey(File image, String version) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+        digest.update((version + "\n").getBytes(StandardCharsets.UTF_8));
+        try (InputStream input = Files.newInputStream(image.toPath())) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Copies the cached ALTO and OCR of the key to the given files.
+     *
+     * @return false if the key is not cached
+     */
+    public boolean restore(String key, File alto, File ocr) throws IOException {
+        File cachedAlto = getFile(key, ALTO_SUFFIX);
+        File cachedOcr = getFile(key, OCR_SUFFIX);
+        if (!cachedAlto.exists() || cachedAlto.length() == 0 || !cachedOcr.exists()) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        cachedAlto.setLastModified(now);
+        cachedOcr.setLastModified(now);
+        // ALTO is written last, its presence means the page is complete
+        copy(cachedOcr, ocr);
+        copy(cachedAlto, alto);
+        return true;
+    }
+
+    /**
+     * Stores the generated ALTO and OCR under the key, an existing entry is replaced.
+     */
+    public void store(String key, File alto, File ocr) throws IOException {
+        File cachedAlto = getFile(key, ALTO_SUFFIX);
+        File cachedOcr = getFile(key, OCR_SUFFIX);
+        File parent = cachedAlto.getParentFile();
+        if (!parent.exists() && !parent.mkdirs() && !parent.exists()) {
+            throw new IOException("Can not create folder " + parent.getAbsolutePath());
+        }
+        long oldSize = cachedAlto.length() + cachedOcr.length();
+        // the entry is complete once ALTO is present, see restore
+        copy(ocr, cachedOcr);
+        copy(alto, cachedAlto);
+        if (getSize().addAndGet(cachedAlto.length() + cachedOcr.length() - oldSize) > maxSize) {
+            evict();
+        }
+    }
+
+    /**
+     * Removes the least recently used entries until the cache takes 90 % of its maximal size.
+     */
+    private synchronized void evict() {
+        if (getSize().get() <= maxSize) {
+            return;
+        }
+        List<File> altoFiles = new ArrayList<>();
+        long total = 0;
+        File[] subfolders = folder.listFiles(File::isDirectory);
+        if (subfolders != null) {
+            for (File subfolder : subfolders) {
+                File[] files = subfolder.listFiles();
+                if (files == null) {
+                    continue;
+                }
+                for (File file : files) {
+                    total += file.length();
+                    if (file.getName().endsWith(ALTO_SUFFIX)) {
+                        altoFiles.add(file);
+                    }
+                }
+            }
+        }
+        altoFiles.sort(Comparator.comparingLong(File::lastModified));
+        long limit = maxSize / 10 * 9;
+        int removed = 0;
+        for (File altoFile : altoFiles) {
+            if (total <= limit) {
+                break;
+            }
+            String path = altoFile.getAbsolutePath();
+            File ocrFile = new File(path.substring(0, path.length() - ALTO_SUFFIX.length()) + OCR_SUFFIX);
+            total -= altoFile.length() + ocrFile.length();
+            altoFile.delete();
+            ocrFile.delete();
+            removed++;
+        }
+        size.set(total);
+        LOGGER.info("OCR cache: " + removed + " entries removed, " + total + " bytes used.");
+    }
+
+    private AtomicLong getSize() {
+        if (size.get() < 0) {
+            synchronized (this) {
+                if (size.get() < 0) {
+                    size.set(countSize(folder));
+                }
+            }
+        }
+        return size;
+    }
+
+    private static long countSize(File file) {
+        if (file.isFile()) {
+            return file.length();
+        }
+        long result = 0;
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                result += countSize(child);
+            }
+        }
+        return result;
+    }
+
+    private File getFile(String key, String suffix) {
+        return new File(new File(folder, key.substring(0, 2)), key + suffix);
+    }
+
+    /**
+     * Copies through a temporary file so that a reader never sees a partially written file.
+     */
+    private static void copy(File source, File target) throws IOException {
+        File partFile = new File(target.getParentFile(), target.getName() + "." + UUID.randomUUID() + ".part");
+        try {
+            Files.copy(source.toPath(), partFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(partFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(partFile.toPath());
+        }
+    }
+}
@@ -1,36 +1,39 @@
 package cz.inovatika.altoEditor.process;
 
-import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import org.apache.commons.io.IOUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
- * Reads the external process output in separate thread.
+ * Reads the external process output, only the last {@code limit} characters are kept.
  */
-public class OutputConsumer extends Thread {
+public class OutputConsumer implements Runnable {
 
     private static final Logger LOGGER = LogManager.getLogger(OutputConsumer.class.getName());
     private final InputStream input;
-    private final StringBuilder output;
+    // ring buffer, start is the index of the oldest character
+    private final char[] output;
+    private int start;
+    private int length;
+    private long total;
     private Throwable error;
 
-    public OutputConsumer(InputStream input) {
+    public OutputConsumer(InputStream input, int limit) {
         this.input = input;
-        output = new StringBuilder();
+        this.output = new char[Math.max(1, limit)];
     }
 
     @Override
     public void run() {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(input));
+        Reader reader = new InputStreamReader(input, StandardCharsets.UTF_8);
         try {
-            for(String line; (line = reader.readLine()) != null;) {
-                if (output.length() > 0) {
-                    output.append('\n');
-                }
-                output.append(line);
+            char[] buffer = new char[8 * 1024];
+            for (int read; (read = reader.read(buffer)) != -1;) {
+                append(buffer, read);
             }
         } catch (Throwable ex) {
             error = ex;
@@ -40,8 +43,27 @@ public class OutputConsumer extends Thread {
         }
     }
 
-    public String getOutput() {
-        return output.toString();
+    private synchronized void append(char[] buffer, int count) {
+        total += count;
+        for (int i = Math.max(0, count - output.length); i < count; i++) {
+            output[(start + length) % output.length] = buffer[i];
+            if (length < output.length) {
+                length++;
+            } else {
+                start = (start + 1) % output.length;
+            }
+        }
+    }
+
+    public synchronized String getOutput() {
+        StringBuilder result = new StringBuilder(length + 40);
+        if (total > length) {
+            result.append("... ").append(total - length).append(" characters skipped ...\n");
+        }
+        for (int i = 0; i < length; i++) {
+            result.append(output[(start + i) % output.length]);
+        }
+        return result.toString();
     }
 
     public Throwable getError() {
@@ -0,0 +1,359 @@
+package cz.inovatika.altoEditor.process;
+
+import cz.inovatika.altoEditor.kramerius.K7Downloader;
+import cz.inovatika.altoEditor.utils.Const;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Moves the pages of one batch through OCR and saving while the other pages are still downloading.
+ *
+ * Stages are connected by bounded queues, a full queue blocks the previous stage. A page that fails
+ * in any stage is skipped by the following stages, the other pages are finished and the failure
+ * is reported once the whole batch has been processed. The OCR stage takes all waiting pages
+ * (up to the OCR batch size) at once so that they can be sent to PERO in one request.
+ *
+ * A pipeline can be stopped by {@link #stop()}, pages that are being generated or saved are finished,
+ * the waiting pages are dropped and the downloads are interrupted.
+ */
+public class PagePipeline {
+
+    private static final Logger LOGGER = LogManager.getLogger(PagePipeline.class.getName());
+
+    private static final Page END = new Page(null, null);
+
+    private final String name;
+    private final int total;
+    private final int ocrBatchSize;
+    private final BatchStage ocrStage;
+    private final int saveBatchSize;
+    private final BatchStage saveStage;
+    private final ProgressListener listener;
+    private final BlockingQueue<Page> ocrQueue;
+    private final BlockingQueue<Page> saveQueue;
+
+    private final AtomicInteger downloaded = new AtomicInteger();
+    private final AtomicInteger generated = new AtomicInteger();
+    private final AtomicInteger saved = new AtomicInteger();
+    private final AtomicInteger downloadFailed = new AtomicInteger();
+    private final AtomicInteger generateFailed = new AtomicInteger();
+    private final AtomicInteger saveFailed = new AtomicInteger();
+
+    private volatile boolean aborted = false;
+    private volatile boolean stopped = false;
+    private volatile String firstError = null;
+    // thread running the downloads, guarded by this
+    private Thread downloadThread = null;
+
+    public PagePipeline(String name, int total, int queueSize, int ocrBatchSize, BatchStage ocrStage, PageStage saveStage, ProgressListener listener) {
+        this(name, total, queueSize, ocrBatchSize, ocrStage, 1, eachPage(saveStage), listener);
+    }
+
+    public PagePipeline(String name, int total, int queueSize, int ocrBatchSize, BatchStage ocrStage, int saveBatchSize, BatchStage saveStage, ProgressListener listener) {
+        this.name = name;
+        this.total = total;
+        this.ocrBatchSize = Math.max(1, ocrBatchSize);
+        this.ocrStage = ocrStage;
+        this.saveBatchSize = Math.max(1, saveBatchSize);
+        this.saveStage = saveStage;
+        this.listener = listener;
+        this.ocrQueue = new ArrayBlockingQueue<>(Math.max(Math.max(1, queueSize), this.ocrBatchSize));
+        this.saveQueue = new ArrayBlockingQueue<>(Math.max(Math.max(1, queueSize), this.saveBatchSize));
+    }
+
+    /**
+     * Runs the download in the current thread and the other stages in their own threads.
+     *
+     * @throws IOException if any page failed or the pipeline was stopped
+     */
+    public void run(PageSource source) throws Exception {
+        Thread ocrThread = startStage("ocr", ocrQueue, saveQueue, ocrBatchSize, ocrStage, generated, generateFailed);
+        Thread saveThread = startStage("save", saveQueue, null, saveBatchSize, saveStage, saved, saveFailed);
+        try {
+            synchronized (this) {
+                downloadThread = Thread.currentThread();
+                if (stopped) {
+                    downloadThread.interrupt();
+                }
+            }
+            try {
+                source.download(this::pageDownloaded);
+            } catch (InterruptedIOException ex) {
+                if (!stopped) {
+                    abort();
+                    throw ex;
+                }
+            } catch (Exception ex) {
+                // pages that failed are counted by the listener, the others are still in the pipeline
+                fail(null, ex);
+            } finally {
+                synchronized (this) {
+                    downloadThread = null;
+                }
+                if (stopped) {
+                    // the interrupt sent by stop() ends the downloads only, the stages finish their pages
+                    Thread.interrupted();
+                    ocrQueue.clear();
+                }
+                put(ocrQueue, END);
+            }
+            if (aborted && !stopped) {
+                ocrThread.interrupt();
+                saveThread.interrupt();
+            }
+            ocrThread.join();
+            saveThread.join();
+        } catch (InterruptedException | InterruptedIOException | RuntimeException ex) {
+            // running OCR processes and PERO requests are ended by the interrupt
+            abort();
+            ocrThread.interrupt();
+            saveThread.interrupt();
+            throw ex;
+        }
+        if (stopped) {
+            throw new InterruptedIOException("Processing stopped, " + saved.get() + " of " + total + " pages saved.");
+        }
+        int failed = getFailed();
+        if (failed > 0 || saved.get() < total) {
+            throw new IOException("Processing of " + (total - saved.get()) + " of " + total + " pages failed (" + firstError + ").");
+        }
+    }
+
+    public void abort() {
+        aborted = true;
+    }
+
+    /**
+     * Stops the pipeline at a page boundary: downloads are interrupted, pages waiting in the queues are dropped
+     * and the pages that are being generated or saved are finished. {@link #run(PageSource)} then throws
+     * {@link InterruptedIOException}.
+     */
+    public void stop() {
+        stopped = true;
+        abort();
+        synchronized (this) {
+            if (downloadThread != null) {
+                downloadThread.interrupt();
+            }
+        }
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public int getDownloaded() {
+        return downloaded.get();
+    }
+
+    public int getGenerated() {
+        return generated.get();
+    }
+
+    public int getSaved() {
+        return saved.get();
+    }
+
+    public int getFailed() {
+        return downloadFailed.get() + generateFailed.get() + saveFailed.get();
+    }
+
+    /**
+     * @return the first stage that has not finished all of its pages yet
+     */
+    public String getSubstate() {
+        if (downloaded.get() + downloadFailed.get() < total) {
+            return Const.BATCH_SUBSTATE_DOWNLOADING;
+        } else if (generated.get() + generateFailed.get() < downloaded.get()) {
+            return Const.BATCH_SUBSTATE_GENERATING;
+        }
+        return Const.BATCH_SUBSTATE_SAVING;
+    }
+
+    public String getProgressMessage() {
+        return "Downloaded " + downloaded.get() + ", generated " + generated.get() + ", saved " + saved.get()
+                + " of " + total + " pages" + (getFailed() > 0 ? ", " + getFailed() + " failed" : "") + ".";
+    }
+
+    private void pageDownloaded(String pid, File image, boolean success, int done, int failed, int count) {
+        if (success) {
+            downloaded.incrementAndGet();
+            put(ocrQueue, new Page(pid, image));
+        } else {
+            downloadFailed.incrementAndGet();
+        }
+        notifyListener();
+    }
+
+    private Thread startStage(String stageName, BlockingQueue<Page> input, BlockingQueue<Page> output, int batchSize, BatchStage stage, AtomicInteger done, AtomicInteger failed) {
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    List<Page> pages = new ArrayList<>();
+                    pages.add(input.take());
+                    input.drainTo(pages, batchSize - 1);
+                    // END is the last page in the queue, only a stopped pipeline may get a late page after it
+                    int endIndex = pages.indexOf(END);
+                    boolean end = endIndex >= 0;
+                    if (end) {
+                        pages.subList(endIndex, pages.size()).clear();
+                    }
+                    if (!pages.isEmpty() && !aborted) {
+                        process(stageName, pages, output, stage, done, failed);
+                    }
+                    if (end) {
+                        if (output != null) {
+                            if (aborted) {
+                                // the following stage skips the pages anyway, END must not be lost in a full queue
+                                output.clear();
+                            }
+                            put(output, END);
+                        }
+                        return;
+                    }
+                }
+            } catch (InterruptedException ex) {
+                LOGGER.warn(name + ": " + stageName + " stage interrupted.");
+            }
+        }, name + "-" + stageName);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private void process(String stageName, List<Page> pages, BlockingQueue<Page> output, BatchStage stage, AtomicInteger done, AtomicInteger failed) {
+        try {
+            stage.process(pages);
+        } catch (Exception ex) {
+            for (Page page : pages) {
+                if (page.getError() == null) {
+                    page.setError(ex);
+                }
+            }
+        }
+        for (Page page : pages) {
+            if (page.getError() == null) {
+                done.incrementAndGet();
+                if (output != null) {
+                    put(output, page);
+                }
+            } else {
+                LOGGER.warn(name + ": " + stageName + " of " + page.getPid() + " failed: " + page.getError().getMessage());
+                failed.incrementAndGet();
+                fail(page, page.getError());
+            }
+        }
+        notifyListener();
+    }
+
+    private void put(BlockingQueue<Page> queue, Page page) {
+        try {
+            while (!queue.offer(page, 1, TimeUnit.SECONDS)) {
+                if (aborted) {
+                    return;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            abort();
+        }
+    }
+
+    private void fail(Page page, Exception ex) {
+        if (firstError == null) {
+            firstError = (page == null ? "" : page.getPid() + ": ") + ex.getMessage();
+        }
+    }
+
+    private void notifyListener() {
+        if (listener != null) {
+            try {
+                listener.progressChanged(this);
+            } catch (Exception ex) {
+                LOGGER.warn(name + ": progress listener failed: " + ex.getMessage());
+            }
+        }
+    }
+
+    public interface PageSource {
+        void download(K7Downloader.ProgressListener listener) throws Exception;
+    }
+
+    public interface PageStage {
+        void process(Page page) throws Exception;
+    }
+
+    /**
+     * Processes several pages at once, a page that failed is marked by {@link Page#setError(Exception)}.
+     * An exception thrown by the stage fails all pages without an error.
+     */
+    public interface BatchStage {
+        void process(List<Page> pages) throws Exception;
+    }
+
+    public static BatchStage eachPage(PageStage stage) {
+        return pages -> {
+            for (Page page : pages) {
+                try {
+                    stage.process(page);
+                } catch (Exception ex) {
+                    page.setError(ex);
+                }
+            }
+        };
+    }
+
+    public interface ProgressListener {
+        void progressChanged(PagePipeline pipeline);
+    }
+
+    public static class Page {
+
+        private final String pid;
+        private final File image;
+        private File alto;
+        private Exception error;
+
+        public Page(String pid, File image) {
+            this.pid = pid;
+            this.image = image;
+        }
+
+        public String getPid() {
+            return pid;
+        }
+
+        public File getImage() {
+            return image;
+        }
+
+        public File getAlto() {
+            return alto;
+        }
+
+        public void setAlto(File alto) {
+            this.alto = alto;
+        }
+
+        public Exception getError() {
+            return error;
+        }
+
+        public void setError(Exception error) {
+            this.error = error;
+        }
+    }
+}
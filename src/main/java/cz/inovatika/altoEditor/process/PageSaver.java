@@ -0,0 +1,158 @@
+package cz.inovatika.altoEditor.process;
+
+import cz.inovatika.altoEditor.db.Manager;
+import cz.inovatika.altoEditor.db.models.Batch;
+import cz.inovatika.altoEditor.editor.AltoDatastreamEditor;
+import cz.inovatika.altoEditor.kramerius.K7Downloader;
+import cz.inovatika.altoEditor.models.DigitalObjectView;
+import cz.inovatika.altoEditor.models.ObjectInformation;
+import cz.inovatika.altoEditor.storage.akubra.AkubraStorage;
+import cz.inovatika.altoEditor.user.UserProfile;
+import cz.inovatika.altoEditor.utils.Const;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Saves the generated ALTO of the pages of a MULTIPLE batch.
+ *
+ * Pages are imported into the storage by a pool of workers, the database rows are written
+ * in one transaction every {@code commitSize} pages and the files of a page are deleted once its row is written.
+ * A page is recorded as saved together with its row so that a retried batch skips it.
+ */
+public class PageSaver implements PagePipeline.BatchStage, AutoCloseable {
+
+    private static final Logger LOGGER = LogManager.getLogger(PageSaver.class.getName());
+
+    private static final String VERSION_XML = AltoDatastreamEditor.ALTO_ID + ".1";
+
+    private final Batch batch;
+    private final String instanceId;
+    private final UserProfile userProfile;
+    private final K7Downloader downloader;
+    private final int commitSize;
+    private final ExecutorService executor;
+
+    private final List<ObjectInformation> newObjects = new ArrayList<>();
+    private final List<Integer> updatedObjects = new ArrayList<>();
+    private final List<String> savedPids = new ArrayList<>();
+    private final List<PagePipeline.Page> savedPages = new ArrayList<>();
+
+    public PageSaver(String name, Batch batch, String instanceId, UserProfile userProfile, int threads, int commitSize) {
+        this.batch = batch;
+        this.instanceId = instanceId;
+        this.userProfile = userProfile;
+        this.downloader = new K7Downloader();
+        this.commitSize = Math.max(1, commitSize);
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, name + "-save-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void process(List<PagePipeline.Page> pages) throws Exception {
+        Map<PagePipeline.Page, Future<?>> futures = new LinkedHashMap<>();
+        for (PagePipeline.Page page : pages) {
+            futures.put(page, executor.submit(() -> {
+                savePage(page);
+                return null;
+            }));
+        }
+        for (Map.Entry<PagePipeline.Page, Future<?>> future : futures.entrySet()) {
+            try {
+                future.getValue().get();
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                future.getKey().setError(cause instanceof Exception ? (Exception) cause : ex);
+            }
+        }
+        if (getPending() >= commitSize) {
+            commit();
+        }
+    }
+
+    /**
+     * Writes the rows of all saved pages that have not been written yet.
+     */
+    public synchronized void commit() throws SQLException {
+        if (!savedPids.isEmpty()) {
+            Manager.saveGeneratedPages(batch, savedPids, Const.USER_PERO, newObjects, updatedObjects, VERSION_XML, instanceId);
+            newObjects.clear();
+            updatedObjects.clear();
+            savedPids.clear();
+        }
+        // a retried batch needs the files of the pages whose rows were not written
+        for (PagePipeline.Page page : savedPages) {
+            deletePageFiles(page);
+        }
+        savedPages.clear();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private void savePage(PagePipeline.Page page) throws Exception {
+        if (page.getAlto() == null || !page.getAlto().exists()) {
+            throw new IOException("Alto file is missing!");
+        }
+        String pid = page.getPid();
+        downloader.downloadFoxml(pid, instanceId, userProfile);
+
+        AkubraStorage storage = AkubraStorage.getInstance();
+        AkubraStorage.AkubraObject akubraObject = storage.find(pid);
+        AltoDatastreamEditor.importAlto(akubraObject, page.getAlto().toURI(), "ALTO updated by PERO.", VERSION_XML);
+        akubraObject.flush();
+
+        List<DigitalObjectView> objects = Manager.getDigitalObjects(Const.USER_PERO, pid);
+        if (objects.isEmpty()) {
+            addNew(page, Manager.getObjectInformation(userProfile, pid, VERSION_XML, instanceId));
+        } else {
+            addUpdated(page, objects.get(0).getId());
+        }
+    }
+
+    private synchronized void addNew(PagePipeline.Page page, ObjectInformation information) {
+        newObjects.add(information);
+        savedPids.add(page.getPid());
+        savedPages.add(page);
+    }
+
+    private synchronized void addUpdated(PagePipeline.Page page, Integer objectId) {
+        updatedObjects.add(objectId);
+        savedPids.add(page.getPid());
+        savedPages.add(page);
+    }
+
+    private synchronized int getPending() {
+        return savedPids.size();
+    }
+
+    private static void deletePageFiles(PagePipeline.Page page) {
+        String path = page.getImage().getAbsolutePath();
+        String basePath = path.substring(0, path.lastIndexOf("."));
+        for (File file : new File[]{page.getImage(), page.getAlto(), new File(basePath + ".txt")}) {
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (IOException ex) {
+                LOGGER.warn("Unable to delete " + file.getAbsolutePath() + ": " + ex.getMessage());
+            }
+        }
+    }
+}
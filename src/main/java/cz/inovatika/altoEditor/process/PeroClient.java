@@ -0,0 +1,331 @@
+package cz.inovatika.altoEditor.process;
+
+import cz.inovatika.altoEditor.kramerius.HttpClientManager;
+import cz.inovatika.altoEditor.utils.Config;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.URLConnection;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.util.EntityUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
+
+import static cz.inovatika.altoEditor.utils.FileUtils.writeToFile;
+import static cz.inovatika.altoEditor.utils.FoxmlUtils.closeQuietly;
+import static java.net.HttpURLConnection.HTTP_OK;
+
+/**
+ * Client of the PERO OCR web API.
+ *
+ * All images are sent in one processing request, they are uploaded concurrently and the state of all pages
+ * is polled in one loop. Results are written next to each image as {@code .xml} (ALTO) and {@code .txt}.
+ */
+public class PeroClient {
+
+    private static final Logger LOGGER = LogManager.getLogger(PeroClient.class.getName());
+
+    private static final String STATE_PROCESSED = "PROCESSED";
+    private static final List<String> FAILED_STATES = Arrays.asList("INVALID_FILE", "NOT_FOUND", "CANCELED", "EXPIRED", "FAILED");
+
+    // shared by all requests, limits the number of concurrent uploads
+    private static ExecutorService executor;
+
+    private final String url;
+    private final String apiKey;
+    private final int engine;
+    private final long pollInterval;
+    private final long timeout;
+    private final int uploadThreads;
+
+    public PeroClient() {
+        this(Config.getProcessorPeroUrl(), Config.getProcessorPeroKey(), Config.getProcessorPeroEngine(),
+                Config.getProcessorPeroPollInterval(), Config.getProcessorPeroTimeout(), Config.getProcessorPeroUploadThreads());
+    }
+
+    public PeroClient(String url, String apiKey, int engine, long pollInterval, long timeout, int uploadThreads) {
+        this.url = url.endsWith("/") ? url : url + "/";
+        this.apiKey = apiKey;
+        this.engine = engine;
+        this.pollInterval = pollInterval;
+        this.timeout = timeout;
+        this.uploadThreads = Math.max(1, uploadThreads);
+    }
+
+    /**
+     * Generates ALTO and OCR for all images.
+     *
+     * @return images that failed with the reason, an empty map if all pages were processed
+     */
+    public Map<File, Exception> process(List<File> images) throws IOException, InterruptedException {
+        Map<String, File> pages = new LinkedHashMap<>();
+        for (File image : images) {
+            pages.put(image.getName(), image);
+        }
+        Map<File, Exception> failures = Collections.synchronizedMap(new LinkedHashMap<>());
+        if (pages.isEmpty()) {
+            return failures;
+        }
+        String requestId = createRequest(pages.keySet());
+        LOGGER.info("PERO request " + requestId + " created for " + pages.size() + " pages.");
+        try {
+            Set<String> uploaded = upload(requestId, pages, failures);
+            poll(requestId, uploaded, pages, failures);
+        } catch (InterruptedException ex) {
+            // the batch was canceled or stopped, PERO does not need to finish the request
+            cancelRequest(requestId);
+            throw ex;
+        }
+        return failures;
+    }
+
+    private String createRequest(Set<String> names) throws IOException {
+        JSONObject images = new JSONObject();
+        for (String name : names) {
+            images.put(name, JSONObject.NULL);
+        }
+        JSONObject body = new JSONObject();
+        body.put("engine", engine);
+        body.put("images", images);
+
+        HttpPost httpPost = new HttpPost(url + "post_processing_request");
+        httpPost.setEntity(new StringEntity(body.toString(), ContentType.APPLICATION_JSON));
+        JSONObject response = execute(httpPost, "Creating processing request");
+        String requestId = response.optString("request_id", null);
+        if (requestId == null || requestId.isEmpty()) {
+            throw new IOException("PERO did not return request_id: " + response);
+        }
+        return requestId;
+    }
+
+    /**
+     * @return names of pages that were uploaded, failed uploads are put into failures
+     */
+    private Set<String> upload(String requestId, Map<String, File> pages, Map<File, Exception> failures) throws InterruptedException {
+        ExecutorService executor = getExecutor(uploadThreads);
+        Map<String, Future<?>> futures = new LinkedHashMap<>();
+        for (Map.Entry<String, File> page : pages.entrySet()) {
+            futures.put(page.getKey(), executor.submit(() -> {
+                uploadImage(requestId, page.getKey(), page.getValue());
+                return null;
+            }));
+        }
+        Set<String> uploaded = new LinkedHashSet<>();
+        try {
+            for (Map.Entry<String, Future<?>> future : futures.entrySet()) {
+                try {
+                    future.getValue().get();
+                    uploaded.add(future.getKey());
+                } catch (ExecutionException ex) {
+                    Exception cause = ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+                    LOGGER.warn("Uploading " + future.getKey() + " to PERO failed: " + cause.getMessage());
+                    failures.put(pages.get(future.getKey()), cause);
+                }
+            }
+        } catch (InterruptedException ex) {
+            for (Future<?> future : futures.values()) {
+                future.cancel(true);
+            }
+            throw ex;
+        }
+        return uploaded;
+    }
+
+    private void uploadImage(String requestId, String name, File image) throws IOException {
+        String boundary = "altoEditor" + UUID.randomUUID().toString().replace("-", "");
+        byte[] head = ("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + name + "\"\r\n"
+                + "Content-Type: " + getContentType(image) + "\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+        byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+
+        InputStream body = new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                new ByteArrayInputStream(head), new FileInputStream(image), new ByteArrayInputStream(tail))));
+        try {
+            InputStreamEntity entity = new InputStreamEntity(body, head.length + image.length() + tail.length);
+            entity.setContentType("multipart/form-data; boundary=" + boundary);
+            HttpPost httpPost = new HttpPost(url + "upload_image/" + requestId + "/" + encode(name));
+            httpPost.setEntity(entity);
+            execute(httpPost, "Uploading " + name);
+        } finally {
+            closeQuietly(body, name);
+        }
+    }
+
+    /**
+     * Images are sent as they were downloaded if they are not normalized to JPEG.
+     */
+    static String getContentType(File image) {
+        String name = image.getName().toLowerCase();
+        if (name.endsWith(".jpg") || name.endsWith(".jpeg")) {
+            return "image/jpeg";
+        } else if (name.endsWith(".tif") || name.endsWith(".tiff")) {
+            return "image/tiff";
+        } else if (name.endsWith(".png")) {
+            return "image/png";
+        } else if (name.endsWith(".jp2")) {
+            return "image/jp2";
+        }
+        String contentType = URLConnection.guessContentTypeFromName(name);
+        return contentType == null ? "application/octet-stream" : contentType;
+    }
+
+    private void poll(String requestId, Set<String> uploaded, Map<String, File> pages, Map<File, Exception> failures) throws IOException, InterruptedException {
+        Set<String> pending = new LinkedHashSet<>(uploaded);
+        long lastProgress = System.currentTimeMillis();
+        while (!pending.isEmpty()) {
+            JSONObject states = execute(new HttpGet(url + "request_status/" + requestId), "Getting request status").optJSONObject("request_status");
+            for (Iterator<String> iterator = pending.iterator(); iterator.hasNext(); ) {
+                String name = iterator.next();
+                JSONObject page = states == null ? null : states.optJSONObject(name);
+                String state = page == null ? null : page.optString("state", null);
+                if (STATE_PROCESSED.equals(state)) {
+                    try {
+                        downloadResults(requestId, name, pages.get(name));
+                    } catch (IOException ex) {
+                        LOGGER.warn("Downloading results of " + name + " from PERO failed: " + ex.getMessage());
+                        failures.put(pages.get(name), ex);
+                    }
+                    iterator.remove();
+                    lastProgress = System.currentTimeMillis();
+                } else if (state != null && FAILED_STATES.contains(state)) {
+                    failures.put(pages.get(name), new IOException("PERO failed to process " + name + ": " + state));
+                    iterator.remove();
+                    lastProgress = System.currentTimeMillis();
+                }
+            }
+            if (pending.isEmpty()) {
+                break;
+            }
+            if (System.currentTimeMillis() - lastProgress > timeout) {
+                LOGGER.warn("PERO request " + requestId + " made no progress for " + timeout + " ms, " + pending.size() + " pages abandoned.");
+                for (String name : pending) {
+                    failures.put(pages.get(name), new IOException("PERO did not process " + name + " in " + timeout + " ms."));
+                }
+                cancelRequest(requestId);
+                break;
+            }
+            Thread.sleep(pollInterval);
+        }
+    }
+
+    private void downloadResults(String requestId, String name, File image) throws IOException {
+        String basePath = image.getAbsolutePath().substring(0, image.getAbsolutePath().lastIndexOf("."));
+        // ALTO is written last, its presence means the page is complete
+        download(requestId, name, "txt", new File(basePath + ".txt"));
+        download(requestId, name, "alto", new File(basePath + ".xml"));
+    }
+
+    private void download(String requestId, String name, String format, File target) throws IOException {
+        HttpGet httpGet = new HttpGet(url + "download_results/" + requestId + "/" + encode(name) + "/" + format);
+        setHeaders(httpGet);
+        HttpResponse response = getHttpClient().execute(httpGet);
+        try {
+            HttpEntity entity = response.getEntity();
+            if (HTTP_OK != response.getStatusLine().getStatusCode() || entity == null) {
+                throw new IOException("Downloading " + format + " of " + name + " ended with code " + response.getStatusLine().getStatusCode());
+            }
+            File partFile = new File(target.getParentFile(), target.getName() + ".part");
+            InputStream content = null;
+            try {
+                content = entity.getContent();
+                writeToFile(content, partFile, name);
+            } finally {
+                closeQuietly(content, name);
+            }
+            Files.move(partFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            EntityUtils.consumeQuietly(response.getEntity());
+        }
+    }
+
+    private void cancelRequest(String requestId) {
+        try {
+            execute(new HttpPost(url + "cancel_request/" + requestId), "Canceling request");
+        } catch (IOException ex) {
+            LOGGER.warn("Canceling PERO request " + requestId + " failed: " + ex.getMessage());
+        }
+    }
+
+    private JSONObject execute(HttpRequestBase request, String action) throws IOException {
+        setHeaders(request);
+        HttpResponse response = getHttpClient().execute(request);
+        try {
+            String result = response.getEntity() == null ? null : EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+            if (HTTP_OK != response.getStatusLine().getStatusCode()) {
+                throw new IOException(action + " ended with code " + response.getStatusLine().getStatusCode() + (result == null ? "" : ": " + result));
+            }
+            if (result == null || !result.trim().startsWith("{")) {
+                return new JSONObject();
+            }
+            return new JSONObject(result);
+        } finally {
+            EntityUtils.consumeQuietly(response.getEntity());
+        }
+    }
+
+    private void setHeaders(HttpRequestBase request) {
+        request.setHeader(new BasicHeader("api-key", apiKey));
+        request.setHeader(new BasicHeader("Connection", "Keep-Alive"));
+    }
+
+    /**
+     * Uploads of all batches share one pool, its size is taken from the first client.
+     */
+    private static synchronized ExecutorService getExecutor(int threads) {
+        if (executor == null) {
+            AtomicInteger counter = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "PeroUpload-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private static HttpClient getHttpClient() {
+        return HttpClientManager.getPeroClient();
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+}
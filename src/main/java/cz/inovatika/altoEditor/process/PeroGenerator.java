@@ -2,6 +2,8 @@ package cz.inovatika.altoEditor.process;
 
 import cz.inovatika.altoEditor.utils.Config;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
 import org.apache.logging.log4j.LogManager;
@@ -21,6 +23,10 @@ public class PeroGenerator extends ExternalProcess {
         this.outputAlto = new File(imageFile.getAbsolutePath().substring(0, imageFile.getAbsolutePath().lastIndexOf(".")) + altoSuffix);
     }
 
+    public File getOutputAlto() {
+        return outputAlto;
+    }
+
 //    public void run() {
 //        if (!imageFile.exists()) {
 //            throw new IllegalStateException(imageFile.getAbsolutePath() + " not exists!");
@@ -107,11 +113,32 @@ public class PeroGenerator extends ExternalProcess {
         return cmdLine;
     }
 
+    @Override
+    protected void prepareRetry() throws IOException {
+        Files.deleteIfExists(outputOcr.toPath());
+        Files.deleteIfExists(outputAlto.toPath());
+    }
+
     @Override
     public long getTimeout() {
         return Config.getProcessorPeroTimeout();
     }
 
+    @Override
+    public int getRetryAttempts() {
+        return Config.getProcessorPeroRetryAttempts();
+    }
+
+    @Override
+    public long getRetryDelay() {
+        return Config.getProcessorPeroRetryDelay();
+    }
+
+    @Override
+    public int getOutputLimit() {
+        return Config.getProcessorPeroOutputLimit() * 1024;
+    }
+
     @Override
     public boolean isOk() {
         return outputOcr.exists() &&
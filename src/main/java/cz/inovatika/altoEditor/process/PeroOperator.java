@@ -1,7 +1,21 @@
 package cz.inovatika.altoEditor.process;
 
+import cz.inovatika.altoEditor.utils.Config;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -9,37 +23,298 @@ public class PeroOperator {
 
     private static final Logger LOGGER = LogManager.getLogger(PeroOperator.class.getName());
 
+    public static final String MODE_API = "api";
+    public static final String MODE_EXEC = "exec";
+
+    // shared by all batches, limits the number of PERO processes running at once
+    private static ExecutorService executor;
+
+    private final String mode;
+
     public PeroOperator() {
+        this(Config.getProcessorPeroMode());
+    }
+
+    public PeroOperator(String mode) {
+        this.mode = mode;
+    }
+
+    public boolean isApiMode() {
+        return MODE_API.equalsIgnoreCase(mode);
     }
 
+    /**
+     * Generates OCR and ALTO of all images in the folder. A failed page does not stop the others,
+     * the exception of the result reports the number of failed pages and the first failure.
+     */
     public Result generate(File folder) {
         Result result = new Result();
         try {
             if (folder != null && folder.exists()) {
-                generateAlto(folder);
+                Map<File, Result> results = generateAlto(folder);
+                int failed = 0;
+                Exception firstException = null;
+                for (Map.Entry<File, Result> page : results.entrySet()) {
+                    if (page.getValue().getException() != null) {
+                        failed++;
+                        if (firstException == null) {
+                            firstException = page.getValue().getException();
+                        }
+                    }
+                }
+                result.setMessage("Generated " + (results.size() - failed) + " of " + results.size() + " pages.");
+                if (firstException != null) {
+                    result.setException(new IOException("Generating OCR failed for " + failed + " of " + results.size() + " pages: " + firstException.getMessage(), firstException));
+                }
             } else {
-                throw new IllegalStateException("Folder " + folder.getAbsolutePath() + " does not exists");
+                throw new IllegalStateException("Folder " + (folder == null ? null : folder.getAbsolutePath()) + " does not exists");
             }
         } catch (Exception ex) {
             result.setException(ex);
-        } finally {
-            return result;
+        }
+        return result;
+    }
+
+    /**
+     * Generates OCR and ALTO of one page, the ALTO file is returned in {@link Result#getFile()}.
+     */
+    public Result generatePage(File imageFile) {
+        List<File> images = new ArrayList<>();
+        images.add(imageFile);
+        return generatePages(images).get(imageFile);
+    }
+
+    /**
+     * Generates OCR and ALTO of several pages. In the api mode all pages are sent to PERO in one request.
+     * Pages found in the {@link OcrCache} are not sent to PERO at all.
+     *
+     * @return result of each image, the ALTO file is returned in {@link Result#getFile()}
+     */
+    public Map<File, Result> generatePages(List<File> imageFiles) {
+        Map<File, Result> results = new LinkedHashMap<>();
+        List<File> existing = new ArrayList<>();
+        for (File imageFile : imageFiles) {
+            Result result = new Result();
+            results.put(imageFile, result);
+            if (imageFile != null && imageFile.exists()) {
+                existing.add(imageFile);
+            } else {
+                result.setException(new IllegalStateException("Image " + (imageFile == null ? null : imageFile.getAbsolutePath()) + " does not exists"));
+            }
+        }
+        Map<File, String> cacheKeys = Config.isProcessorPeroCacheEnabled() ? restoreCached(existing, results) : new LinkedHashMap<>();
+        if (existing.isEmpty()) {
+            return results;
+        }
+        Map<File, ImageNormalizer.NormalizedImage> normalized = new HashMap<>();
+        if (isApiMode()) {
+            try {
+                normalized = normalizeImages(existing);
+                Map<File, File> inputs = getInputs(existing, normalized);
+                Map<File, Exception> failures = new PeroClient().process(new ArrayList<>(inputs.values()));
+                for (File imageFile : existing) {
+                    Exception ex = failures.get(inputs.get(imageFile));
+                    if (ex != null) {
+                        results.get(imageFile).setException(ex);
+                    } else {
+                        results.get(imageFile).setFile(getAltoFile(inputs.get(imageFile)));
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                setException(results, existing, ex);
+            } catch (Exception ex) {
+                LOGGER.warn("PERO request failed: " + ex.getMessage());
+                setException(results, existing, ex);
+            }
+        } else {
+            try {
+                normalized = normalizeImages(existing);
+                generateConcurrently(getInputs(existing, normalized), results);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                setException(results, existing, ex);
+            }
+        }
+        restoreOutputs(normalized, results);
+        storeCached(existing, results, cacheKeys);
+        return results;
+    }
+
+    /**
+     * Converts images to JPEG and downscales them, the cache keys are taken from the downloaded images.
+     *
+     * @return normalized copies of the downloaded images
+     */
+    private static Map<File, ImageNormalizer.NormalizedImage> normalizeImages(List<File> imageFiles) throws InterruptedException {
+        if (Config.isProcessorImageEnabled()) {
+            return ImageNormalizer.getInstance().normalize(imageFiles);
+        }
+        return new HashMap<>();
+    }
+
+    /**
+     * @return image sent to PERO for each downloaded image
+     */
+    private static Map<File, File> getInputs(List<File> imageFiles, Map<File, ImageNormalizer.NormalizedImage> normalized) {
+        Map<File, File> inputs = new LinkedHashMap<>();
+        for (File imageFile : imageFiles) {
+            ImageNormalizer.NormalizedImage image = normalized.get(imageFile);
+            inputs.put(imageFile, image == null ? imageFile : image.getFile());
+        }
+        return inputs;
+    }
+
+    /**
+     * Moves ALTO and OCR generated from a normalized image next to the downloaded image and removes the normalized image.
+     * The ALTO of a downscaled image has to match the original image shown in the editor.
+     */
+    private static void restoreOutputs(Map<File, ImageNormalizer.NormalizedImage> normalized, Map<File, Result> results) {
+        for (Map.Entry<File, ImageNormalizer.NormalizedImage> entry : normalized.entrySet()) {
+            File imageFile = entry.getKey();
+            File normalizedFile = entry.getValue().getFile();
+            Result result = results.get(imageFile);
+            try {
+                if (result.getException() == null && result.getFile() != null) {
+                    File altoFile = getAltoFile(imageFile);
+                    Files.move(getAltoFile(normalizedFile).toPath(), altoFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    if (getOcrFile(normalizedFile).exists()) {
+                        Files.move(getOcrFile(normalizedFile).toPath(), getOcrFile(imageFile).toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    result.setFile(altoFile);
+                    if (entry.getValue().getRatio() != null) {
+                        ImageNormalizer.rescaleAlto(altoFile, entry.getValue().getRatio());
+                    }
+                }
+            } catch (IOException ex) {
+                result.setException(ex);
+            } finally {
+                for (File file : new File[]{normalizedFile, getAltoFile(normalizedFile), getOcrFile(normalizedFile)}) {
+                    try {
+                        Files.deleteIfExists(file.toPath());
+                    } catch (IOException ex) {
+                        LOGGER.warn("Unable to delete " + file.getAbsolutePath() + ": " + ex.getMessage());
+                    }
+                }
+            }
         }
     }
 
-    protected void generateAlto(File folder) throws IOException {
+    /**
+     * Copies cached results into place, the restored images are removed from the list.
+     *
+     * @return cache keys of the images that have to be generated
+     */
+    private Map<File, String> restoreCached(List<File> imageFiles, Map<File, Result> results) {
+        Map<File, String> keys = new LinkedHashMap<>();
+        OcrCache cache = OcrCache.getInstance();
+        String version = getCacheVersion();
+        for (Iterator<File> iterator = imageFiles.iterator(); iterator.hasNext(); ) {
+            File imageFile = iterator.next();
+            try {
+                String key = cache.getKey(imageFile, version);
+                File altoFile = getAltoFile(imageFile);
+                if (cache.restore(key, altoFile, getOcrFile(imageFile))) {
+                    results.get(imageFile).setFile(altoFile);
+                    iterator.remove();
+                } else {
+                    keys.put(imageFile, key);
+                }
+            } catch (IOException ex) {
+                LOGGER.warn("Reading OCR cache for " + imageFile.getName() + " failed: " + ex.getMessage());
+            }
+        }
+        return keys;
+    }
+
+    private void storeCached(List<File> imageFiles, Map<File, Result> results, Map<File, String> keys) {
+        for (File imageFile : imageFiles) {
+            String key = keys.get(imageFile);
+            Result result = results.get(imageFile);
+            if (key == null || result.getException() != null || result.getFile() == null) {
+                continue;
+            }
+            try {
+                OcrCache.getInstance().store(key, result.getFile(), getOcrFile(imageFile));
+            } catch (IOException ex) {
+                LOGGER.warn("Writing OCR cache for " + imageFile.getName() + " failed: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return identification of the engine and of the image normalization, results generated by another engine
+     * or from differently normalized images are not taken from the cache
+     */
+    private String getCacheVersion() {
+        String engine = isApiMode()
+                ? MODE_API + ":" + Config.getProcessorPeroUrl() + ":" + Config.getProcessorPeroEngine()
+                : MODE_EXEC + ":" + Config.getProcessorPeroExec() + ":" + Config.getProcessorPeroArg();
+        String image = Config.isProcessorImageEnabled()
+                ? "image:" + Config.getProcessorImageMaxLongEdge() + ":" + Config.getProcessorImageQuality()
+                : "image:off";
+        return engine + ":" + image + ":" + Config.getProcessorPeroCacheVersion();
+    }
+
+    /**
+     * Runs the PERO script for each image in the shared pool, at most {@link Config#getProcessorPeroParallel()} at once.
+     */
+    private void generateConcurrently(Map<File, File> inputs, Map<File, Result> results) {
+        Map<File, Future<File>> futures = new LinkedHashMap<>();
+        for (Map.Entry<File, File> input : inputs.entrySet()) {
+            futures.put(input.getKey(), getExecutor().submit(() -> generateAltoAndOcr(input.getValue())));
+        }
+        for (Map.Entry<File, Future<File>> future : futures.entrySet()) {
+            Result result = results.get(future.getKey());
+            try {
+                result.setFile(future.getValue().get());
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                result.setException(cause instanceof Exception ? (Exception) cause : ex);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                for (Map.Entry<File, Future<File>> other : futures.entrySet()) {
+                    other.getValue().cancel(true);
+                    Result otherResult = results.get(other.getKey());
+                    if (otherResult.getFile() == null && otherResult.getException() == null) {
+                        otherResult.setException(ex);
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    protected Map<File, Result> generateAlto(File folder) throws IOException {
         if (folder == null || !folder.exists() || !folder.canRead() || !folder.canWrite()) {
             throw new IOException("It is not possible to access " + (folder == null ? null : folder.getAbsolutePath()));
         }
+        List<File> images = new ArrayList<>();
         for (File file : folder.listFiles()) {
-            if (file.getName().endsWith("jpg")) {
-                File imgFile = file;
-                generateAltoAndOcr(imgFile);
+            if (file.getName().endsWith("jpg") && !file.getName().endsWith(ImageNormalizer.SUFFIX)) {
+                images.add(file);
             }
         }
+        return generatePages(images);
+    }
+
+    private static void setException(Map<File, Result> results, List<File> imageFiles, Exception ex) {
+        for (File imageFile : imageFiles) {
+            results.get(imageFile).setException(ex);
+        }
+    }
+
+    private static File getAltoFile(File imageFile) {
+        String path = imageFile.getAbsolutePath();
+        return new File(path.substring(0, path.lastIndexOf(".")) + ".xml");
     }
 
-    private void generateAltoAndOcr(File imageFile) throws IOException {
+    private static File getOcrFile(File imageFile) {
+        String path = imageFile.getAbsolutePath();
+        return new File(path.substring(0, path.lastIndexOf(".")) + ".txt");
+    }
+
+    private File generateAltoAndOcr(File imageFile) throws IOException {
 
         PeroGenerator process = new PeroGenerator(imageFile, ".txt", ".xml");
 
@@ -50,7 +325,26 @@ public class PeroOperator {
                 throw new IOException("Generating OCR for " + imageFile.getName() + " failed.");
             }
         }
+        return process.getOutputAlto();
+    }
 
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            AtomicInteger counter = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(Math.max(1, Config.getProcessorPeroParallel()), runnable -> {
+                Thread thread = new Thread(runnable, "Pero-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
     }
 
     public static class Result {
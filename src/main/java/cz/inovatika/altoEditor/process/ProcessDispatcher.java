@@ -1,26 +1,58 @@
 package cz.inovatika.altoEditor.process;
 
+import cz.inovatika.altoEditor.db.Manager;
+import cz.inovatika.altoEditor.db.models.Batch;
+import cz.inovatika.altoEditor.utils.Config;
 import cz.inovatika.altoEditor.utils.Const;
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
  * Dispatcher controls scheduling of {@link FileGeneratorProcess}.
  *
- * For now it runs processes in single thread to preserve memory resources.
+ * Processes run in a pool of {@link Config#getProcessorThreads()} workers ordered by priority.
+ * Batches with {@link Const#BATCH_PRIORITY_HIGH} have their own lane of
+ * {@link Config#getProcessorHighPriorityThreads()} workers so they never wait for long running batches.
+ * Waiting batches age: every {@link Config#getProcessorAgingInterval()} ms of waiting is worth one priority level.
+ * Batches are shared fairly among users and instances: each further batch of the same user and instance waits
+ * {@link Config#getProcessorFairInterval()} ms longer (divided by the weight of the instance), and no more than
+ * {@link Config#getProcessorMaxRunning(String)} batches of one instance run at once, the others wait for a free slot.
+ *
+ * The batch table is the source of truth, the queues only cache planned batches. A worker claims the batch
+ * in the database before it starts, and planned batches missing in the queues are picked up by polling.
+ *
+ * In the cluster mode ({@link Config#isClusterEnabled()}) there are no local queues, workers of all nodes claim
+ * planned batches directly from the table with {@code FOR UPDATE SKIP LOCKED}. A claimed batch is leased to the node,
+ * the node renews its leases by a heartbeat and batches of a node that stopped renewing are planned again.
+ *
+ * A canceled batch is removed from the queues and its running process is stopped ({@link #cancel(Integer)}),
+ * in the cluster mode nodes find their canceled batches by the heartbeat. With {@link Config#isProcessorPreemption()}
+ * a HIGH batch that finds all workers of its pool busy pauses one running LOW batch at a page boundary. In the cluster
+ * mode a full node reserves a waiting HIGH batch with its heartbeat before it pauses a LOW batch, so one HIGH batch
+ * pauses at most one LOW batch in the cluster.
  *
  * @author Lukas Sykora
  */
@@ -30,17 +62,52 @@ public final class ProcessDispatcher {
     private static ProcessDispatcher INSTANCE = new ProcessDispatcher();
 
     private ExecutorService pool;
+    private ExecutorService highPriorityPool;
     private final int threadCount;
+    private final int highPriorityThreadCount;
+    private final long agingInterval;
+    private final long fairInterval;
+    // id of the scheduled batch -> its priority when it was scheduled
+    private final Map<Integer, String> scheduledBatches = new ConcurrentHashMap<>();
+    // id of the batch -> its queued or running process
+    private final Map<Integer, FileGeneratorProcess> processes = new ConcurrentHashMap<>();
+    private ScheduledExecutorService poller;
+    // leases are renewed by their own thread, a slow polling or cleanup must not let them expire
+    private ScheduledExecutorService heartbeat;
+    // user and instance -> score time of the last batch queued by them
+    private final Map<String, Long> fairTimes = new HashMap<>();
+    // instance -> number of running batches and batches waiting for a free slot of the instance
+    private final Map<String, Integer> runningPerInstance = new HashMap<>();
+    private final Map<String, PriorityQueue<BatchTask>> waitingPerInstance = new HashMap<>();
+
+    private final boolean cluster;
+    private final String node;
+    private final List<Thread> workers = new ArrayList<>();
+    private final Object wakeUp = new Object();
+    private volatile boolean running = false;
+    private volatile boolean preemptedLastHeartbeat = false;
 
     public ProcessDispatcher() {
-        this(1);
+        this(Config.getProcessorThreads(), Config.getProcessorHighPriorityThreads(), Config.getProcessorAgingInterval(), Config.isClusterEnabled());
     }
 
     ProcessDispatcher(int threadCount) {
+        this(threadCount, 0, Config.getProcessorAgingInterval(), false);
+    }
+
+    ProcessDispatcher(int threadCount, int highPriorityThreadCount, long agingInterval, boolean cluster) {
         if (threadCount < 1) {
             throw new IllegalArgumentException("threadCount: " + threadCount);
         }
+        if (highPriorityThreadCount < 0) {
+            throw new IllegalArgumentException("highPriorityThreadCount: " + highPriorityThreadCount);
+        }
         this.threadCount = threadCount;
+        this.highPriorityThreadCount = highPriorityThreadCount;
+        this.agingInterval = Math.max(1, agingInterval);
+        this.fairInterval = Math.max(0, Config.getProcessorFairInterval());
+        this.cluster = cluster;
+        this.node = Config.getClusterNode();
     }
 
     public static ProcessDispatcher getDefault() {
@@ -52,7 +119,15 @@ public final class ProcessDispatcher {
     }
 
     public void init() {
-        pool = newThreadPool();
+        if (cluster) {
+            initCluster();
+            return;
+        }
+        pool = newThreadPool(threadCount, "");
+        if (highPriorityThreadCount > 0) {
+            highPriorityPool = newThreadPool(highPriorityThreadCount, "High-");
+        }
+        LOGGER.info("ProcessDispatcher started with " + threadCount + " workers and " + highPriorityThreadCount + " high priority workers.");
     }
 
     public void stop() {
@@ -63,7 +138,190 @@ public final class ProcessDispatcher {
         stop(5, TimeUnit.SECONDS);
     }
 
+    private void initCluster() {
+        running = true;
+        ProcessDispatcherThreadFactory factory = new ProcessDispatcherThreadFactory("");
+        for (int i = 0; i < threadCount; i++) {
+            workers.add(factory.newThread(() -> work(false)));
+        }
+        ProcessDispatcherThreadFactory highPriorityFactory = new ProcessDispatcherThreadFactory("High-");
+        for (int i = 0; i < highPriorityThreadCount; i++) {
+            workers.add(highPriorityFactory.newThread(() -> work(true)));
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        long heartbeatInterval = Config.getClusterHeartbeat();
+        heartbeat = newScheduler("-Heartbeat");
+        heartbeat.scheduleWithFixedDelay(this::renewLeases, heartbeatInterval, heartbeatInterval, TimeUnit.MILLISECONDS);
+        LOGGER.info("ProcessDispatcher started on node " + node + " with " + threadCount + " workers and " + highPriorityThreadCount + " high priority workers.");
+    }
+
+    /**
+     * Claims planned batches from the database until the dispatcher is stopped.
+     */
+    private void work(boolean highPriorityOnly) {
+        long pollInterval = Config.getClusterPollInterval();
+        while (running) {
+            Batch batch = null;
+            try {
+                batch = Manager.claimNextBatch(node, Config.getClusterLease(), highPriorityOnly, agingInterval,
+                        fairInterval, getInstanceValues(Config::getProcessorWeight), getInstanceValues(Config::getProcessorMaxRunning));
+            } catch (SQLException ex) {
+                LOGGER.error("Impossible to claim a batch: " + ex.getMessage());
+            }
+            if (batch == null) {
+                synchronized (wakeUp) {
+                    try {
+                        wakeUp.wait(pollInterval);
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            Integer batchId = batch.getId();
+            scheduledBatches.put(batchId, getPriority(batch));
+            FileGeneratorProcess process = FileGeneratorProcess.prepareClaimed(batch);
+            processes.put(batchId, process);
+            new ExceptionHandlingTask(process, () -> {
+                scheduledBatches.remove(batchId);
+                processes.remove(batchId, process);
+            }).run();
+            if (process.isDeferred()) {
+                // the scratch space is full, the batch would be claimed again at once
+                synchronized (wakeUp) {
+                    try {
+                        wakeUp.wait(pollInterval);
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private void renewLeases() {
+        try {
+            int runningBatches = scheduledBatches.size();
+            int renewed = Manager.renewLeases(node, Config.getClusterLease());
+            if (renewed < runningBatches) {
+                LOGGER.warn("Node " + node + " runs " + runningBatches + " batches but holds only " + renewed + " leases, some batches were taken over by other nodes.");
+            }
+            // batches canceled by a request handled by another node
+            for (Map.Entry<Integer, FileGeneratorProcess> process : processes.entrySet()) {
+                if (!process.getValue().isCanceled() && Manager.isCanceled(process.getKey())) {
+                    LOGGER.info("Batch " + process.getKey() + " has been canceled, stopping it.");
+                    process.getValue().cancel();
+                }
+            }
+            boolean preempted = false;
+            if (Config.isProcessorPreemption() && !preemptedLastHeartbeat && runningBatches >= threadCount + highPriorityThreadCount
+                    && hasPreemptionVictim()) {
+                // only the node that reserved the HIGH batch pauses a LOW batch, the freed worker claims the HIGH batch
+                Integer highPriorityBatch = Manager.reservePreemption(node, Config.getClusterLease(), getInstanceValues(Config::getProcessorMaxRunning));
+                if (highPriorityBatch != null) {
+                    LOGGER.info("Node " + node + " frees a worker for batch " + highPriorityBatch + " with high priority.");
+                    preempted = preempt(null);
+                }
+            }
+            // the paused batch needs a heartbeat to free its worker
+            preemptedLastHeartbeat = preempted;
+        } catch (Throwable t) {
+            LOGGER.error("Impossible to renew leases of node " + node + ": " + t.getMessage());
+        }
+    }
+
+    /**
+     * Periodically schedules planned batches from the database,
+     * in the cluster mode it plans again batches of dead nodes.
+     */
+    public void startPolling(long interval) {
+        if (interval <= 0) {
+            return;
+        }
+        getPoller().scheduleWithFixedDelay(() -> {
+            try {
+                if (cluster) {
+                    FileGeneratorProcess.requeueExpiredBatches();
+                } else {
+                    FileGeneratorProcess.resumeAll(this);
+                }
+            } catch (Throwable t) {
+                LOGGER.error("Impossible to schedule planned batches: " + t.getMessage());
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Periodically removes scratch folders left behind by batches that are not planned or running.
+     */
+    public void startScratchCleanup(long interval) {
+        if (interval <= 0) {
+            return;
+        }
+        getPoller().scheduleWithFixedDelay(() -> {
+            try {
+                ScratchSpace.getInstance().cleanOrphans();
+            } catch (Throwable t) {
+                LOGGER.error("Impossible to clean the scratch space: " + t.getMessage());
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized ScheduledExecutorService getPoller() {
+        if (poller == null) {
+            poller = newScheduler("-Poller");
+        }
+        return poller;
+    }
+
+    private static ScheduledExecutorService newScheduler(String suffix) {
+        return Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, ProcessDispatcher.class.getSimpleName() + suffix);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return true if the batch waits in a queue or runs, a batch whose priority changed since it was queued is not scheduled
+     */
+    public boolean isScheduled(Batch batch) {
+        String priority = scheduledBatches.get(batch.getId());
+        return priority != null && priority.equals(getPriority(batch));
+    }
+
+    private static String getPriority(Batch batch) {
+        return batch.getPriority() == null ? "" : batch.getPriority();
+    }
+
     public void stop(long timeout, TimeUnit unit) {
+        synchronized (this) {
+            if (poller != null) {
+                poller.shutdownNow();
+                poller = null;
+            }
+        }
+        if (cluster) {
+            // running batches keep their leases until the workers stop
+            stopWorkers(timeout, unit);
+            synchronized (this) {
+                if (heartbeat != null) {
+                    heartbeat.shutdownNow();
+                    heartbeat = null;
+                }
+            }
+            return;
+        }
+        if (highPriorityPool != null) {
+            highPriorityPool.shutdown();
+        }
+        stop(pool, timeout, unit);
+        stop(highPriorityPool, timeout, unit);
+    }
+
+    private void stop(ExecutorService pool, long timeout, TimeUnit unit) {
         if (pool == null) {
             return ;
         }
@@ -71,6 +329,7 @@ public final class ProcessDispatcher {
         try {
             // Wait a while for existing tasks to terminate
             if (!pool.awaitTermination(timeout, unit)) {
+                markStopping();
                 pool.shutdownNow(); // Cancel currently executing tasks
                 // Wait a while for tasks to respond to being cancelled
                 if (!pool.awaitTermination(timeout, unit)) {
@@ -79,19 +338,279 @@ public final class ProcessDispatcher {
             }
         } catch (InterruptedException ie) {
             // (Re-)Cancel if current thread also interrupted
+            markStopping();
             pool.shutdownNow();
             // Preserve interrupt status
             Thread.currentThread().interrupt();
         }
     }
 
+    private void stopWorkers(long timeout, TimeUnit unit) {
+        running = false;
+        synchronized (wakeUp) {
+            wakeUp.notifyAll();
+        }
+        try {
+            for (Thread worker : workers) {
+                worker.join(unit.toMillis(timeout));
+                if (worker.isAlive()) {
+                    markStopping();
+                    worker.interrupt();
+                    worker.join(unit.toMillis(timeout));
+                    if (worker.isAlive()) {
+                        LOGGER.error("ProcessDispatcher worker " + worker.getName() + " did not terminate");
+                    }
+                }
+            }
+        } catch (InterruptedException ie) {
+            markStopping();
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+            Thread.currentThread().interrupt();
+        }
+        workers.clear();
+    }
+
+    /**
+     * Running batches interrupted by the shutdown are planned again instead of failing,
+     * see {@link FileGeneratorProcess#stopping()}.
+     */
+    private void markStopping() {
+        for (FileGeneratorProcess process : processes.values()) {
+            process.stopping();
+        }
+    }
+
+    /**
+     * In the cluster mode the batch is only announced to local workers, it runs on the first node that claims it.
+     */
     public Future<FileGeneratorProcess> addPeroProcess(FileGeneratorProcess task) {
         return addTask(task);
     }
 
     <T extends Runnable> Future<T> addTask(T task) {
+        if (cluster) {
+            synchronized (wakeUp) {
+                wakeUp.notifyAll();
+            }
+            return CompletableFuture.completedFuture(task);
+        }
         checkRunning();
-        return pool.submit(new ExceptionHandlingTask(task), task);
+        FileGeneratorProcess process = (FileGeneratorProcess) task;
+        Batch batch = process.getBatch();
+        Integer batchId = batch.getId();
+        String priority = getPriority(batch);
+        scheduledBatches.put(batchId, priority);
+        processes.put(batchId, process);
+        // a task queued again with a raised priority keeps its own entry, the older task is skipped when it fails to claim the batch
+        BatchTask batchTask = new BatchTask(task, batch, getFairTime(batch), () -> {
+            scheduledBatches.remove(batchId, priority);
+            processes.remove(batchId, process);
+        });
+        ExecutorService target = getPool(task);
+        boolean preempt = false;
+        if (Const.BATCH_PRIORITY_HIGH.equals(priority) && Config.isProcessorPreemption() && isBusy(target)) {
+            // the lane of HIGH batches is full too, the batch takes the first free worker of the main pool
+            target = pool;
+            preempt = isBusy(pool);
+        }
+        try {
+            Future<T> future = target.submit(batchTask, task);
+            if (preempt) {
+                preempt(pool);
+            }
+            return future;
+        } catch (RuntimeException ex) {
+            scheduledBatches.remove(batchId, priority);
+            processes.remove(batchId, process);
+            throw ex;
+        }
+    }
+
+    /**
+     * Stops the batch if it is queued or running in this dispatcher, the batch must be already canceled
+     * in the database. In the cluster mode batches running on other nodes are stopped by their heartbeat.
+     *
+     * @return true if the batch was queued or running here
+     */
+    public boolean cancel(Integer batchId) {
+        boolean found = false;
+        if (!cluster) {
+            for (ExecutorService executor : new ExecutorService[]{pool, highPriorityPool}) {
+                if (executor == null) {
+                    continue;
+                }
+                for (Runnable runnable : ((ThreadPoolExecutor) executor).getQueue().toArray(new Runnable[0])) {
+                    BatchTask task = ((PriorityFuture<?>) runnable).getTask();
+                    if (batchId.equals(task.batch.getId()) && ((ThreadPoolExecutor) executor).remove(runnable)) {
+                        task.onFinish.run();
+                        found = true;
+                    }
+                }
+            }
+            for (BatchTask task : removeWaiting(batchId)) {
+                task.onFinish.run();
+                found = true;
+            }
+        }
+        FileGeneratorProcess process = processes.get(batchId);
+        if (process != null) {
+            process.cancel();
+            found = true;
+        }
+        return found;
+    }
+
+    /**
+     * @return true if the node runs a LOW batch that can be paused and no batch is being paused
+     */
+    private boolean hasPreemptionVictim() {
+        boolean found = false;
+        for (FileGeneratorProcess process : processes.values()) {
+            if (!process.isRunning()) {
+                continue;
+            }
+            if (process.isPaused()) {
+                return false;
+            }
+            found |= !process.isCanceled() && Const.BATCH_PRIORITY_LOW.equals(process.getBatch().getPriority());
+        }
+        return found;
+    }
+
+    /**
+     * @return true if all workers of the pool are busy
+     */
+    private static boolean isBusy(ExecutorService executor) {
+        ThreadPoolExecutor threadPool = (ThreadPoolExecutor) executor;
+        return threadPool.getActiveCount() >= threadPool.getMaximumPoolSize();
+    }
+
+    /**
+     * Pauses one running LOW batch of the pool so that the HIGH batch gets its worker. The paused batch
+     * is planned again and it is scheduled by polling. Only one batch is being paused at a time.
+     * In the cluster mode there are no pools, all running batches of the node are candidates.
+     *
+     * @return true if a batch has been paused or it is being paused
+     */
+    private boolean preempt(ExecutorService target) {
+        FileGeneratorProcess victim = null;
+        for (FileGeneratorProcess process : processes.values()) {
+            if (!process.isRunning() || getPool(process) != target) {
+                continue;
+            }
+            if (process.isPaused()) {
+                // a worker is being freed already
+                return true;
+            }
+            if (victim == null && !process.isCanceled() && Const.BATCH_PRIORITY_LOW.equals(process.getBatch().getPriority())) {
+                victim = process;
+            }
+        }
+        if (victim != null) {
+            LOGGER.info("Batch " + victim.getBatch().getId() + " paused for a batch with high priority.");
+            victim.pause();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return time the batch is ordered by, further batches of the same user and instance are moved later
+     */
+    private synchronized long getFairTime(Batch batch) {
+        long now = System.currentTimeMillis();
+        long time = batch.getCreateDate() == null ? now : batch.getCreateDate().getTime();
+        if (fairInterval <= 0) {
+            return time;
+        }
+        // the entries of users that have nothing queued any more are not needed
+        fairTimes.values().removeIf(fairTime -> fairTime < now - fairInterval);
+        String flow = (batch.getCreatedBy() == null ? "" : batch.getCreatedBy()) + "|" + batch.getInstance();
+        Long last = fairTimes.get(flow);
+        if (last != null) {
+            time = Math.max(time, last + fairInterval / Math.max(1, Config.getProcessorWeight(batch.getInstance())));
+        }
+        fairTimes.put(flow, time);
+        return time;
+    }
+
+    /**
+     * @return true if the batch may start, otherwise it waits until a batch of the same instance finishes
+     */
+    private synchronized boolean acquireInstance(BatchTask task) {
+        String instance = task.batch.getInstance();
+        int maxRunning = Config.getProcessorMaxRunning(instance);
+        int running = runningPerInstance.getOrDefault(instance, 0);
+        if (maxRunning > 0 && running >= maxRunning) {
+            waitingPerInstance.computeIfAbsent(instance, key -> new PriorityQueue<>(
+                    Comparator.comparingLong(waiting -> getScore(waiting.batch.getPriority(), waiting.fairTime)))).add(task);
+            return false;
+        }
+        runningPerInstance.put(instance, running + 1);
+        return true;
+    }
+
+    /**
+     * @return the next batch waiting for the instance or null
+     */
+    private synchronized BatchTask releaseInstance(BatchTask task) {
+        String instance = task.batch.getInstance();
+        runningPerInstance.merge(instance, -1, Integer::sum);
+        if (runningPerInstance.get(instance) <= 0) {
+            runningPerInstance.remove(instance);
+        }
+        PriorityQueue<BatchTask> waiting = waitingPerInstance.get(instance);
+        BatchTask next = waiting == null ? null : waiting.poll();
+        if (waiting != null && waiting.isEmpty()) {
+            waitingPerInstance.remove(instance);
+        }
+        return next;
+    }
+
+    /**
+     * @return tasks of the batch that were waiting for a free slot of their instance
+     */
+    private synchronized List<BatchTask> removeWaiting(Integer batchId) {
+        List<BatchTask> removed = new ArrayList<>();
+        for (PriorityQueue<BatchTask> waiting : waitingPerInstance.values()) {
+            waiting.removeIf(task -> {
+                if (batchId.equals(task.batch.getId())) {
+                    removed.add(task);
+                    return true;
+                }
+                return false;
+            });
+        }
+        waitingPerInstance.values().removeIf(PriorityQueue::isEmpty);
+        return removed;
+    }
+
+    private void resubmit(BatchTask task) {
+        try {
+            getPool(task.task).submit(task, task.task);
+        } catch (RuntimeException ex) {
+            // the batch stays planned in the database and it is scheduled again by polling
+            LOGGER.warn("Batch " + task.batch.getId() + ": impossible to schedule again: " + ex.getMessage());
+            task.onFinish.run();
+        }
+    }
+
+    private static Map<String, Integer> getInstanceValues(Function<String, Integer> value) {
+        Map<String, Integer> values = new HashMap<>();
+        for (String instance : Config.getKrameriusInstances()) {
+            values.put(instance.trim(), value.apply(instance.trim()));
+        }
+        return values;
+    }
+
+    private ExecutorService getPool(Runnable task) {
+        if (highPriorityPool != null && task instanceof FileGeneratorProcess
+                && Const.BATCH_PRIORITY_HIGH.equals(((FileGeneratorProcess) task).getBatch().getPriority())) {
+            return highPriorityPool;
+        }
+        return pool;
     }
 
     private void checkRunning() {
@@ -105,30 +624,71 @@ public final class ProcessDispatcher {
 
     public void restart() {
         if (pool != null && pool.isShutdown()) {
-            pool = newThreadPool();
+            pool = newThreadPool(threadCount, "");
+        }
+        if (highPriorityPool != null && highPriorityPool.isShutdown()) {
+            highPriorityPool = newThreadPool(highPriorityThreadCount, "High-");
         }
     }
 
-    private ExecutorService newThreadPool() {
-        ExecutorService executorService = new ThreadPoolExecutor(threadCount, threadCount, 0L,
-                TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(11, new PriorityFutureComparator ()), new ProcessDispatcherThreadFactory()) {
+    private ExecutorService newThreadPool(int threads, String prefix) {
+        ExecutorService executorService = new ThreadPoolExecutor(threads, threads, 0L,
+                TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(11, new PriorityFutureComparator ()), new ProcessDispatcherThreadFactory(prefix)) {
 
             @Override
             protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
                 RunnableFuture<T> newTaskFor = super.newTaskFor(runnable, value);
-                return new PriorityFuture<>(newTaskFor, ((FileGeneratorProcess) value).getBatch().getPriority(), ((FileGeneratorProcess) value).getBatch().getCreateDate());
+                BatchTask task = (BatchTask) runnable;
+                return new PriorityFuture<>(newTaskFor, task, task.batch.getPriority(), new Timestamp(task.fairTime));
             }
 
         };
         return executorService;
     }
 
+    /**
+     * Runs the batch when its instance has a free slot, otherwise the batch waits for a slot
+     * and it is submitted again when another batch of the instance finishes.
+     */
+    private final class BatchTask implements Runnable {
+
+        private final Runnable task;
+        private final Batch batch;
+        private final long fairTime;
+        private final Runnable onFinish;
+
+        private BatchTask(Runnable task, Batch batch, long fairTime, Runnable onFinish) {
+            this.task = task;
+            this.batch = batch;
+            this.fairTime = fairTime;
+            this.onFinish = onFinish;
+        }
+
+        @Override
+        public void run() {
+            if (!acquireInstance(this)) {
+                return;
+            }
+            BatchTask next = null;
+            try {
+                new ExceptionHandlingTask(task, onFinish).run();
+            } finally {
+                next = releaseInstance(this);
+            }
+            if (next != null) {
+                resubmit(next);
+            }
+        }
+    }
+
     private static final class ExceptionHandlingTask implements Runnable {
 
         private final Runnable delegate;
+        private final Runnable onFinish;
 
-        public ExceptionHandlingTask(Runnable delegate) {
+        public ExceptionHandlingTask(Runnable delegate, Runnable onFinish) {
             this.delegate = delegate;
+            this.onFinish = onFinish;
         }
 
         @Override
@@ -137,6 +697,8 @@ public final class ProcessDispatcher {
                 delegate.run();
             } catch (Throwable t) {
                 Thread.currentThread().getUncaughtExceptionHandler().uncaughtException(Thread.currentThread(), t);
+            } finally {
+                onFinish.run();
             }
         }
 
@@ -145,15 +707,17 @@ public final class ProcessDispatcher {
     private static final class ProcessDispatcherThreadFactory implements ThreadFactory {
 
         private final ThreadFactory factory;
+        private final String prefix;
 
-        public ProcessDispatcherThreadFactory() {
-            factory = Executors.defaultThreadFactory();
+        public ProcessDispatcherThreadFactory(String prefix) {
+            this.factory = Executors.defaultThreadFactory();
+            this.prefix = prefix;
         }
 
         @Override
         public Thread newThread(Runnable r) {
             Thread thread = factory.newThread(r);
-            String name = ProcessDispatcher.class.getSimpleName() + '-' + thread.getName();
+            String name = ProcessDispatcher.class.getSimpleName() + '-' + prefix + thread.getName();
             thread.setName(name);
             UncaughtExceptionHandler uncaughtExceptionHandler = thread.getUncaughtExceptionHandler();
             thread.setUncaughtExceptionHandler(new ProcessDispatcherExceptionHandler(uncaughtExceptionHandler));
@@ -177,6 +741,24 @@ public final class ProcessDispatcher {
 
     }
 
+    private long getScore(String priority, long time) {
+        return time - transform(priority) * agingInterval;
+    }
+
+    private int transform(String priority) {
+        if (priority == null) {
+            return 0;
+        } else if (Const.BATCH_PRIORITY_HIGH.equals(priority)) {
+            return 1;
+        } else if (Const.BATCH_PRIORITY_MEDIUM.equals(priority)) {
+            return 0;
+        } else if (Const.BATCH_PRIORITY_LOW.equals(priority)) {
+            return -1;
+        } else {
+            return 0;
+        }
+    }
+
     private class PriorityFutureComparator  implements Comparator<Runnable> {
 
         @Override
@@ -188,48 +770,46 @@ public final class ProcessDispatcher {
             } else if (o2 ==null) {
                 return 1;
             } else {
-                int priorityO1 = transform(((PriorityFuture) o1).getPriority());
-                int priorityO2 = transform(((PriorityFuture) o2).getPriority());
+                // aging - kazdy interval cekani ma cenu jednoho stupne priority, takze LOW nemuze cekat do nekonecna;
+                // skore nezavisi na aktualnim case, proto je poradi ve fronte stale stejne
+                long scoreO1 = getScore((PriorityFuture) o1);
+                long scoreO2 = getScore((PriorityFuture) o2);
 
                 // -1 pro to, co ma bezet nejdriv
-                // 0 pokud maji stejnou prioritu --> pote rozhoduje cas vzniku
+                // 0 pokud maji stejne skore --> pote rozhoduje cas vzniku
                 // 1 pro to, co ma bezet naposled
-                return priorityO1 > priorityO2 ? -1 : (priorityO1 == priorityO2 ? compareTimestamp(o1, o2) : 1);
+                return scoreO1 < scoreO2 ? -1 : (scoreO1 == scoreO2 ? compareTimestamp(o1, o2) : 1);
             }
         }
 
+        private long getScore(PriorityFuture future) {
+            return ProcessDispatcher.this.getScore(future.getPriority(), future.getCreatedDate().getTime());
+        }
+
         private int compareTimestamp(Runnable o1, Runnable o2) {
             Timestamp timestampO1 = ((PriorityFuture) o1).getCreatedDate();
             Timestamp timestampO2 = ((PriorityFuture) o2).getCreatedDate();
 
             return timestampO1.compareTo(timestampO2);
         }
-
-        private int transform(String priority) {
-            if (priority == null) {
-                return 0;
-            } else if (Const.BATCH_PRIORITY_HIGH.equals(priority)) {
-                return 1;
-            } else if (Const.BATCH_PRIORITY_MEDIUM.equals(priority)) {
-                return 0;
-            } else if (Const.BATCH_PRIORITY_LOW.equals(priority)) {
-                return -1;
-            } else {
-                return 0;
-            }
-        }
     }
 
     private class PriorityFuture<T> implements RunnableFuture<T> {
 
         private RunnableFuture<T> src;
+        private BatchTask task;
         private String priority;
         private Timestamp createdDate;
 
-        public PriorityFuture(RunnableFuture<T> newTaskFor, String priority, Timestamp createdDate) {
+        public PriorityFuture(RunnableFuture<T> newTaskFor, BatchTask task, String priority, Timestamp createdDate) {
             this.src = newTaskFor;
+            this.task = task;
             this.priority = priority;
-            this.createdDate = createdDate;
+            this.createdDate = createdDate == null ? new Timestamp(System.currentTimeMillis()) : createdDate;
+        }
+
+        public BatchTask getTask() {
+            return task;
         }
 
         public String getPriority() {
@@ -0,0 +1,167 @@
+package cz.inovatika.altoEditor.process;
+
+import cz.inovatika.altoEditor.db.Manager;
+import cz.inovatika.altoEditor.db.models.Batch;
+import cz.inovatika.altoEditor.utils.Config;
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import static cz.inovatika.altoEditor.utils.FileUtils.deleteFolder;
+import static cz.inovatika.altoEditor.utils.FileUtils.getPidAsFile;
+
+/**
+ * Admission control of the scratch space where batches download images and generate ALTO.
+ *
+ * A batch reserves the space it is expected to need before it starts downloading, a batch that does not fit
+ * is deferred. The optional fast area ({@link Config#getProcessorScratchFastPath()}, e.g. tmpfs) is used
+ * first, the PERO folder takes the batches that do not fit into it. Folders left behind by batches that
+ * are not planned or running anymore are removed by {@link #cleanOrphans()}.
+ */
+public class ScratchSpace {
+
+    private static final Logger LOGGER = LogManager.getLogger(ScratchSpace.class.getName());
+
+    private static final long MB = 1024L * 1024L;
+
+    private static class LazyHolder {
+        private static final ScratchSpace INSTANCE = new ScratchSpace();
+    }
+
+    public static ScratchSpace getInstance() {
+        return LazyHolder.INSTANCE;
+    }
+
+    private final List<Area> areas = new ArrayList<>();
+    private final long pageSize;
+    private final long minFree;
+
+    private ScratchSpace() {
+        String fastPath = Config.getProcessorScratchFastPath();
+        if (fastPath != null && !fastPath.isEmpty()) {
+            areas.add(new Area(new File(fastPath), Config.getProcessorScratchFastQuota() * MB));
+        }
+        areas.add(new Area(new File(Config.getPeroPath()), Config.getProcessorScratchQuota() * MB));
+        this.pageSize = Config.getProcessorScratchPageSize() * MB;
+        this.minFree = Config.getProcessorScratchMinFree() * MB;
+    }
+
+    /**
+     * Reserves space for the pages of the batch. The area that already holds files of the batch
+     * from a previous attempt is preferred.
+     *
+     * @param pages number of pages the batch keeps in the scratch space at once
+     * @return the reservation or null if the batch does not fit now
+     */
+    public synchronized Reservation reserve(Batch batch, int pages) {
+        long bytes = Math.max(1, pages) * pageSize;
+        String folderName = getPidAsFile(batch.getPid());
+        List<Area> candidates = new ArrayList<>();
+        for (Area area : areas) {
+            if (new File(area.root, folderName).exists()) {
+                candidates.add(0, area);
+            } else {
+                candidates.add(area);
+            }
+        }
+        for (Area area : candidates) {
+            if (area.fits(bytes)) {
+                area.reserved += bytes;
+                area.batches++;
+                LOGGER.debug("Batch " + batch.getId() + ": " + bytes / MB + " MB reserved in " + area.root.getAbsolutePath());
+                return new Reservation(area, bytes);
+            }
+        }
+        return null;
+    }
+
+    public synchronized void release(Reservation reservation) {
+        if (reservation.released) {
+            return;
+        }
+        reservation.released = true;
+        reservation.area.reserved -= reservation.bytes;
+        reservation.area.batches--;
+    }
+
+    /**
+     * Removes folders of batches that are neither planned nor running and that were not touched
+     * for {@link Config#getProcessorScratchOrphanAge()} ms, e.g. after a crash.
+     */
+    public void cleanOrphans() throws SQLException {
+        Set<String> activeFolders = new HashSet<>();
+        for (Batch batch : Manager.findWaitingBatches()) {
+            activeFolders.add(getPidAsFile(batch.getPid()));
+        }
+        for (Batch batch : Manager.findRunningBatches()) {
+            activeFolders.add(getPidAsFile(batch.getPid()));
+        }
+        File cache = new File(Config.getProcessorPeroCachePath()).getAbsoluteFile();
+        long limit = System.currentTimeMillis() - Config.getProcessorScratchOrphanAge();
+        int removed = 0;
+        for (Area area : areas) {
+            File[] files = area.root.listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                if (activeFolders.contains(file.getName()) || file.getAbsoluteFile().equals(cache) || file.lastModified() > limit) {
+                    continue;
+                }
+                LOGGER.info("Removing orphaned scratch folder " + file.getAbsolutePath());
+                deleteFolder(file);
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            LOGGER.info(removed + " orphaned scratch folders removed.");
+        }
+    }
+
+    private final class Area {
+
+        private final File root;
+        private final long quota;
+        private long reserved = 0;
+        private int batches = 0;
+
+        private Area(File root, long quota) {
+            this.root = root;
+            this.quota = quota;
+        }
+
+        private boolean fits(long bytes) {
+            if (!root.exists() && !root.mkdirs()) {
+                LOGGER.warn("Scratch folder " + root.getAbsolutePath() + " can not be created.");
+                return false;
+            }
+            // the space reserved by running batches is not written completely yet
+            if (root.getUsableSpace() < reserved + bytes + minFree) {
+                return false;
+            }
+            // a batch bigger than the quota runs alone, otherwise it would never start
+            return quota <= 0 || reserved + bytes <= quota || batches == 0;
+        }
+    }
+
+    public static final class Reservation {
+
+        private final Area area;
+        private final long bytes;
+        private boolean released = false;
+
+        private Reservation(Area area, long bytes) {
+            this.area = area;
+            this.bytes = bytes;
+        }
+
+        public File getRoot() {
+            return area.root;
+        }
+    }
+}
@@ -2,12 +2,15 @@ package cz.inovatika.altoEditor.resource;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import cz.inovatika.altoEditor.db.Manager;
+import cz.inovatika.altoEditor.db.dao.Cursor;
 import cz.inovatika.altoEditor.db.dao.Dao;
+import cz.inovatika.altoEditor.db.dao.Page;
 import cz.inovatika.altoEditor.db.models.Batch;
 import cz.inovatika.altoEditor.db.models.User;
 import cz.inovatika.altoEditor.db.models.Version;
 import cz.inovatika.altoEditor.exception.RequestException;
 import cz.inovatika.altoEditor.models.DigitalObjectView;
+import cz.inovatika.altoEditor.process.ProcessDispatcher;
 import cz.inovatika.altoEditor.response.AltoEditorResponse;
 import cz.inovatika.altoEditor.server.AltoEditorInitializer;
 import cz.inovatika.altoEditor.user.UserProfile;
@@ -24,10 +27,10 @@ import org.apache.logging.log4j.Logger;
 
 import static cz.inovatika.altoEditor.response.AltoEditorResponse.RESPONSE_FORBIDDEN;
 import static cz.inovatika.altoEditor.response.AltoEditorResponse.RESPONSE_UNAUTHORIZED;
-import static cz.inovatika.altoEditor.user.UserUtils.getToken;
 import static cz.inovatika.altoEditor.user.UserUtils.getUserProfile;
 import static cz.inovatika.altoEditor.utils.Const.DEFAULT_RESOURCE_SQL;
 import static cz.inovatika.altoEditor.utils.Utils.getBooleanNodeValue;
+import static cz.inovatika.altoEditor.utils.Utils.getIntegerNodeValue;
 import static cz.inovatika.altoEditor.utils.Utils.getOptIntegerRequestValue;
 import static cz.inovatika.altoEditor.utils.Utils.getOptStringRequestValue;
 import static cz.inovatika.altoEditor.utils.Utils.getStringNodeValue;
@@ -118,7 +121,7 @@ public class DbResource {
             setResult(context, AltoEditorResponse.asError(context.res().getStatus(), context.result()));
             return;
         }
-        UserProfile userProfile = getUserProfile(getToken(context));
+        UserProfile userProfile = getUserProfile(context);
         try {
             User user = Manager.getUserByLogin(userProfile.getUsername());
             setResult(context, new AltoEditorResponse(user));
@@ -132,14 +135,13 @@ public class DbResource {
             setResult(context, AltoEditorResponse.asError(context.res().getStatus(), context.result()));
             return;
         }
-        UserProfile userProfile = getUserProfile(getToken(context));
+        UserProfile userProfile = getUserProfile(context);
         try {
             User user = Manager.getUserByLogin(userProfile.getUsername());
             if (user != null) {
                 throw new IOException(String.format("User login \"%s\" already exists.", user.getLogin()));
             } else {
-                Manager.createUser(userProfile.getUsername());
-                user = Manager.getUserByLogin(userProfile.getUsername());
+                user = Manager.createUser(userProfile.getUsername());
                 setResult(context, new AltoEditorResponse(user));
             }
         } catch (Exception ex) {
@@ -152,7 +154,7 @@ public class DbResource {
             setResult(context, AltoEditorResponse.asError(context.res().getStatus(), context.result()));
             return;
         }
-        UserProfile userProfile = getUserProfile(getToken(context));
+        UserProfile userProfile = getUserProfile(context);
         try {
             JsonNode node = AltoEditorInitializer.mapper.readTree(context.body());
             String userId = getStringNodeValue(node, Const.PARAM_USER_USERID);
@@ -199,7 +201,7 @@ public class DbResource {
             setResult(context, AltoEditorResponse.asError(context.res().getStatus(), context.result()));
             return;
         }
-        UserProfile userProfile = getUserProfile(getToken(context));
+        UserProfile userProfile = getUserProfile(context);
         try {
 //            String login = getOptStringRequestValue(context, "login");
             String id = getOptStringRequestValue(context, Const.PARAM_BATCH_ID);
@@ -238,21 +240,52 @@ public class DbResource {
             if (offset == null || offset < 0) {
                 offset = 0;
             }
+            Cursor cursor = getCursor(context, orderBy, orderSort);
+            boolean count = isCount(context);
 
             if (createDate != null || updateDate != null) {
                 checkDateFormat(Const.PARAM_BATCH_CREATE_DATE, createDate);
                 checkDateFormat(Const.PARAM_BATCH_UPDATE_DATE, updateDate);
             }
 
-            int totalCount = Manager.getBatchesCount(id, pid, createDate, updateDate, state, substate, priority, type, instanceId, estimateItemNumber, log);
-            List<Batch> batches = Manager.getBatches(id, pid, createDate, updateDate, state, substate, priority, type, instanceId, estimateItemNumber, log, orderBy, orderSort, limit, offset);
-            setResult(context, new AltoEditorResponse(batches, offset, totalCount));
+            Page<Batch> batches = Manager.getBatchesPage(id, pid, createDate, updateDate, state, substate, priority, type, instanceId, estimateItemNumber, log, orderBy, orderSort, limit, offset, cursor, count);
+            setResult(context, toResponse(batches, cursor));
 
         } catch (Exception ex) {
             setResult(context, AltoEditorResponse.asError(ex));
         }
     }
 
+    /**
+     * @return cursor of a keyset listing or null if the client pages by offset
+     */
+    private static Cursor getCursor(Context context, String orderBy, String orderSort) throws RequestException {
+        String token = getOptStringRequestValue(context, Const.PARAM_CURSOR);
+        return token == null || token.isEmpty() ? null : Cursor.decode(token, orderBy, orderSort);
+    }
+
+    /**
+     * @return false if the client does not need the total number of rows, e.g. it only shows the next page button
+     */
+    private static boolean isCount(Context context) throws RequestException {
+        String count = getOptStringRequestValue(context, Const.PARAM_COUNT);
+        if (count == null || Const.COUNT_EXACT.equals(count)) {
+            return true;
+        } else if (Const.COUNT_NONE.equals(count)) {
+            return false;
+        }
+        throw new RequestException(Const.PARAM_COUNT, String.format("Unsupported param \"%s\".", count));
+    }
+
+    private static AltoEditorResponse toResponse(Page<?> page, Cursor cursor) {
+        AltoEditorResponse response = new AltoEditorResponse(page.getItems(), page.getStart(), page.getTotal());
+        response.setHasNext(page.hasNext());
+        if (cursor != null) {
+            response.setNextCursor(cursor.encode());
+        }
+        return response;
+    }
+
     private static void checkDateFormat(String key, String date) throws RequestException {
         if (date == null) {
             return;
@@ -267,12 +300,37 @@ public class DbResource {
         }
     }
 
+    /**
+     * Cancels a planned or running batch, a running batch is stopped between pages and its scratch folder is removed.
+     */
+    public static void cancelBatch(Context context) {
+        if (RESPONSE_UNAUTHORIZED == context.res().getStatus() || RESPONSE_FORBIDDEN == context.res().getStatus()) {
+            setResult(context, AltoEditorResponse.asError(context.res().getStatus(), context.result()));
+            return;
+        }
+        UserProfile userProfile = getUserProfile(context);
+        try {
+            JsonNode node = AltoEditorInitializer.mapper.readTree(context.body());
+            Integer batchId = getIntegerNodeValue(node, Const.PARAM_BATCH_ID);
+
+            Batch batch = Manager.cancelBatch(batchId, "Canceled by " + userProfile.getUsername() + ".");
+            if (batch == null) {
+                throw new RequestException(Const.PARAM_BATCH_ID, String.format("Batch \"%s\" does not exist or it is not planned or running.", batchId));
+            }
+            ProcessDispatcher.getDefault().cancel(batchId);
+            LOGGER.info("Batch " + batchId + " canceled by " + userProfile.getUsername() + ".");
+            setResult(context, new AltoEditorResponse(batch));
+        } catch (Exception ex) {
+            setResult(context, AltoEditorResponse.asError(ex));
+        }
+    }
+
     public static void getAllDigitalObjects(Context context) {
         if (RESPONSE_UNAUTHORIZED == context.res().getStatus() || RESPONSE_FORBIDDEN == context.res().getStatus()) {
             setResult(context, AltoEditorResponse.asError(context.res().getStatus(), context.result()));
             return;
         }
-        UserProfile userProfile = getUserProfile(getToken(context));
+        UserProfile userProfile = getUserProfile(context);
         try {
             String id = getOptStringRequestValue(context, Const.PARAM_DIGITAL_OBJECT_ID);
             String rUserId = getOptStringRequestValue(context, Const.PARAM_DIGITAL_OBJECT_RUSERID);
@@ -311,10 +369,11 @@ public class DbResource {
             if (offset == null || offset < 0) {
                 offset = 0;
             }
-            int totalCount = Manager.getDigitalObjectsCount(id, rUserId, instance, pid, versionXml, datum, state, label, parentLabel, parentPath, login);
-            List<DigitalObjectView> digitalObjects = Manager.getDigitalObjects(id, rUserId, instance, pid, versionXml,
-                    datum, state, label, parentLabel, parentPath, login, orderBy, orderSort, limit, offset);
-            setResult(context, new AltoEditorResponse(digitalObjects, offset, totalCount));
+            Cursor cursor = getCursor(context, orderBy, orderSort);
+            boolean count = isCount(context);
+            Page<DigitalObjectView> digitalObjects = Manager.getDigitalObjectsPage(id, rUserId, instance, pid, versionXml,
+                    datum, state, label, parentLabel, parentPath, login, orderBy, orderSort, limit, offset, cursor, count);
+            setResult(context, toResponse(digitalObjects, cursor));
         } catch (Exception ex) {
             setResult(context, AltoEditorResponse.asError(ex));
         }
@@ -325,7 +384,7 @@ public class DbResource {
             setResult(context, AltoEditorResponse.asError(context.res().getStatus(), context.result()));
             return;
         }
-        UserProfile userProfile = getUserProfile(getToken(context));
+        UserProfile userProfile = getUserProfile(context);
         try {
             String id = getOptStringRequestValue(context, Const.PARAM_DIGITAL_OBJECT_ID);
             String rUserId = getOptStringRequestValue(context, Const.PARAM_DIGITAL_OBJECT_RUSERID);
@@ -364,10 +423,11 @@ public class DbResource {
             if (offset == null || offset < 0) {
                 offset = 0;
             }
-            int totalCount = Manager.getDigitalObjectsCount(id, rUserId, instance, pid, versionXml, datum, state, label, parentLabel, parentPath, userProfile.getUsername());
-            List<DigitalObjectView> digitalObjects = Manager.getDigitalObjects(id, rUserId, instance, pid, versionXml,
-                    datum, state, label, parentLabel, parentPath, userProfile.getUsername(), orderBy, orderSort, limit, offset);
-            setResult(context, new AltoEditorResponse(digitalObjects, offset, totalCount));
+            Cursor cursor = getCursor(context, orderBy, orderSort);
+            boolean count = isCount(context);
+            Page<DigitalObjectView> digitalObjects = Manager.getDigitalObjectsPage(id, rUserId, instance, pid, versionXml,
+                    datum, state, label, parentLabel, parentPath, userProfile.getUsername(), orderBy, orderSort, limit, offset, cursor, count);
+            setResult(context, toResponse(digitalObjects, cursor));
 
         } catch (Exception ex) {
             setResult(context, AltoEditorResponse.asError(ex));
@@ -379,7 +439,7 @@ public class DbResource {
             setResult(context, AltoEditorResponse.asError(context.res().getStatus(), context.result()));
             return;
         }
-        UserProfile userProfile = getUserProfile(getToken(context));
+        UserProfile userProfile = getUserProfile(context);
         try {
             JsonNode node = AltoEditorInitializer.mapper.readTree(context.body());
             String pid = getStringNodeValue(node, Const.PARAM_DIGITAL_OBJECT_PID);
@@ -411,7 +471,7 @@ public class DbResource {
             setResult(context, AltoEditorResponse.asError(context.res().getStatus(), context.result()));
             return;
         }
-        UserProfile userProfile = getUserProfile(getToken(context));
+        UserProfile userProfile = getUserProfile(context);
         try {
             JsonNode node = AltoEditorInitializer.mapper.readTree(context.body());
             String pid = getStringNodeValue(node, Const.PARAM_DIGITAL_OBJECT_PID);
@@ -23,12 +23,14 @@ import cz.inovatika.altoEditor.server.AltoEditorInitializer;
 import cz.inovatika.altoEditor.storage.akubra.AkubraStorage;
 import cz.inovatika.altoEditor.storage.akubra.AkubraStorage.AkubraObject;
 import cz.inovatika.altoEditor.user.UserProfile;
+import cz.inovatika.altoEditor.utils.Config;
 import cz.inovatika.altoEditor.utils.Const;
 import cz.inovatika.altoEditor.utils.OcrUtils;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.List;
 import org.apache.http.HttpResponse;
+import org.apache.http.util.EntityUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
@@ -36,7 +38,6 @@ import org.jetbrains.annotations.NotNull;
 import static cz.inovatika.altoEditor.editor.AltoDatastreamEditor.nextVersion;
 import static cz.inovatika.altoEditor.response.AltoEditorResponse.RESPONSE_FORBIDDEN;
 import static cz.inovatika.altoEditor.response.AltoEditorResponse.RESPONSE_UNAUTHORIZED;
-import static cz.inovatika.altoEditor.user.UserUtils.getToken;
 import static cz.inovatika.altoEditor.user.UserUtils.getUserProfile;
 import static cz.inovatika.altoEditor.utils.Utils.getIntegerNodeValue;
 import static cz.inovatika.altoEditor.utils.Utils.getOptStringNodeValue;
@@ -57,7 +58,7 @@ public class DigitalObjectResource {
             setResult(context, AltoEditorResponse.asError(context.res().getStatus(), context.result()));
             return;
         }
-        UserProfile userProfile = getUserProfile(getToken(context));
+        UserProfile userProfile = getUserProfile(context);
         try {
             String pid = getOptStringRequestValue(context, Const.PARAM_DIGITAL_OBJECT_PID);
             String instanceId = getOptStringRequestValue(context, Const.PARAM_DIGITAL_OBJECT_INSTANCE);
@@ -76,7 +77,7 @@ public class DigitalObjectResource {
             setResult(context, AltoEditorResponse.asError(context.res().getStatus(), context.result()));
             return;
         }
-        UserProfile userProfile = getUserProfile(getToken(context));
+        UserProfile userProfile = getUserProfile(context);
         try {
             String pid = getStringRequestValue(context, Const.PARAM_DIGITAL_OBJECT_PID);
             List<DigitalObjectView> digitalObjects = Manager.getDigitalObjects(null, pid);
@@ -99,6 +100,7 @@ public class DigitalObjectResource {
             if (HTTP_OK == response.getStatusLine().getStatusCode()) {
                 setResult(context, response, pid);
             } else {
+                EntityUtils.consumeQuietly(response.getEntity());
                 setResult(context, AltoEditorResponse.asError("FAILED: Impossible to download JPG", null));
             }
         } catch (Exception ex) {
@@ -111,7 +113,7 @@ public class DigitalObjectResource {
             setResult(context, AltoEditorResponse.asError(context.res().getStatus(), context.result()));
             return;
         }
-        UserProfile userProfile = getUserProfile(getToken(context));
+        UserProfile userProfile = getUserProfile(context);
         try {
             AltoEditorStringRecordResponse response = getAltoResponse(context, userProfile);
             setStringResult(context, response);
@@ -125,7 +127,7 @@ public class DigitalObjectResource {
             setResult(context, AltoEditorResponse.asError(context.res().getStatus(), context.result()));
             return;
         }
-        UserProfile userProfile = getUserProfile(getToken(context));
+        UserProfile userProfile = getUserProfile(context);
         try {
 //            String login = getOptStringRequestValue(context, Const.PARAM_USER_LOGIN);
             String pid = getStringRequestValue(context, Const.PARAM_DIGITAL_OBJECT_PID);
@@ -168,7 +170,7 @@ public class DigitalObjectResource {
             setResult(context, AltoEditorResponse.asError(context.res().getStatus(), context.result()));
             return;
         }
-        UserProfile userProfile = getUserProfile(getToken(context));
+        UserProfile userProfile = getUserProfile(context);
         try {
             AltoEditorStringRecordResponse response = getAltoResponse(context, userProfile);
             if (response != null && response.getData() != null) {
@@ -253,7 +255,7 @@ public class DigitalObjectResource {
             setResult(context, AltoEditorResponse.asError(context.res().getStatus(), context.result()));
             return;
         }
-        UserProfile userProfile = getUserProfile(getToken(context));
+        UserProfile userProfile = getUserProfile(context);
         try {
             JsonNode node = AltoEditorInitializer.mapper.readTree(context.body());
             String pid = getStringNodeValue(node, Const.PARAM_DIGITAL_OBJECT_PID);
@@ -317,7 +319,7 @@ public class DigitalObjectResource {
             setResult(context, AltoEditorResponse.asError(context.res().getStatus(), context.result()));
             return;
         }
-        UserProfile userProfile = getUserProfile(getToken(context));
+        UserProfile userProfile = getUserProfile(context);
         try {
             JsonNode node = AltoEditorInitializer.mapper.readTree(context.body());
             String pid = getStringNodeValue(node, Const.PARAM_DIGITAL_OBJECT_PID);
@@ -360,12 +362,17 @@ public class DigitalObjectResource {
                 if (isBlank(instanceId)) {
                     instanceId = getStringNodeValue(node, Const.PARAM_DIGITAL_OBJECT_INSTANCE);
                 }
-                Batch batch = Manager.addNewBatch(pid, priority, instanceId, 0);
-                FileGeneratorProcess process = FileGeneratorProcess.prepare(batch, userProfile);
-                ProcessDispatcher.getDefault().addPeroProcess(process);
+                // opakovany pozadavek se pripoji k jiz naplanovane nebo bezici davce
+                Batch batch = Manager.addNewBatchIfAbsent(pid, priority, instanceId, 0, userProfile.getUsername(), Config.isProcessorUpgradePriority());
+                ProcessDispatcher dispatcher = ProcessDispatcher.getDefault();
+                if (Const.BATCH_STATE_PLANNED.equals(batch.getState()) && !dispatcher.isScheduled(batch)) {
+                    FileGeneratorProcess process = FileGeneratorProcess.prepare(batch, userProfile);
+                    dispatcher.addPeroProcess(process);
+                }
                 AltoEditorStringRecordResponse response = new AltoEditorStringRecordResponse();
                 response.setPid(pid);
                 response.setContent("Proces zapsán");
+                response.setData(batch);
                 setStringResult(context, response);
             }
 
@@ -379,7 +386,7 @@ public class DigitalObjectResource {
             setResult(context, AltoEditorResponse.asError(context.res().getStatus(), context.result()));
             return;
         }
-        UserProfile userProfile = getUserProfile(getToken(context));
+        UserProfile userProfile = getUserProfile(context);
         try {
             JsonNode node = AltoEditorInitializer.mapper.readTree(context.body());
 //            String login = getStringNodeValue(node, Const.PARAM_USER_LOGIN);
@@ -409,7 +416,7 @@ public class DigitalObjectResource {
             setResult(context, AltoEditorResponse.asError(context.res().getStatus(), context.result()));
             return;
         }
-        UserProfile userProfile = getUserProfile(getToken(context));
+        UserProfile userProfile = getUserProfile(context);
         try {
             JsonNode node = AltoEditorInitializer.mapper.readTree(context.body());
 //            String login = getStringNodeValue(node, Const.PARAM_USER_LOGIN);
@@ -461,7 +468,7 @@ public class DigitalObjectResource {
             setResult(context, AltoEditorResponse.asError(context.res().getStatus(), context.result()));
             return;
         }
-        UserProfile userProfile = getUserProfile(getToken(context));
+        UserProfile userProfile = getUserProfile(context);
         try {
             JsonNode node = AltoEditorInitializer.mapper.readTree(context.body());
             Integer objectId = getIntegerNodeValue(node, Const.PARAM_DIGITAL_OBJECT_ID);
@@ -495,7 +502,7 @@ public class DigitalObjectResource {
             setResult(context, AltoEditorResponse.asError(context.res().getStatus(), context.result()));
             return;
         }
-        UserProfile userProfile = getUserProfile(getToken(context));
+        UserProfile userProfile = getUserProfile(context);
         try {
             JsonNode node = AltoEditorInitializer.mapper.readTree(context.body());
 //            String login = getStringNodeValue(node, Const.PARAM_USER_LOGIN);
@@ -515,7 +522,7 @@ public class DigitalObjectResource {
             setResult(context, AltoEditorResponse.asError(context.res().getStatus(), context.result()));
             return;
         }
-        UserProfile userProfile = getUserProfile(getToken(context));
+        UserProfile userProfile = getUserProfile(context);
         try {
             JsonNode node = AltoEditorInitializer.mapper.readTree(context.body());
 //            String login = getStringNodeValue(node, Const.PARAM_USER_LOGIN);
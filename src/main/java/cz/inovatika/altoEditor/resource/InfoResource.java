@@ -2,6 +2,7 @@ package cz.inovatika.altoEditor.resource;
 
 import io.javalin.http.Context;
 
+import cz.inovatika.altoEditor.kramerius.HttpClientManager;
 import cz.inovatika.altoEditor.models.ApplicationVersion;
 import cz.inovatika.altoEditor.response.AltoEditorResponse;
 import org.apache.logging.log4j.LogManager;
@@ -22,4 +23,13 @@ public class InfoResource {
         setContext(ctx, "application/json; charset=utf-8");
         setResult(ctx, new AltoEditorResponse(new ApplicationVersion()));
     }
+
+    public static void httpPools(Context ctx) {
+        if (401 == ctx.res().getStatus() || 403 == ctx.res().getStatus()) {
+            setResult(ctx, AltoEditorResponse.asError(ctx.res().getStatus(), ctx.result()));
+            return;
+        }
+        setContext(ctx, "application/json; charset=utf-8");
+        setResult(ctx, new AltoEditorResponse(HttpClientManager.getPoolStats()));
+    }
 }
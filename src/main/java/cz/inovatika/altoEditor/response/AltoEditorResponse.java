@@ -41,6 +41,12 @@ public class AltoEditorResponse {
     @XmlElement(name = "totalRow")
     private Integer totalRows;
 
+    @XmlElement(name = "nextCursor")
+    private String nextCursor;
+
+    @XmlElement(name = "hasNext")
+    private Boolean hasNext;
+
     @XmlElement(name = "status")
     private int status;
 
@@ -81,6 +87,25 @@ public class AltoEditorResponse {
         this.totalRows = totalRows;
     }
 
+    /**
+     * @return token of the next page of a keyset listing, null after the last page
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    public Boolean getHasNext() {
+        return hasNext;
+    }
+
+    public void setHasNext(Boolean hasNext) {
+        this.hasNext = hasNext;
+    }
+
     public Integer getStatus() {
         return status;
     }
@@ -2,7 +2,11 @@ package cz.inovatika.altoEditor.server;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import cz.inovatika.altoEditor.db.DataSource;
+import cz.inovatika.altoEditor.kramerius.HttpClientManager;
+import cz.inovatika.altoEditor.kramerius.K7Downloader;
 import cz.inovatika.altoEditor.process.FileGeneratorProcess;
+import cz.inovatika.altoEditor.process.PeroClient;
+import cz.inovatika.altoEditor.process.PeroOperator;
 import cz.inovatika.altoEditor.process.ProcessDispatcher;
 import cz.inovatika.altoEditor.resource.DbResource;
 import cz.inovatika.altoEditor.resource.DigitalObjectResource;
@@ -20,9 +24,11 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
+import java.util.Properties;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import static cz.inovatika.altoEditor.user.UserUtils.ATTRIBUTE_USER_PROFILE;
 import static cz.inovatika.altoEditor.user.UserUtils.getToken;
 import static cz.inovatika.altoEditor.user.UserUtils.getUserProfile;
 import static cz.inovatika.altoEditor.user.UserUtils.isAdminRolePath;
@@ -46,26 +52,39 @@ public class AltoEditorInitializer {
             initDb();
             initProcesses();
             initApi();
+            Runtime.getRuntime().addShutdownHook(new Thread(this::stop, "AltoEditorShutdown"));
         } catch (IOException ex) {
             throw new IllegalStateException(ex);
         }
     }
 
+    public void stop() {
+        ProcessDispatcher.getDefault().stop();
+        K7Downloader.shutdown();
+        PeroOperator.shutdown();
+        PeroClient.shutdown();
+        HttpClientManager.shutdown();
+    }
+
     private void initProcesses() {
         try {
-            FileGeneratorProcess.stopRunningBatches();
+            FileGeneratorProcess.requeueRunningBatches();
         } catch (Throwable t) {
-            LOGGER.error("Impossible to stop running batches");
+            LOGGER.error("Impossible to plan interrupted batches again");
         }
 
         ProcessDispatcher dispatcher = new ProcessDispatcher();
         ProcessDispatcher.setDefault(dispatcher);
         dispatcher.init();
-//        try {
-//            FileGeneratorProcess.resumeAll(dispatcher);
-//        } catch (Throwable t) {
-//            LOGGER.error("Impossible to resume planned batches.");
-//        }
+        if (!Config.isClusterEnabled()) {
+            try {
+                FileGeneratorProcess.resumeAll(dispatcher);
+            } catch (Throwable t) {
+                LOGGER.error("Impossible to resume planned batches.");
+            }
+        }
+        dispatcher.startPolling(Config.getProcessorPollInterval());
+        dispatcher.startScratchCleanup(Config.getProcessorScratchCleanupInterval());
     }
 
     private static void initHome() throws IOException {
@@ -133,6 +152,9 @@ public class AltoEditorInitializer {
                     LOGGER.warn("Unauthorized access (token is null) to endpoint: " + ctx.path());
                 } else {
                     UserProfile user = getUserProfile(token);
+                    if (user != null) {
+                        ctx.attribute(ATTRIBUTE_USER_PROFILE, user);
+                    }
                     if (user == null || user.getRoles().isEmpty()) {
                         ctx.status(401).result("Unauthorized");
                         LOGGER.warn("Unauthorized access (user roles is null) to endpoint: " + ctx.path());
@@ -156,6 +178,7 @@ public class AltoEditorInitializer {
         app.get(Const.PATH_ROOT, InfoResource::info);
         app.get(Const.PATH_APP, InfoResource::info);
         app.get(Const.PATH_INFO, InfoResource::info);
+        app.get(Const.PATH_INFO_HTTP, InfoResource::httpPools);
         app.get(Const.PATH_DB, DbResource::showSchema);
         app.post(Const.PATH_DB, DbResource::createSchema);
         app.get(Const.PATH_DB_VERSIONS, DbResource::getVersions);
@@ -170,6 +193,7 @@ public class AltoEditorInitializer {
         app.put(Const.PATH_DB_DIGITAL_OBJECT, DbResource::updateDigitalObject);
         app.get(Const.PATH_DB_BATCHES, DbResource::getBatches);
         app.get(Const.PATH_DB_BATCH, DbResource::getBatches);
+        app.post(Const.PATH_DB_BATCH_CANCEL, DbResource::cancelBatch);
         app.get(Const.PATH_DIGITAL_OBJECT_INFORMATION, DigitalObjectResource::getObjectInformation);
         app.get(Const.PATH_DIGITAL_OBJECT_IMAGE, DigitalObjectResource::getImage);
         app.get(Const.PATH_DIGITAL_OBJECT_ALTO, DigitalObjectResource::getAlto);
@@ -191,7 +215,15 @@ public class AltoEditorInitializer {
         String username = Config.getJdbcUserName();
         int poolSize = Config.getJdbcPoolSize();
 
-        DataSource.configure(url, driver, username, password, poolSize);
+        Properties properties = new Properties();
+        properties.setProperty("prepareThreshold", String.valueOf(Config.getJdbcPrepareThreshold()));
+        properties.setProperty("preparedStatementCacheQueries", String.valueOf(Config.getJdbcStatementCacheQueries()));
+        properties.setProperty("preparedStatementCacheSizeMiB", String.valueOf(Config.getJdbcStatementCacheSizeMiB()));
+        // strings are bound untyped like the former literals, the server infers the type of the column
+        properties.setProperty("stringtype", "unspecified");
+        properties.setProperty("reWriteBatchedInserts", "true");
+
+        DataSource.configure(url, driver, username, password, poolSize, properties);
         LOGGER.info("Connection to DB established.");
     }
 }
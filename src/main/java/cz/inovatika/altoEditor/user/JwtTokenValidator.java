@@ -0,0 +1,243 @@
+package cz.inovatika.altoEditor.user;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTVerifier;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.JWTDecodeException;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.auth0.jwt.interfaces.Claim;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import com.auth0.jwt.interfaces.RSAKeyProvider;
+import cz.inovatika.altoEditor.kramerius.HttpClientManager;
+import cz.inovatika.altoEditor.utils.Config;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyFactory;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import static java.net.HttpURLConnection.HTTP_OK;
+
+/**
+ * Validates Keycloak access tokens locally against the signing keys published in the JWKS.
+ *
+ * The key set is refreshed periodically and whenever a token signed by an unknown key arrives.
+ * Tokens that are not JWTs or do not carry the user claims are left to the userinfo endpoint.
+ */
+public class JwtTokenValidator {
+
+    private static final Logger LOGGER = LogManager.getLogger(JwtTokenValidator.class.getName());
+
+    private static final long MIN_REFRESH_INTERVAL = 30 * 1000;
+
+    private static class LazyHolder {
+        private static final JwtTokenValidator INSTANCE = new JwtTokenValidator(getJwksLocation(), Config.getKeycloakJwksRefresh(), Config.getKeycloakIssuer());
+    }
+
+    public static JwtTokenValidator getInstance() {
+        return LazyHolder.INSTANCE;
+    }
+
+    private final String jwksLocation;
+    private final long refreshInterval;
+    private final String issuer;
+    private final JwksKeyProvider keyProvider = new JwksKeyProvider();
+
+    private volatile Map<String, RSAPublicKey> keys = Collections.emptyMap();
+    private volatile long lastRefresh = 0;
+
+    public JwtTokenValidator(String jwksLocation, long refreshInterval, String issuer) {
+        this.jwksLocation = jwksLocation;
+        this.refreshInterval = refreshInterval;
+        this.issuer = issuer;
+    }
+
+    public boolean isEnabled() {
+        return jwksLocation != null && !jwksLocation.isEmpty();
+    }
+
+    /**
+     * @return the user of a valid token or {@code null} if the token can not be validated locally
+     * @throws IOException if the token is a JWT but it is not valid
+     */
+    public UserProfile validate(String token) throws IOException {
+        if (!isEnabled() || token == null || token.isEmpty()) {
+            return null;
+        }
+        DecodedJWT jwt;
+        try {
+            jwt = JWT.decode(token);
+        } catch (JWTDecodeException ex) {
+            LOGGER.debug("Token is not a JWT, it will be validated by Keycloak.");
+            return null;
+        }
+        Algorithm algorithm = getAlgorithm(jwt.getAlgorithm());
+        if (algorithm == null) {
+            LOGGER.debug("Unsupported token algorithm " + jwt.getAlgorithm() + ", it will be validated by Keycloak.");
+            return null;
+        }
+        try {
+            JWTVerifier verifier = issuer == null || issuer.isEmpty()
+                    ? JWT.require(algorithm).build()
+                    : JWT.require(algorithm).withIssuer(issuer).build();
+            jwt = verifier.verify(jwt);
+        } catch (JWTVerificationException ex) {
+            LOGGER.warn("Token validation failed: " + ex.getMessage());
+            throw new IOException("Token validation failed: " + ex.getMessage(), ex);
+        }
+
+        String username = getUsername(jwt);
+        List<String> roles = getRoles(jwt);
+        if (username == null || username.isEmpty() || roles == null) {
+            LOGGER.debug("Token does not contain user claims, it will be validated by Keycloak.");
+            return null;
+        }
+        return new UserProfile(username, token, roles);
+    }
+
+    private Algorithm getAlgorithm(String name) {
+        if ("RS256".equals(name)) {
+            return Algorithm.RSA256(keyProvider);
+        } else if ("RS384".equals(name)) {
+            return Algorithm.RSA384(keyProvider);
+        } else if ("RS512".equals(name)) {
+            return Algorithm.RSA512(keyProvider);
+        }
+        return null;
+    }
+
+    private static String getUsername(DecodedJWT jwt) {
+        String username = jwt.getClaim("uid").asString();
+        if (username == null || username.isEmpty()) {
+            username = jwt.getClaim("preferred_username").asString();
+        }
+        return username;
+    }
+
+    private static List<String> getRoles(DecodedJWT jwt) {
+        Claim roles = jwt.getClaim("roles");
+        if (!roles.isMissing() && !roles.isNull()) {
+            return roles.asList(String.class);
+        }
+        Claim realmAccess = jwt.getClaim("realm_access");
+        if (!realmAccess.isMissing() && !realmAccess.isNull()) {
+            Object realmRoles = realmAccess.asMap().get("roles");
+            if (realmRoles instanceof List) {
+                List<String> result = new ArrayList<>();
+                for (Object role : (List<?>) realmRoles) {
+                    result.add(String.valueOf(role));
+                }
+                return result;
+            }
+        }
+        return null;
+    }
+
+    private RSAPublicKey getKey(String keyId) {
+        long now = System.currentTimeMillis();
+        RSAPublicKey key = keyId == null ? null : keys.get(keyId);
+        if (now - lastRefresh > refreshInterval || (key == null && now - lastRefresh > MIN_REFRESH_INTERVAL)) {
+            refresh();
+            key = keyId == null ? null : keys.get(keyId);
+        }
+        if (key == null && keyId == null && keys.size() == 1) {
+            key = keys.values().iterator().next();
+        }
+        return key;
+    }
+
+    private synchronized void refresh() {
+        long now = System.currentTimeMillis();
+        if (now - lastRefresh <= MIN_REFRESH_INTERVAL && !keys.isEmpty()) {
+            return;
+        }
+        try {
+            keys = parseKeys(readJwks());
+            LOGGER.info("Loaded " + keys.size() + " signing keys from " + jwksLocation);
+        } catch (Exception ex) {
+            LOGGER.error("Impossible to load signing keys from " + jwksLocation + ": " + ex.getMessage());
+        } finally {
+            lastRefresh = now;
+        }
+    }
+
+    private String readJwks() throws IOException {
+        if (jwksLocation.startsWith("file:")) {
+            return Files.readString(new File(URI.create(jwksLocation)).toPath(), StandardCharsets.UTF_8);
+        }
+        HttpClient httpClient = HttpClientManager.getKeycloakClient();
+        HttpGet httpGet = new HttpGet(jwksLocation);
+        HttpResponse response = httpClient.execute(httpGet);
+        try {
+            if (HTTP_OK == response.getStatusLine().getStatusCode() && response.getEntity() != null) {
+                return EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+            } else {
+                throw new IOException("Downloading JWKS ended with code " + response.getStatusLine().getStatusCode());
+            }
+        } finally {
+            EntityUtils.consumeQuietly(response.getEntity());
+        }
+    }
+
+    private static Map<String, RSAPublicKey> parseKeys(String jwks) throws Exception {
+        Map<String, RSAPublicKey> result = new HashMap<>();
+        JSONArray keyArray = new JSONObject(jwks).getJSONArray("keys");
+        KeyFactory keyFactory = KeyFactory.getInstance("RSA");
+        for (int i = 0; i < keyArray.length(); i++) {
+            JSONObject key = keyArray.getJSONObject(i);
+            if (!"RSA".equals(key.optString("kty")) || "enc".equals(key.optString("use"))) {
+                continue;
+            }
+            BigInteger modulus = new BigInteger(1, Base64.getUrlDecoder().decode(key.getString("n")));
+            BigInteger exponent = new BigInteger(1, Base64.getUrlDecoder().decode(key.getString("e")));
+            RSAPublicKey publicKey = (RSAPublicKey) keyFactory.generatePublic(new RSAPublicKeySpec(modulus, exponent));
+            result.put(key.optString("kid", null), publicKey);
+        }
+        return result;
+    }
+
+    private static String getJwksLocation() {
+        String jwks = Config.getKeycloakJwks();
+        if (jwks == null || jwks.isEmpty() || jwks.startsWith("file:") || jwks.startsWith("http")) {
+            return jwks;
+        }
+        return Config.getKeycloakUrl() + jwks;
+    }
+
+    private final class JwksKeyProvider implements RSAKeyProvider {
+
+        @Override
+        public RSAPublicKey getPublicKeyById(String keyId) {
+            return getKey(keyId);
+        }
+
+        @Override
+        public RSAPrivateKey getPrivateKey() {
+            return null;
+        }
+
+        @Override
+        public String getPrivateKeyId() {
+            return null;
+        }
+    }
+}
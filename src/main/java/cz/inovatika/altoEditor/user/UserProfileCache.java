@@ -0,0 +1,189 @@
+package cz.inovatika.altoEditor.user;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.exceptions.JWTDecodeException;
+import cz.inovatika.altoEditor.utils.Config;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Bounded cache of resolved {@link UserProfile}s keyed by the hash of the access token.
+ *
+ * Entries live at most the configured TTL and never longer than the expiry of the token itself.
+ * Concurrent lookups of the same token are coalesced into a single call of the loader.
+ */
+public class UserProfileCache {
+
+    private static final Logger LOGGER = LogManager.getLogger(UserProfileCache.class.getName());
+
+    private static class LazyHolder {
+        private static final UserProfileCache INSTANCE = new UserProfileCache(Config.getKeycloakCacheSize(), Config.getKeycloakCacheTtl());
+    }
+
+    public static UserProfileCache getInstance() {
+        return LazyHolder.INSTANCE;
+    }
+
+    private final int maxSize;
+    private final long ttl;
+    private final Map<String, CacheEntry> entries;
+    private final ConcurrentHashMap<String, CompletableFuture<UserProfile>> pending = new ConcurrentHashMap<>();
+
+    public UserProfileCache(int maxSize, long ttl) {
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                return size() > UserProfileCache.this.maxSize;
+            }
+        };
+    }
+
+    public UserProfile get(String token, ProfileLoader loader) throws IOException {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+        if (maxSize <= 0 || ttl <= 0) {
+            return loader.load(token);
+        }
+        String key = hash(token);
+        UserProfile cached = getCached(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        CompletableFuture<UserProfile> future = new CompletableFuture<>();
+        CompletableFuture<UserProfile> running = pending.putIfAbsent(key, future);
+        if (running != null) {
+            return await(running);
+        }
+        try {
+            // another thread could have finished the lookup in the meantime
+            UserProfile profile = getCached(key);
+            if (profile == null) {
+                profile = loader.load(token);
+                if (profile != null) {
+                    put(key, profile, getExpiration(token));
+                }
+            }
+            future.complete(profile);
+            return profile;
+        } catch (IOException | RuntimeException ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            pending.remove(key, future);
+        }
+    }
+
+    public void invalidate(String token) {
+        if (token == null || token.isEmpty()) {
+            return;
+        }
+        synchronized (entries) {
+            entries.remove(hash(token));
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private UserProfile getCached(String key) {
+        synchronized (entries) {
+            CacheEntry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAt <= System.currentTimeMillis()) {
+                entries.remove(key);
+                return null;
+            }
+            return entry.profile;
+        }
+    }
+
+    private void put(String key, UserProfile profile, long tokenExpiration) {
+        long expiresAt = System.currentTimeMillis() + ttl;
+        if (tokenExpiration > 0) {
+            expiresAt = Math.min(expiresAt, tokenExpiration);
+        }
+        if (expiresAt <= System.currentTimeMillis()) {
+            return;
+        }
+        synchronized (entries) {
+            entries.put(key, new CacheEntry(profile, expiresAt));
+        }
+    }
+
+    private static UserProfile await(CompletableFuture<UserProfile> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for user info", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * @return expiration of the JWT in millis or -1 for opaque tokens
+     */
+    private static long getExpiration(String token) {
+        try {
+            Date expiresAt = JWT.decode(token).getExpiresAt();
+            return expiresAt == null ? -1 : expiresAt.getTime();
+        } catch (JWTDecodeException ex) {
+            LOGGER.debug("Token is not a JWT, using default TTL.");
+            return -1;
+        }
+    }
+
+    private static String hash(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public interface ProfileLoader {
+        UserProfile load(String token) throws IOException;
+    }
+
+    private static final class CacheEntry {
+
+        private final UserProfile profile;
+        private final long expiresAt;
+
+        private CacheEntry(UserProfile profile, long expiresAt) {
+            this.profile = profile;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -12,19 +12,43 @@ public class UserUtils {
 
     private static final Logger LOGGER = LogManager.getLogger(UserUtils.class.getName());
 
+    public static final String ATTRIBUTE_USER_PROFILE = "userProfile";
+
     public static UserProfile getUserProfile(String token) {
         if (token == null || token.isEmpty()) {
             return null;
         }
-        K7UserInfo k7UserInfo = new K7UserInfo();
         try {
-            UserProfile user = k7UserInfo.getUser(token);
-            return user;
+            return UserProfileCache.getInstance().get(token, UserUtils::loadUserProfile);
         } catch (IOException e) {
             return null;
         }
     }
 
+    /**
+     * Returns the profile resolved by the authentication filter, resolves it otherwise.
+     */
+    public static UserProfile getUserProfile(Context ctx) {
+        UserProfile user = ctx.attribute(ATTRIBUTE_USER_PROFILE);
+        if (user == null) {
+            user = getUserProfile(getToken(ctx));
+            if (user != null) {
+                ctx.attribute(ATTRIBUTE_USER_PROFILE, user);
+            }
+        }
+        return user;
+    }
+
+    private static UserProfile loadUserProfile(String token) throws IOException {
+        UserProfile user = JwtTokenValidator.getInstance().validate(token);
+        if (user != null) {
+            return user;
+        }
+        // opaque token or token without user claims
+        K7UserInfo k7UserInfo = new K7UserInfo();
+        return k7UserInfo.getUser(token);
+    }
+
     public static String getToken(Context ctx) {
         String authHeader = ctx.header("Authorization");
         return authHeader != null && authHeader.startsWith("Bearer ") ? authHeader.substring(7) : null;
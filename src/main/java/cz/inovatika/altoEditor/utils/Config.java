@@ -1,5 +1,7 @@
 package cz.inovatika.altoEditor.utils;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.util.Arrays;
 import java.util.List;
 
@@ -16,6 +18,9 @@ public class Config {
     private static final String PROP_APPLICATION_JDBC_USERNAME = "application.jdbc.username";
     private static final String PROP_APPLICATION_JDBC_PASSWORD = "application.jdbc.password";
     private static final String PROP_APPLICATION_JDBC_POOLSIZE = "application.jdbc.poolSize";
+    private static final String PROP_APPLICATION_JDBC_PREPARE_THRESHOLD = "application.jdbc.prepareThreshold";
+    private static final String PROP_APPLICATION_JDBC_STATEMENT_CACHE_QUERIES = "application.jdbc.statementCacheQueries";
+    private static final String PROP_APPLICATION_JDBC_STATEMENT_CACHE_SIZE = "application.jdbc.statementCacheSizeMiB";
 
     private static final String PROP_APPLICATION_OBJECT_STORE_PATTERN = "application.objectStore.pattern";
     private static final String PROP_APPLICATION_OBJECT_STORE_PATH = "application.objectStore.path";
@@ -23,8 +28,30 @@ public class Config {
     private static final String PROP_APPLICATION_DATA_STREAM_STORE_PATH = "application.dataStreamStore.path";
     private static final String PROP_APPLICATION_PERO_PATH = "application.pero.path";
 
+    private static final String PROP_APPLICATION_HTTP = "application.http";
+    private static final String SUFFIX_HTTP_MAX_TOTAL = "maxTotal";
+    private static final String SUFFIX_HTTP_MAX_PER_ROUTE = "maxPerRoute";
+    private static final String SUFFIX_HTTP_CONNECT_TIMEOUT = "connectTimeout";
+    private static final String SUFFIX_HTTP_READ_TIMEOUT = "readTimeout";
+    private static final String SUFFIX_HTTP_IDLE_TIMEOUT = "idleTimeout";
+    private static final String PROP_APPLICATION_DOWNLOAD_PARALLEL = "application.download.parallel";
+    private static final String PROP_APPLICATION_DOWNLOAD_RETRIES = "application.download.retries";
+    private static final String PROP_APPLICATION_DOWNLOAD_RETRY_DELAY = "application.download.retryDelay";
+    private static final String PROP_APPLICATION_PIPELINE_QUEUE_SIZE = "application.pipeline.queueSize";
+    private static final String PROP_APPLICATION_CLUSTER_ENABLED = "application.cluster.enabled";
+    private static final String PROP_APPLICATION_CLUSTER_NODE = "application.cluster.node";
+    private static final String PROP_APPLICATION_CLUSTER_LEASE = "application.cluster.lease";
+    private static final String PROP_APPLICATION_CLUSTER_HEARTBEAT = "application.cluster.heartbeat";
+    private static final String PROP_APPLICATION_CLUSTER_POLL_INTERVAL = "application.cluster.pollInterval";
+    private static final String PROP_APPLICATION_CLUSTER_USER_CACHE_TTL = "application.cluster.userCacheTtl";
+
     private static final String PROP_KEYCLOAK_URL = "application.keycloak.url";
     private static final String PROP_KEYCLOAK_USER_INFO_URL = "application.keycloak.userInfo";
+    private static final String PROP_KEYCLOAK_CACHE_SIZE = "application.keycloak.cache.size";
+    private static final String PROP_KEYCLOAK_CACHE_TTL = "application.keycloak.cache.ttl";
+    private static final String PROP_KEYCLOAK_JWKS = "application.keycloak.jwks.url";
+    private static final String PROP_KEYCLOAK_JWKS_REFRESH = "application.keycloak.jwks.refresh";
+    private static final String PROP_KEYCLOAK_ISSUER = "application.keycloak.issuer";
 
     private static final String PROP_PERMISSION_EDITOR = "application.permission.editor";
     private static final String PROP_PERMISSION_CURATOR = "application.permission.curator";
@@ -41,6 +68,9 @@ public class Config {
     private static final String SUFFIX_KRAMERIUS_INSTANCE_URL_UPLOAD_STREAM = "urlUploadStream";
     private static final String SUFFIX_KRAMERIUS_INSTANCE_URL_MODEL_INFO = "urlModelInfo";
     private static final String SUFFIX_KRAMERIUS_INSTANCE_URL_IMAGE = "urlImage";
+    private static final String SUFFIX_KRAMERIUS_INSTANCE_DOWNLOAD_PARALLEL = "download.parallel";
+    private static final String SUFFIX_KRAMERIUS_INSTANCE_PROCESSOR_WEIGHT = "processor.weight";
+    private static final String SUFFIX_KRAMERIUS_INSTANCE_PROCESSOR_MAX_RUNNING = "processor.maxRunning";
     private static final String SUFFIX_KRAMERIUS_INSTANCE_USERNAME = "username";
     private static final String SUFFIX_KRAMERIUS_INSTANCE_PASSWORD = "passwd";
     private static final String SUFFIX_KRAMERIUS_INSTANCE_CLIENT_ID = "clientId";
@@ -54,6 +84,41 @@ public class Config {
     private static final String PROP_PROCESSOR_PERO_ARG = "processor.pero.arg";
     private static final String PROP_PROCESSOR_PERO_TIMEOUT = "processor.pero.timeout";
     private static final String PROP_PROCESSOR_PERO_KEY = "processor.pero.key";
+    private static final String PROP_PROCESSOR_PERO_MODE = "processor.pero.mode";
+    private static final String PROP_PROCESSOR_PERO_URL = "processor.pero.url";
+    private static final String PROP_PROCESSOR_PERO_ENGINE = "processor.pero.engine";
+    private static final String PROP_PROCESSOR_PERO_POLL_INTERVAL = "processor.pero.pollInterval";
+    private static final String PROP_PROCESSOR_PERO_UPLOAD_THREADS = "processor.pero.uploadThreads";
+    private static final String PROP_PROCESSOR_PERO_BATCH_SIZE = "processor.pero.batchSize";
+    private static final String PROP_PROCESSOR_PERO_PARALLEL = "processor.pero.parallel";
+    private static final String PROP_PROCESSOR_PERO_RETRY_ATTEMPTS = "processor.pero.retryAttempts";
+    private static final String PROP_PROCESSOR_PERO_RETRY_DELAY = "processor.pero.retryDelay";
+    private static final String PROP_PROCESSOR_PERO_OUTPUT_LIMIT = "processor.pero.outputLimit";
+    private static final String PROP_PROCESSOR_PERO_CACHE_ENABLED = "processor.pero.cache.enabled";
+    private static final String PROP_PROCESSOR_PERO_CACHE_PATH = "processor.pero.cache.path";
+    private static final String PROP_PROCESSOR_PERO_CACHE_MAX_SIZE = "processor.pero.cache.maxSize";
+    private static final String PROP_PROCESSOR_PERO_CACHE_VERSION = "processor.pero.cache.version";
+    private static final String PROP_PROCESSOR_IMAGE_ENABLED = "processor.image.enabled";
+    private static final String PROP_PROCESSOR_IMAGE_MAX_LONG_EDGE = "processor.image.maxLongEdge";
+    private static final String PROP_PROCESSOR_IMAGE_QUALITY = "processor.image.quality";
+    private static final String PROP_PROCESSOR_IMAGE_THREADS = "processor.image.threads";
+    private static final String PROP_PROCESSOR_SCRATCH_QUOTA = "processor.scratch.quota";
+    private static final String PROP_PROCESSOR_SCRATCH_MIN_FREE = "processor.scratch.minFree";
+    private static final String PROP_PROCESSOR_SCRATCH_PAGE_SIZE = "processor.scratch.pageSize";
+    private static final String PROP_PROCESSOR_SCRATCH_FAST_PATH = "processor.scratch.fastPath";
+    private static final String PROP_PROCESSOR_SCRATCH_FAST_QUOTA = "processor.scratch.fastQuota";
+    private static final String PROP_PROCESSOR_SCRATCH_CLEANUP_INTERVAL = "processor.scratch.cleanupInterval";
+    private static final String PROP_PROCESSOR_SCRATCH_ORPHAN_AGE = "processor.scratch.orphanAge";
+    private static final String PROP_PROCESSOR_SAVE_THREADS = "processor.save.threads";
+    private static final String PROP_PROCESSOR_SAVE_COMMIT_SIZE = "processor.save.commitSize";
+    private static final String PROP_PROCESSOR_THREADS = "processor.threads";
+    private static final String PROP_PROCESSOR_HIGH_PRIORITY_THREADS = "processor.highPriorityThreads";
+    private static final String PROP_PROCESSOR_AGING_INTERVAL = "processor.agingInterval";
+    private static final String PROP_PROCESSOR_MAX_ATTEMPTS = "processor.maxAttempts";
+    private static final String PROP_PROCESSOR_POLL_INTERVAL = "processor.pollInterval";
+    private static final String PROP_PROCESSOR_UPGRADE_PRIORITY = "processor.upgradePriority";
+    private static final String PROP_PROCESSOR_FAIR_INTERVAL = "processor.fairInterval";
+    private static final String PROP_PROCESSOR_PREEMPTION = "processor.preemption";
 
 
     public static final String getVersion() {
@@ -80,6 +145,24 @@ public class Config {
         return (Integer) getDefault(PROP_APPLICATION_JDBC_POOLSIZE, 10);
     }
 
+    /**
+     * @return number of executions of a prepared statement after which the driver uses a named server side statement
+     */
+    public static final Integer getJdbcPrepareThreshold() {
+        return (Integer) getDefault(PROP_APPLICATION_JDBC_PREPARE_THRESHOLD, 1);
+    }
+
+    /**
+     * @return number of prepared statements cached by the driver for each connection
+     */
+    public static final Integer getJdbcStatementCacheQueries() {
+        return (Integer) getDefault(PROP_APPLICATION_JDBC_STATEMENT_CACHE_QUERIES, 256);
+    }
+
+    public static final Integer getJdbcStatementCacheSizeMiB() {
+        return (Integer) getDefault(PROP_APPLICATION_JDBC_STATEMENT_CACHE_SIZE, 5);
+    }
+
     public static final Integer getPort() {
         return (Integer) getDefault(PROP_APPLICATION_PORT, 8080);
     }
@@ -106,6 +189,95 @@ public class Config {
         return normalizePath((String) getDefault(PROP_APPLICATION_PERO_PATH, "./tmpPero"));
     }
 
+    public static final int getHttpMaxTotal(String instance) {
+        return getHttpValue(instance, SUFFIX_HTTP_MAX_TOTAL, 50);
+    }
+
+    public static final int getHttpMaxPerRoute(String instance) {
+        return getHttpValue(instance, SUFFIX_HTTP_MAX_PER_ROUTE, 20);
+    }
+
+    public static final int getHttpConnectTimeout(String instance) {
+        return getHttpValue(instance, SUFFIX_HTTP_CONNECT_TIMEOUT, 10000);
+    }
+
+    public static final int getHttpReadTimeout(String instance) {
+        return getHttpValue(instance, SUFFIX_HTTP_READ_TIMEOUT, 120000);
+    }
+
+    public static final int getHttpIdleTimeout(String instance) {
+        return getHttpValue(instance, SUFFIX_HTTP_IDLE_TIMEOUT, 30000);
+    }
+
+    public static final int getDownloadParallel(String instance) {
+        int value = (Integer) getDefault(PROP_APPLICATION_DOWNLOAD_PARALLEL, 4);
+        if (instance != null && !instance.isEmpty()) {
+            value = (Integer) getDefault(PREFIX_KRAMERIUS_INSTANCE + "." + instance + "." + SUFFIX_KRAMERIUS_INSTANCE_DOWNLOAD_PARALLEL, value);
+        }
+        return value;
+    }
+
+    public static final int getDownloadRetries() {
+        return (Integer) getDefault(PROP_APPLICATION_DOWNLOAD_RETRIES, 3);
+    }
+
+    public static final long getDownloadRetryDelay() {
+        return (long) getDefault(PROP_APPLICATION_DOWNLOAD_RETRY_DELAY, 2000L);
+    }
+
+    public static final int getPipelineQueueSize() {
+        return (Integer) getDefault(PROP_APPLICATION_PIPELINE_QUEUE_SIZE, 4);
+    }
+
+    public static final boolean isClusterEnabled() {
+        return (Boolean) getDefault(PROP_APPLICATION_CLUSTER_ENABLED, false);
+    }
+
+    /**
+     * Name of this node in the cluster, host name and process id by default.
+     */
+    public static final String getClusterNode() {
+        String node = (String) getDefault(PROP_APPLICATION_CLUSTER_NODE, "");
+        if (node == null || node.isEmpty()) {
+            try {
+                node = InetAddress.getLocalHost().getHostName() + ":" + ProcessHandle.current().pid();
+            } catch (UnknownHostException ex) {
+                node = "node:" + ProcessHandle.current().pid();
+            }
+        }
+        return node;
+    }
+
+    public static final long getClusterLease() {
+        return (long) getDefault(PROP_APPLICATION_CLUSTER_LEASE, 60000L);
+    }
+
+    public static final long getClusterHeartbeat() {
+        return (long) getDefault(PROP_APPLICATION_CLUSTER_HEARTBEAT, 20000L);
+    }
+
+    public static final long getClusterPollInterval() {
+        return (long) getDefault(PROP_APPLICATION_CLUSTER_POLL_INTERVAL, 5000L);
+    }
+
+    /**
+     * How long a node trusts a cached login, a login renamed on another node is not evicted from its cache.
+     */
+    public static final long getClusterUserCacheTtl() {
+        return (long) getDefault(PROP_APPLICATION_CLUSTER_USER_CACHE_TTL, 60000L);
+    }
+
+    /**
+     * Value from krameriusInstance.{instance}.http, falls back to application.http
+     */
+    private static int getHttpValue(String instance, String suffix, int defaultValue) {
+        int value = (Integer) getDefault(PROP_APPLICATION_HTTP + "." + suffix, defaultValue);
+        if (instance != null && !instance.isEmpty()) {
+            value = (Integer) getDefault(PREFIX_KRAMERIUS_INSTANCE + "." + instance + ".http." + suffix, value);
+        }
+        return value;
+    }
+
     public static final String getKeycloakUrl() {
         return Configurator.get().getConfig().getString(PROP_KEYCLOAK_URL);
     }
@@ -114,6 +286,26 @@ public class Config {
         return (String) getDefault(PROP_KEYCLOAK_USER_INFO_URL, "/search/api/client/v7.0/user");
     }
 
+    public static final Integer getKeycloakCacheSize() {
+        return (Integer) getDefault(PROP_KEYCLOAK_CACHE_SIZE, 1000);
+    }
+
+    public static final long getKeycloakCacheTtl() {
+        return (long) getDefault(PROP_KEYCLOAK_CACHE_TTL, 60000L);
+    }
+
+    public static final String getKeycloakJwks() {
+        return (String) getDefault(PROP_KEYCLOAK_JWKS, "");
+    }
+
+    public static final long getKeycloakJwksRefresh() {
+        return (long) getDefault(PROP_KEYCLOAK_JWKS_REFRESH, 3600000L);
+    }
+
+    public static final String getKeycloakIssuer() {
+        return (String) getDefault(PROP_KEYCLOAK_ISSUER, "");
+    }
+
     public static final List<String> getKrameriusInstances() {
         String instances = Configurator.get().getConfig().getString(PROP_KRAMERIUS_INSTANCES);
         return Arrays.asList(instances.split(","));
@@ -220,6 +412,218 @@ public class Config {
         return Configurator.get().getConfig().getString(PROP_PROCESSOR_PERO_KEY);
     }
 
+    /**
+     * @return {@code api} to call PERO directly or {@code exec} to run the external script (default),
+     * the web API has to be chosen explicitly
+     */
+    public static final String getProcessorPeroMode() {
+        return (String) getDefault(PROP_PROCESSOR_PERO_MODE, "exec");
+    }
+
+    public static final String getProcessorPeroUrl() {
+        return (String) getDefault(PROP_PROCESSOR_PERO_URL, "https://pero-ocr.fit.vutbr.cz/api/");
+    }
+
+    public static final int getProcessorPeroEngine() {
+        return (Integer) getDefault(PROP_PROCESSOR_PERO_ENGINE, 1);
+    }
+
+    public static final long getProcessorPeroPollInterval() {
+        return (long) getDefault(PROP_PROCESSOR_PERO_POLL_INTERVAL, 2000L);
+    }
+
+    public static final int getProcessorPeroUploadThreads() {
+        return (Integer) getDefault(PROP_PROCESSOR_PERO_UPLOAD_THREADS, 4);
+    }
+
+    public static final int getProcessorPeroBatchSize() {
+        return (Integer) getDefault(PROP_PROCESSOR_PERO_BATCH_SIZE, 20);
+    }
+
+    /**
+     * @return maximal number of PERO processes running at once in the exec mode
+     */
+    public static final int getProcessorPeroParallel() {
+        return (Integer) getDefault(PROP_PROCESSOR_PERO_PARALLEL, 4);
+    }
+
+    /**
+     * @return how many times a failed PERO process is run again in the exec mode
+     */
+    public static final int getProcessorPeroRetryAttempts() {
+        return (Integer) getDefault(PROP_PROCESSOR_PERO_RETRY_ATTEMPTS, 2);
+    }
+
+    /**
+     * @return delay before the first retry in ms, it doubles with each further retry
+     */
+    public static final long getProcessorPeroRetryDelay() {
+        return (long) getDefault(PROP_PROCESSOR_PERO_RETRY_DELAY, 5000L);
+    }
+
+    /**
+     * @return kB of the process output kept for the log
+     */
+    public static final int getProcessorPeroOutputLimit() {
+        return (Integer) getDefault(PROP_PROCESSOR_PERO_OUTPUT_LIMIT, 64);
+    }
+
+    /**
+     * @return true if images are converted to JPEG and downscaled before they are sent to PERO
+     */
+    public static final boolean isProcessorImageEnabled() {
+        return (Boolean) getDefault(PROP_PROCESSOR_IMAGE_ENABLED, true);
+    }
+
+    /**
+     * @return maximal length of the longer edge of an image in pixels, 0 = images are not downscaled,
+     * the ALTO of a downscaled image is converted back to the original size
+     */
+    public static final int getProcessorImageMaxLongEdge() {
+        return (Integer) getDefault(PROP_PROCESSOR_IMAGE_MAX_LONG_EDGE, 0);
+    }
+
+    /**
+     * @return JPEG quality of the normalized images (0 - 1)
+     */
+    public static final float getProcessorImageQuality() {
+        return ((Number) getDefault(PROP_PROCESSOR_IMAGE_QUALITY, 0.9d)).floatValue();
+    }
+
+    public static final int getProcessorImageThreads() {
+        return (Integer) getDefault(PROP_PROCESSOR_IMAGE_THREADS, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return MB of the PERO folder that running batches may reserve, 0 = limited only by the free space
+     */
+    public static final long getProcessorScratchQuota() {
+        return (long) getDefault(PROP_PROCESSOR_SCRATCH_QUOTA, 0L);
+    }
+
+    /**
+     * @return MB that are always left free on the scratch disks
+     */
+    public static final long getProcessorScratchMinFree() {
+        return (long) getDefault(PROP_PROCESSOR_SCRATCH_MIN_FREE, 1024L);
+    }
+
+    /**
+     * @return expected MB of the image, ALTO and OCR of one page
+     */
+    public static final long getProcessorScratchPageSize() {
+        return (long) getDefault(PROP_PROCESSOR_SCRATCH_PAGE_SIZE, 10L);
+    }
+
+    /**
+     * @return optional fast scratch folder (e.g. tmpfs) used before the PERO folder
+     */
+    public static final String getProcessorScratchFastPath() {
+        return normalizePath((String) getDefault(PROP_PROCESSOR_SCRATCH_FAST_PATH, ""));
+    }
+
+    public static final long getProcessorScratchFastQuota() {
+        return (long) getDefault(PROP_PROCESSOR_SCRATCH_FAST_QUOTA, 2048L);
+    }
+
+    public static final long getProcessorScratchCleanupInterval() {
+        return (long) getDefault(PROP_PROCESSOR_SCRATCH_CLEANUP_INTERVAL, 3600000L);
+    }
+
+    /**
+     * @return ms after which a folder of a batch that is neither planned nor running is removed
+     */
+    public static final long getProcessorScratchOrphanAge() {
+        return (long) getDefault(PROP_PROCESSOR_SCRATCH_ORPHAN_AGE, 3600000L);
+    }
+
+    public static final boolean isProcessorPeroCacheEnabled() {
+        return (Boolean) getDefault(PROP_PROCESSOR_PERO_CACHE_ENABLED, true);
+    }
+
+    public static final String getProcessorPeroCachePath() {
+        return normalizePath((String) getDefault(PROP_PROCESSOR_PERO_CACHE_PATH, getPeroPath() + "/cache"));
+    }
+
+    /**
+     * @return maximal size of the OCR cache in bytes, the value is configured in MB
+     */
+    public static final long getProcessorPeroCacheMaxSize() {
+        return ((Integer) getDefault(PROP_PROCESSOR_PERO_CACHE_MAX_SIZE, 10240)) * 1024L * 1024L;
+    }
+
+    /**
+     * @return version of the PERO engine configuration, changing it invalidates the OCR cache
+     */
+    public static final String getProcessorPeroCacheVersion() {
+        return String.valueOf(getDefault(PROP_PROCESSOR_PERO_CACHE_VERSION, ""));
+    }
+
+    public static final int getProcessorSaveThreads() {
+        return (Integer) getDefault(PROP_PROCESSOR_SAVE_THREADS, 4);
+    }
+
+    public static final int getProcessorSaveCommitSize() {
+        return (Integer) getDefault(PROP_PROCESSOR_SAVE_COMMIT_SIZE, 50);
+    }
+
+    public static final int getProcessorThreads() {
+        return (Integer) getDefault(PROP_PROCESSOR_THREADS, 1);
+    }
+
+    public static final int getProcessorHighPriorityThreads() {
+        return (Integer) getDefault(PROP_PROCESSOR_HIGH_PRIORITY_THREADS, 1);
+    }
+
+    public static final long getProcessorAgingInterval() {
+        return (long) getDefault(PROP_PROCESSOR_AGING_INTERVAL, 600000L);
+    }
+
+    /**
+     * @return ms of waiting added to each further batch of the same user and instance,
+     * a user with many batches does not block the single batches of other users
+     */
+    public static final long getProcessorFairInterval() {
+        return (long) getDefault(PROP_PROCESSOR_FAIR_INTERVAL, 60000L);
+    }
+
+    /**
+     * @return share of the instance in the scheduling, batches of an instance with weight 2 are spaced half as much
+     */
+    public static final int getProcessorWeight(String instance) {
+        return (Integer) getDefault(PREFIX_KRAMERIUS_INSTANCE + "." + instance + "." + SUFFIX_KRAMERIUS_INSTANCE_PROCESSOR_WEIGHT, 1);
+    }
+
+    /**
+     * @return maximal number of batches of the instance running at once, 0 = unlimited
+     */
+    public static final int getProcessorMaxRunning(String instance) {
+        return (Integer) getDefault(PREFIX_KRAMERIUS_INSTANCE + "." + instance + "." + SUFFIX_KRAMERIUS_INSTANCE_PROCESSOR_MAX_RUNNING, 0);
+    }
+
+    public static final int getProcessorMaxAttempts() {
+        return (Integer) getDefault(PROP_PROCESSOR_MAX_ATTEMPTS, 3);
+    }
+
+    public static final long getProcessorPollInterval() {
+        return (long) getDefault(PROP_PROCESSOR_POLL_INTERVAL, 60000L);
+    }
+
+    /**
+     * @return true if a repeated request raises the priority of the planned batch of the object
+     */
+    public static final boolean isProcessorUpgradePriority() {
+        return (Boolean) getDefault(PROP_PROCESSOR_UPGRADE_PRIORITY, true);
+    }
+
+    /**
+     * @return true if a HIGH batch that finds all workers busy (its own lane and the main pool) pauses a running LOW batch,
+     * in the cluster mode a full node reserves a waiting HIGH batch that can be claimed with its heartbeat
+     */
+    public static final boolean isProcessorPreemption() {
+        return (Boolean) getDefault(PROP_PROCESSOR_PREEMPTION, false);
+    }
+
     public static final String getPermissionEditor() {
         return Configurator.get().getConfig().getString(PROP_PERMISSION_EDITOR);
     }
@@ -29,11 +29,16 @@ public class Const {
     public static final String BATCH_STATE_RUNNING = "RUNNING";
     public static final String BATCH_STATE_DONE = "DONE";
     public static final String BATCH_STATE_FAILED = "FAILED";
+    public static final String BATCH_STATE_CANCELED = "CANCELED";
 
     public static final String BATCH_SUBSTATE_DOWNLOADING = "DOWNLOADING";
     public static final String BATCH_SUBSTATE_GENERATING = "GENERATING";
     public static final String BATCH_SUBSTATE_SAVING = "SAVING";
 
+    public static final String BATCH_PAGE_STATE_DOWNLOADED = "DOWNLOADED";
+    public static final String BATCH_PAGE_STATE_GENERATED = "GENERATED";
+    public static final String BATCH_PAGE_STATE_SAVED = "SAVED";
+
     public static final String BATCH_PRIORITY_LOW = "LOW";
     public static final String BATCH_PRIORITY_MEDIUM = "MEDIUM";
     public static final String BATCH_PRIORITY_HIGH = "HIGH";
@@ -54,6 +59,7 @@ public class Const {
     public static final String PATH_APP = getPath(PATH_ROOT, "altoEditor");
 
     public static final String PATH_INFO = getPath(PATH_APP, "info");
+    public static final String PATH_INFO_HTTP = getPath(PATH_INFO, "http");
 
     public static final String PATH_DB = getPath(PATH_APP, "db");
     public static final String PATH_DB_VERSIONS = getPath(PATH_DB, "versions");
@@ -64,6 +70,7 @@ public class Const {
     public static final String PATH_DB_DIGITAL_OBJECT = getPath(PATH_DB, "object");
     public static final String PATH_DB_BATCHES = getPath(PATH_DB, "batches");
     public static final String PATH_DB_BATCH = getPath(PATH_DB, "batch");
+    public static final String PATH_DB_BATCH_CANCEL = getPath(PATH_DB_BATCH, "cancel");
 
     public static final String PATH_DIGITAL_OBJECT = getPath(PATH_APP, "object");
     public static final String PATH_DIGITAL_OBJECT_INFORMATION = getPath(PATH_DIGITAL_OBJECT, "objectInformation");
@@ -79,8 +86,8 @@ public class Const {
     public static final String PATH_DIGITAL_OBJECT_UNLOCK = getPath(PATH_DIGITAL_OBJECT, "unlock");
 
     public static List<String> PUBLIC_PATH = Arrays.asList(PATH_ROOT, PATH_APP, PATH_INFO);
-    public static List<String> ADMINS_PATH = Arrays.asList(PATH_ROOT, PATH_APP, PATH_INFO, PATH_DB, PATH_DB_VERSIONS, PATH_DB_ACTUAL_VERSION,
-            PATH_DB_USERS, PATH_DB_USER, PATH_DB_DIGITAL_OBJECTS, PATH_DB_DIGITAL_OBJECT, PATH_DB_BATCHES, PATH_DB_BATCH,
+    public static List<String> ADMINS_PATH = Arrays.asList(PATH_ROOT, PATH_APP, PATH_INFO, PATH_INFO_HTTP, PATH_DB, PATH_DB_VERSIONS, PATH_DB_ACTUAL_VERSION,
+            PATH_DB_USERS, PATH_DB_USER, PATH_DB_DIGITAL_OBJECTS, PATH_DB_DIGITAL_OBJECT, PATH_DB_BATCHES, PATH_DB_BATCH, PATH_DB_BATCH_CANCEL,
             PATH_DIGITAL_OBJECT, PATH_DIGITAL_OBJECT_INFORMATION, PATH_DIGITAL_OBJECT_IMAGE, PATH_DIGITAL_OBJECT_ALTO,
             PATH_DIGITAL_OBJECT_ALTO_ORIGINAL, PATH_DIGITAL_OBJECT_OCR, PATH_DIGITAL_OBJECT_PERO_GENERATE, PATH_DIGITAL_OBJECT_STATE_ACCEPTED,
             PATH_DIGITAL_OBJECT_STATE_REJECTED, PATH_DIGITAL_OBJECT_UPLOAD_KRAMERIUS, PATH_DIGITAL_OBJECT_LOCK, PATH_DIGITAL_OBJECT_UNLOCK);
@@ -128,6 +135,11 @@ public class Const {
     public static final String PARAM_ORDER_SORT = "orderSort";
     public static final String PARAM_LIMIT = "limit";
     public static final String PARAM_OFFSET = "offset";
+    public static final String PARAM_CURSOR = "cursor";
+    public static final String PARAM_COUNT = "count";
+
+    public static final String COUNT_EXACT = "exact";
+    public static final String COUNT_NONE = "none";
 
     public static final Integer DEFAULT_SQL_LIMIT_SIZE = 10;
 
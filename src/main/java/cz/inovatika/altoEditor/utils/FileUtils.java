@@ -19,6 +19,8 @@ public class FileUtils {
 
     private static final Logger LOGGER = LogManager.getLogger(FileUtils.class.getName());
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     public static String getPidAsFile(String value) {
         if (value.startsWith("uuid:")) {
             return value.substring(5);
@@ -119,7 +121,7 @@ public class FileUtils {
         FileOutputStream outputStream = null;
         try {
             outputStream = new FileOutputStream(file);
-            IOUtils.copy(content, outputStream);
+            IOUtils.copy(content, outputStream, BUFFER_SIZE);
         } finally {
             closeQuietly(outputStream, pid);
         }
@@ -289,6 +289,8 @@ public class Utils {
                 return Configurator.get().getConfig().getBoolean(field);
             } else if (defaultValue instanceof Long) {
                 return Configurator.get().getConfig().getLong(field);
+            } else if (defaultValue instanceof Double) {
+                return Configurator.get().getConfig().getDouble(field);
             } else {
                 return Configurator.get().getConfig().getObject(field);
             }
@@ -24,4 +24,28 @@ ALTER TABLE digitalobject ADD COLUMN label VARCHAR(1024);
 ALTER TABLE digitalobject ADD COLUMN parentPath VARCHAR(255);
 ALTER TABLE digitalobject ADD COLUMN parentLabel VARCHAR(255);
 ALTER TABLE digitalobject ADD COLUMN lock BOOLEAN;
-INSERT INTO version (id, datum, version) VALUES (NEXTVAL('version_id_seq'), NOW(), '3');
\ No newline at end of file
+INSERT INTO version (id, datum, version) VALUES (NEXTVAL('version_id_seq'), NOW(), '3');
+
+-- verze db 4
+ALTER TABLE batch ADD COLUMN attempts INT DEFAULT 0;
+CREATE INDEX batch_state_index ON batch (state, id);
+INSERT INTO version (id, datum, version) VALUES (NEXTVAL('version_id_seq'), NOW(), '4');
+
+-- verze db 5
+ALTER TABLE batch ADD COLUMN node VARCHAR(255);
+ALTER TABLE batch ADD COLUMN leaseUntil TIMESTAMP;
+CREATE INDEX batch_node_index ON batch (node, state);
+INSERT INTO version (id, datum, version) VALUES (NEXTVAL('version_id_seq'), NOW(), '5');
+
+-- verze db 6
+CREATE TABLE batchpage (batchId INT NOT NULL, pid VARCHAR(255) NOT NULL, state VARCHAR(20) NOT NULL, datum TIMESTAMP NOT NULL, PRIMARY KEY (batchId, pid));
+INSERT INTO version (id, datum, version) VALUES (NEXTVAL('version_id_seq'), NOW(), '6');
+
+-- verze db 7
+ALTER TABLE batch ADD COLUMN createdBy VARCHAR(255);
+INSERT INTO version (id, datum, version) VALUES (NEXTVAL('version_id_seq'), NOW(), '7');
+
+-- verze db 8
+ALTER TABLE batch ADD COLUMN preemptedBy VARCHAR(255);
+ALTER TABLE batch ADD COLUMN preemptUntil TIMESTAMP;
+INSERT INTO version (id, datum, version) VALUES (NEXTVAL('version_id_seq'), NOW(), '8');